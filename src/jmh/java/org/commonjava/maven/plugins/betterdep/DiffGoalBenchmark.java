@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.commonjava.maven.atlas.graph.rel.ProjectRelationship;
+import org.commonjava.maven.plugins.betterdep.DiffGoal.DiffFormat;
+import org.commonjava.maven.plugins.betterdep.impl.RelationshipFixture;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link DiffGoal#printRels(Set, DiffFormat)} over the relationships of a synthetic
+ * graph, in each output format.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class DiffGoalBenchmark
+{
+
+    @Param( { "10000", "100000" } )
+    public int relationships;
+
+    @Param( { "brief", "full", "targets" } )
+    public String format;
+
+    private Set<ProjectRelationship<?, ?>> rels;
+
+    private DiffFormat fmt;
+
+    @Setup
+    public void setup()
+    {
+        rels = new LinkedHashSet<ProjectRelationship<?, ?>>( RelationshipFixture.build( relationships )
+                                                                                .getRelationships() );
+        fmt = DiffFormat.valueOf( format );
+    }
+
+    @Benchmark
+    public List<String> printRels()
+    {
+        return DiffGoal.printRels( rels, fmt );
+    }
+
+}
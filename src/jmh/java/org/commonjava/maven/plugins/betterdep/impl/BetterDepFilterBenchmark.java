@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.commonjava.maven.atlas.graph.filter.ProjectRelationshipFilter;
+import org.commonjava.maven.atlas.graph.rel.ProjectRelationship;
+import org.commonjava.maven.atlas.ident.DependencyScope;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * {@link BetterDepFilter#accept(ProjectRelationship)} and
+ * {@link BetterDepFilter#getChildFilter(ProjectRelationship)} over every
+ * relationship in a synthetic graph, the way a traversal calls them.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class BetterDepFilterBenchmark
+{
+
+    @Param( { "10000", "100000" } )
+    public int relationships;
+
+    @Param( { "runtime", "test" } )
+    public String scope;
+
+    private List<ProjectRelationship<?, ?>> rels;
+
+    private BetterDepFilter filter;
+
+    @Setup
+    public void setup()
+    {
+        rels = RelationshipFixture.build( relationships )
+                                  .getRelationships();
+        filter = new BetterDepFilter( DependencyScope.getScope( scope ) );
+    }
+
+    @Benchmark
+    public int accept()
+    {
+        int accepted = 0;
+        for ( final ProjectRelationship<?, ?> rel : rels )
+        {
+            if ( filter.accept( rel ) )
+            {
+                accepted++;
+            }
+        }
+
+        return accepted;
+    }
+
+    @Benchmark
+    public void acceptAndDescend( final Blackhole bh )
+    {
+        for ( final ProjectRelationship<?, ?> rel : rels )
+        {
+            if ( filter.accept( rel ) )
+            {
+                final ProjectRelationshipFilter child = filter.getChildFilter( rel );
+                bh.consume( child.accept( rel ) );
+            }
+        }
+    }
+
+}
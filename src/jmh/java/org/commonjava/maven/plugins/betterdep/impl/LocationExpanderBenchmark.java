@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.repository.ArtifactRepositoryPolicy;
+import org.apache.maven.artifact.repository.MavenArtifactRepository;
+import org.apache.maven.artifact.repository.layout.DefaultRepositoryLayout;
+import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.Location;
+import org.commonjava.maven.galley.model.SimpleLocation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * {@link MavenLocationExpander#expand} of the POM of every project in a synthetic
+ * graph. 'plain' expands to the configured repositories; 'routed' also has a routing
+ * index that knows a repository for each groupId prefix and a health tracker with one
+ * slow repository, which is the default configuration of the goals.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class LocationExpanderBenchmark
+{
+
+    @Param( { "10000", "100000" } )
+    public int relationships;
+
+    @Param( { "3", "10" } )
+    public int repositories;
+
+    @Param( { "plain", "routed" } )
+    public String mode;
+
+    private MavenLocationExpander expander;
+
+    private List<ConcreteResource> resources;
+
+    private File routes;
+
+    @Setup
+    public void setup()
+        throws Exception
+    {
+        final List<ArtifactRepository> repos = new ArrayList<ArtifactRepository>();
+        for ( int i = 0; i < repositories; i++ )
+        {
+            repos.add( new MavenArtifactRepository( "repo" + i, "http://repo" + i + ".example.org/maven2/",
+                                                    new DefaultRepositoryLayout(), new ArtifactRepositoryPolicy(),
+                                                    new ArtifactRepositoryPolicy() ) );
+        }
+
+        expander = new MavenLocationExpander( null, repos, null );
+
+        final List<String> paths = RelationshipFixture.build( relationships )
+                                                      .getPomPaths();
+
+        if ( "routed".equals( mode ) )
+        {
+            routes = File.createTempFile( "betterdep-routes", ".txt" );
+            final RepositoryRoutingIndex index = new RepositoryRoutingIndex( routes );
+            final Random random = new Random( 1 );
+            for ( final String path : paths )
+            {
+                index.record( path, repos.get( random.nextInt( repositories ) )
+                                         .getUrl() );
+            }
+
+            final LocationHealth health = new LocationHealth();
+            for ( int i = 0; i < 10; i++ )
+            {
+                for ( final ArtifactRepository repo : repos )
+                {
+                    final long millis = "repo0".equals( repo.getId() ) ? 2000 : 50;
+                    health.record( repo.getUrl(), TimeUnit.MILLISECONDS.toNanos( millis ), null );
+                }
+            }
+
+            expander.setRoutingIndex( index );
+            expander.setLocationHealth( health );
+        }
+
+        final Location target = new SimpleLocation( MavenLocationExpander.EXPANSION_TARGET );
+        resources = new ArrayList<ConcreteResource>( paths.size() );
+        for ( final String path : paths )
+        {
+            resources.add( new ConcreteResource( target, path ) );
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        if ( routes != null )
+        {
+            routes.delete();
+        }
+    }
+
+    @Benchmark
+    public void expand( final Blackhole bh )
+        throws Exception
+    {
+        for ( final ConcreteResource resource : resources )
+        {
+            bh.consume( expander.expand( resource ) );
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.commonjava.maven.atlas.graph.rel.ProjectRelationship;
+import org.commonjava.maven.atlas.ident.DependencyScope;
+import org.commonjava.maven.atlas.ident.ref.ProjectRef;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link PathsTraversal#preCheck(ProjectRelationship, List)} for every relationship
+ * in a synthetic graph, in the breadth-first order a traversal offers them. Each
+ * invocation starts from a fresh traversal, so the filter cache is built up as it
+ * would be in a real paths search.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class PathsTraversalBenchmark
+{
+
+    @Param( { "10000", "100000" } )
+    public int relationships;
+
+    @Param( { "1", "20" } )
+    public int targets;
+
+    private List<ProjectRelationship<?, ?>> rels;
+
+    private List<List<ProjectRelationship<?, ?>>> paths;
+
+    private Set<ProjectRef> to;
+
+    @Setup
+    public void setup()
+    {
+        final RelationshipFixture fixture = RelationshipFixture.build( relationships );
+        rels = fixture.getRelationships();
+        paths = fixture.getPaths();
+        to = fixture.getLeaves( targets );
+    }
+
+    @Benchmark
+    public int preCheck()
+    {
+        final PathsTraversal traversal = new PathsTraversal( DependencyScope.runtime, to );
+        for ( int i = 0; i < rels.size(); i++ )
+        {
+            traversal.preCheck( rels.get( i ), paths.get( i ) );
+        }
+
+        return traversal.getDiscoveredPaths()
+                        .size();
+    }
+
+}
@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.commonjava.maven.atlas.graph.rel.ProjectRelationship;
+import org.commonjava.maven.atlas.graph.rel.SimpleBomRelationship;
+import org.commonjava.maven.atlas.graph.rel.SimpleDependencyRelationship;
+import org.commonjava.maven.atlas.graph.rel.SimpleParentRelationship;
+import org.commonjava.maven.atlas.ident.DependencyScope;
+import org.commonjava.maven.atlas.ident.ref.ProjectRef;
+import org.commonjava.maven.atlas.ident.ref.ProjectVersionRef;
+import org.commonjava.maven.atlas.ident.ref.SimpleArtifactRef;
+import org.commonjava.maven.atlas.ident.ref.SimpleProjectRef;
+import org.commonjava.maven.atlas.ident.ref.SimpleProjectVersionRef;
+
+/**
+ * A synthetic, layered dependency graph for the benchmarks. Each project declares a
+ * parent, sometimes a BOM, and a handful of dependencies on projects in later layers,
+ * with a realistic mix of scopes, managed, optional and excluding dependencies. The
+ * same seed always builds the same graph.
+ *
+ * Relationships are listed breadth-first from the roots, each with the path that
+ * leads to its declaring project, which is the order a traversal visits them in.
+ */
+public final class RelationshipFixture
+{
+
+    public static final URI SOURCE = URI.create( "http://repo.example.org/maven2/" );
+
+    private static final DependencyScope[] SCOPES =
+        { DependencyScope.compile, DependencyScope.compile, DependencyScope.compile, DependencyScope.runtime,
+            DependencyScope.provided, DependencyScope.test, DependencyScope.test };
+
+    /**
+     * Exclusions in real POMs mostly name the same few artifacts.
+     */
+    private static final ProjectRef[] EXCLUDED =
+        { new SimpleProjectRef( "commons-logging", "commons-logging" ), new SimpleProjectRef( "log4j", "log4j" ),
+            new SimpleProjectRef( "xml-apis", "xml-apis" ), new SimpleProjectRef( "javax.servlet", "servlet-api" ),
+            new SimpleProjectRef( "org.slf4j", "slf4j-log4j12" ) };
+
+    private static final int DEPENDENCIES = 10;
+
+    private static final int ROOTS = 4;
+
+    private final List<ProjectVersionRef> projects = new ArrayList<ProjectVersionRef>();
+
+    private final List<ProjectRelationship<?, ?>> relationships = new ArrayList<ProjectRelationship<?, ?>>();
+
+    private final List<List<ProjectRelationship<?, ?>>> paths = new ArrayList<List<ProjectRelationship<?, ?>>>();
+
+    private final Set<ProjectVersionRef> missing = new HashSet<ProjectVersionRef>();
+
+    private RelationshipFixture()
+    {
+    }
+
+    /**
+     * Build a graph with about the given number of relationships.
+     */
+    public static RelationshipFixture build( final int relationships )
+    {
+        return build( relationships, 1L );
+    }
+
+    public static RelationshipFixture build( final int relationships, final long seed )
+    {
+        final RelationshipFixture fixture = new RelationshipFixture();
+        fixture.generate( relationships, new Random( seed ) );
+
+        return fixture;
+    }
+
+    public List<ProjectRelationship<?, ?>> getRelationships()
+    {
+        return relationships;
+    }
+
+    /**
+     * The path from a root to the declaring project of the relationship at the same index.
+     */
+    public List<List<ProjectRelationship<?, ?>>> getPaths()
+    {
+        return paths;
+    }
+
+    public List<ProjectVersionRef> getProjects()
+    {
+        return projects;
+    }
+
+    public List<ProjectVersionRef> getRoots()
+    {
+        return projects.subList( 0, ROOTS );
+    }
+
+    /**
+     * Roughly one project in fifty, as if its POM couldn't be resolved.
+     */
+    public Set<ProjectVersionRef> getMissing()
+    {
+        return missing;
+    }
+
+    /**
+     * Projects near the bottom of the graph, for path searches.
+     */
+    public Set<ProjectRef> getLeaves( final int count )
+    {
+        final Set<ProjectRef> result = new LinkedHashSet<ProjectRef>();
+        for ( int i = projects.size() - 1; i >= 0 && result.size() < count; i -= 7 )
+        {
+            result.add( projects.get( i )
+                                .asProjectRef() );
+        }
+
+        return result;
+    }
+
+    /**
+     * The Maven repository path of each project's POM, in graph order.
+     */
+    public List<String> getPomPaths()
+    {
+        final List<String> result = new ArrayList<String>( projects.size() );
+        for ( final ProjectVersionRef ref : projects )
+        {
+            result.add( ref.getGroupId()
+                           .replace( '.', '/' ) + "/" + ref.getArtifactId() + "/" + ref.getVersionString() + "/"
+                + ref.getArtifactId() + "-" + ref.getVersionString() + ".pom" );
+        }
+
+        return result;
+    }
+
+    private void generate( final int count, final Random random )
+    {
+        final int perProject = DEPENDENCIES + 2;
+        final int size = Math.max( ROOTS * 2, count / perProject );
+
+        for ( int i = 0; i < size; i++ )
+        {
+            projects.add( new SimpleProjectVersionRef( "org.example.g" + ( i % 97 ) + ".sub" + ( i % 13 ),
+                                                       "artifact-" + i, "1." + ( i % 10 ) + "." + ( i % 3 ) ) );
+            if ( i % 50 == 49 )
+            {
+                missing.add( projects.get( i ) );
+            }
+        }
+
+        final ProjectVersionRef parent = new SimpleProjectVersionRef( "org.example", "parent", "1" );
+        final ProjectVersionRef bom = new SimpleProjectVersionRef( "org.example", "bom", "1" );
+
+        final Map<ProjectVersionRef, List<ProjectRelationship<?, ?>>> reached =
+            new HashMap<ProjectVersionRef, List<ProjectRelationship<?, ?>>>();
+        for ( int i = 0; i < ROOTS; i++ )
+        {
+            reached.put( projects.get( i ), Collections.<ProjectRelationship<?, ?>> emptyList() );
+        }
+
+        // each project only depends on later ones, so the graph is acyclic and breadth-first by index.
+        for ( int i = 0; i < size && relationships.size() < count; i++ )
+        {
+            final ProjectVersionRef declaring = projects.get( i );
+            List<ProjectRelationship<?, ?>> path = reached.get( declaring );
+            if ( path == null )
+            {
+                path = Collections.emptyList();
+            }
+
+            add( new SimpleParentRelationship( SOURCE, declaring, parent ), path, reached );
+            if ( i % 5 == 0 )
+            {
+                add( new SimpleBomRelationship( SOURCE, declaring, bom, 0 ), path, reached );
+            }
+
+            final int remaining = size - i - 1;
+            for ( int d = 0; d < DEPENDENCIES && remaining > 0; d++ )
+            {
+                final ProjectVersionRef target = projects.get( i + 1 + random.nextInt( Math.min( remaining, 200 ) ) );
+                final ProjectRef[] excludes =
+                    random.nextInt( 20 ) == 0 ? new ProjectRef[] { EXCLUDED[random.nextInt( EXCLUDED.length )] }
+                                    : new ProjectRef[0];
+
+                add( new SimpleDependencyRelationship( SOURCE, declaring,
+                                                       new SimpleArtifactRef( target, "jar", null,
+                                                                              random.nextInt( 20 ) == 0 ),
+                                                       SCOPES[random.nextInt( SCOPES.length )], d,
+                                                       random.nextInt( 8 ) == 0, excludes ), path, reached );
+            }
+        }
+    }
+
+    private void add( final ProjectRelationship<?, ?> rel, final List<ProjectRelationship<?, ?>> path,
+                      final Map<ProjectVersionRef, List<ProjectRelationship<?, ?>>> reached )
+    {
+        relationships.add( rel );
+        paths.add( path );
+
+        final ProjectVersionRef target = rel.getTarget()
+                                            .asProjectVersionRef();
+        if ( !reached.containsKey( target ) )
+        {
+            final List<ProjectRelationship<?, ?>> next = new ArrayList<ProjectRelationship<?, ?>>( path );
+            next.add( rel );
+            reached.put( target, next );
+        }
+    }
+
+}
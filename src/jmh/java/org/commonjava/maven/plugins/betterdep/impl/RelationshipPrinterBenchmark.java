@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.commonjava.maven.atlas.graph.rel.ProjectRelationship;
+import org.commonjava.maven.atlas.ident.ref.ProjectVersionRef;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link BetterDepRelationshipPrinter#print} for every relationship in a synthetic
+ * graph, indented by its depth and with the labels the tree goal passes in.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class RelationshipPrinterBenchmark
+{
+
+    @Param( { "10000", "100000" } )
+    public int relationships;
+
+    private List<ProjectRelationship<?, ?>> rels;
+
+    private List<List<ProjectRelationship<?, ?>>> paths;
+
+    private Map<String, Set<ProjectVersionRef>> labels;
+
+    private BetterDepRelationshipPrinter printer;
+
+    private StringWriter buffer;
+
+    private PrintWriter writer;
+
+    @Setup
+    public void setup()
+    {
+        final RelationshipFixture fixture = RelationshipFixture.build( relationships );
+        rels = fixture.getRelationships();
+        paths = fixture.getPaths();
+
+        labels = new HashMap<String, Set<ProjectVersionRef>>();
+        labels.put( "ROOT", new HashSet<ProjectVersionRef>( fixture.getRoots() ) );
+        labels.put( "NOT-RESOLVED", fixture.getMissing() );
+
+        printer = new BetterDepRelationshipPrinter( fixture.getMissing() );
+        buffer = new StringWriter( relationships * 80 );
+        writer = new PrintWriter( buffer );
+    }
+
+    @Benchmark
+    public int print()
+    {
+        buffer.getBuffer()
+              .setLength( 0 );
+
+        for ( int i = 0; i < rels.size(); i++ )
+        {
+            printer.print( rels.get( i ), null, writer, labels, paths.get( i )
+                                                                   .size(), "  " );
+            writer.print( '\n' );
+        }
+
+        writer.flush();
+
+        return buffer.getBuffer()
+                     .length();
+    }
+
+}
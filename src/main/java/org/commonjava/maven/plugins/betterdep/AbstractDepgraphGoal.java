@@ -11,6 +11,7 @@
 package org.commonjava.maven.plugins.betterdep;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.maven.artifact.repository.ArtifactRepository;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.model.Dependency;
@@ -25,6 +26,7 @@ import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
 import org.codehaus.plexus.logging.console.ConsoleLogger;
 import org.commonjava.cartographer.CartoDataException;
+import org.commonjava.cartographer.CartoRequestException;
 import org.commonjava.cartographer.Cartographer;
 import org.commonjava.cartographer.CartographerCoreBuilder;
 import org.commonjava.cartographer.graph.discover.DiscoveryConfig;
@@ -34,6 +36,12 @@ import org.commonjava.cartographer.graph.preset.CommonPresetParameters;
 import org.commonjava.cartographer.graph.preset.PresetSelector;
 import org.commonjava.cartographer.request.GraphComposition;
 import org.commonjava.cartographer.request.GraphDescription;
+import org.commonjava.cartographer.request.PathsRequest;
+import org.commonjava.cartographer.request.build.GraphCompositionBuilder;
+import org.commonjava.cartographer.request.build.GraphDescriptionBuilder;
+import org.commonjava.cartographer.request.build.PathsRequestBuilder;
+import org.commonjava.cartographer.result.ProjectPath;
+import org.commonjava.cartographer.result.ProjectPathsResult;
 import org.commonjava.cartographer.spi.graph.discover.ProjectRelationshipDiscoverer;
 import org.commonjava.maven.atlas.graph.RelationshipGraph;
 import org.commonjava.maven.atlas.graph.RelationshipGraphException;
@@ -49,36 +57,81 @@ import org.commonjava.maven.atlas.graph.rel.SimpleBomRelationship;
 import org.commonjava.maven.atlas.graph.rel.SimpleDependencyRelationship;
 import org.commonjava.maven.atlas.graph.rel.SimpleParentRelationship;
 import org.commonjava.maven.atlas.graph.spi.RelationshipGraphConnectionFactory;
+import org.commonjava.maven.atlas.graph.spi.jung.JungGraphConnectionFactory;
 import org.commonjava.maven.atlas.graph.spi.neo4j.FileNeo4jConnectionFactory;
 import org.commonjava.maven.atlas.graph.util.RelationshipUtils;
 import org.commonjava.maven.atlas.ident.DependencyScope;
+import org.commonjava.maven.atlas.ident.ref.ArtifactRef;
 import org.commonjava.maven.atlas.ident.ref.ProjectRef;
 import org.commonjava.maven.atlas.ident.ref.ProjectVersionRef;
 import org.commonjava.maven.atlas.ident.ref.SimpleArtifactRef;
 import org.commonjava.maven.atlas.ident.ref.SimpleProjectRef;
 import org.commonjava.maven.atlas.ident.ref.SimpleProjectVersionRef;
+import org.commonjava.maven.galley.auth.MemoryPasswordManager;
+import org.commonjava.maven.galley.cache.FileCacheProvider;
+import org.commonjava.maven.galley.event.NoOpFileEventManager;
+import org.commonjava.maven.galley.io.NoOpTransferDecorator;
+import org.commonjava.maven.galley.model.ConcreteResource;
 import org.commonjava.maven.galley.model.Location;
 import org.commonjava.maven.galley.model.SimpleLocation;
+import org.commonjava.maven.galley.spi.auth.PasswordManager;
+import org.commonjava.maven.galley.spi.cache.CacheProvider;
+import org.commonjava.maven.galley.spi.event.FileEventManager;
+import org.commonjava.maven.galley.spi.transport.Transport;
+import org.commonjava.maven.plugins.betterdep.impl.Checksums;
+import org.commonjava.maven.plugins.betterdep.impl.DaemonClient;
+import org.commonjava.maven.plugins.betterdep.impl.DirectoryLock;
+import org.commonjava.maven.plugins.betterdep.impl.DiscoveryEvent;
+import org.commonjava.maven.plugins.betterdep.impl.FlightEvents;
+import org.commonjava.maven.plugins.betterdep.impl.LocalRepositoryPathGenerator;
+import org.commonjava.maven.plugins.betterdep.impl.LocationHealth;
+import org.commonjava.maven.plugins.betterdep.impl.LruMap;
 import org.commonjava.maven.plugins.betterdep.impl.MavenLocationExpander;
-
+import org.commonjava.maven.plugins.betterdep.impl.NamedThreadFactory;
+import org.commonjava.maven.plugins.betterdep.impl.PersistentNotFoundCache;
+import org.commonjava.maven.plugins.betterdep.impl.Metrics;
+import org.commonjava.maven.plugins.betterdep.impl.MetricsFileEventManager;
+import org.commonjava.maven.plugins.betterdep.impl.MonitoredTransport;
+import org.commonjava.maven.plugins.betterdep.impl.NotFoundConfirmingTransport;
+import org.commonjava.maven.plugins.betterdep.impl.RemoteRepositoriesTracker;
+import org.commonjava.maven.plugins.betterdep.impl.RepositoryMirrors;
+import org.commonjava.maven.plugins.betterdep.impl.RepositoryRoutingIndex;
+import org.commonjava.maven.plugins.betterdep.impl.RoutingFileEventManager;
+import org.commonjava.maven.plugins.betterdep.impl.TunedHttp;
+
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.apache.commons.lang.StringUtils.join;
+import static org.commonjava.maven.atlas.ident.util.IdentityUtils.project;
 import static org.commonjava.maven.atlas.ident.util.IdentityUtils.projectVersion;
 
 /**
@@ -96,6 +149,18 @@ public abstract class AbstractDepgraphGoal
 
     public static final String MUTATOR = "managed-dependency";
 
+    private static final String PATH_INDENT = "  ";
+
+    private static final String FINGERPRINT_DIR = "fingerprints";
+
+    private static final String FINGERPRINT_TYPE = "sha256";
+
+    public enum GraphBackend
+    {
+        neo4j,
+        memory
+    }
+
     /**
      * Write generated output to this file. Usually optional (except for 'repozip' 
      * goal, where it will default to 'target/repo.zip').
@@ -129,22 +194,102 @@ public abstract class AbstractDepgraphGoal
     private String inRepos;
 
     /**
-     * Temporary directory that will hold resolved POMs and other artifacts during
-     * graph resolution and other activities.
+     * Directory that will hold resolved POMs and other artifacts during graph
+     * resolution and other activities. This can be shared between projects and
+     * concurrent builds (e.g. ~/.m2/betterdep/resolved), since files are written to
+     * it atomically.
      */
     // FIXME Explicit use of 'target/' is bad, but without a project available ${project.build.directory} doesn't graph.
-    @Parameter( defaultValue = "target/dep/resolved", readonly = true, required = true )
+    @Parameter( defaultValue = "target/dep/resolved", property = "betterdep.resolverDir", required = true )
     private File resolverDir;
 
     /**
-     * Temporary directory used to store the resolved dependency graph. This can
-     * speed up successive calls to betterdep goals if it is not erased between
-     * invocations.
+     * Directory used to store the resolved dependency graph. This can speed up
+     * successive calls to betterdep goals if it is not erased between invocations,
+     * and can be shared between projects (e.g. ~/.m2/betterdep/db). Only one build
+     * at a time can open the database; see
+     * {@link AbstractDepgraphGoal#lockTimeout}.
      */
     // FIXME Explicit use of 'target/' is bad, but without a project available ${project.build.directory} doesn't graph.
-    @Parameter( defaultValue = "target/dep/db", readonly = true, required = true )
+    @Parameter( defaultValue = "target/dep/db", property = "betterdep.dbDir", required = true )
     private File dbDir;
 
+    /**
+     * Use the Maven local repository as the cache for POMs and other files that are
+     * downloaded, instead of {@link AbstractDepgraphGoal#resolverDir}. Anything Maven
+     * already has is then used in place, and anything betterdep downloads is
+     * recorded in '_remote.repositories' so Maven can use it in turn.
+     */
+    @Parameter( defaultValue = "false", property = "betterdep.useLocalRepoCache" )
+    protected boolean useLocalRepoCache;
+
+    /**
+     * Seconds to wait for another build to release the graph database in
+     * {@link AbstractDepgraphGoal#dbDir}. If it's still in use after that, this
+     * build keeps its graph in memory instead.
+     */
+    @Parameter( defaultValue = "30", property = "betterdep.lockTimeout" )
+    protected int lockTimeout;
+
+    /**
+     * Hours to remember that a POM or artifact was missing from a remote repository,
+     * so it isn't requested there again on later runs. The entries are kept in
+     * {@link AbstractDepgraphGoal#resolverDir}. Running Maven with -U forgets them
+     * all; 0 turns the persistent cache off.
+     */
+    @Parameter( defaultValue = "24", property = "betterdep.notFoundTtl" )
+    protected int notFoundTtl;
+
+    /**
+     * Learn which remote repositories serve which groupIds, and try those first
+     * when looking up files for the same groupIds later on. What's learned is kept
+     * in {@link AbstractDepgraphGoal#resolverDir}. Other repositories are still
+     * tried if the learned ones don't have a file.
+     */
+    @Parameter( defaultValue = "true", property = "betterdep.routing" )
+    protected boolean routing;
+
+    /**
+     * Track the latency and failures of each remote repository during the run, and
+     * try slow or failing ones last. The statistics are included in the
+     * -Dbetterdep.metrics report.
+     */
+    @Parameter( defaultValue = "true", property = "betterdep.adaptiveOrder" )
+    protected boolean adaptiveOrder;
+
+    /**
+     * Consecutive failures after which a remote repository is skipped for
+     * {@link AbstractDepgraphGoal#breakerSeconds}, so one that keeps timing out
+     * doesn't slow down every lookup. 0 never skips a repository.
+     */
+    @Parameter( defaultValue = "5", property = "betterdep.breakerFailures" )
+    protected int breakerFailures;
+
+    /**
+     * Seconds a repository is skipped for after too many consecutive failures. The
+     * first request after that tries it again.
+     */
+    @Parameter( defaultValue = "30", property = "betterdep.breakerSeconds" )
+    protected int breakerSeconds;
+
+    /**
+     * Storage used for the dependency graph. The default, 'neo4j', keeps the graph
+     * in an embedded database under {@link AbstractDepgraphGoal#dbDir}. Use 'memory'
+     * for one-shot invocations that don't need the graph to persist between calls;
+     * this avoids the database startup and disk writes entirely.
+     */
+    @Parameter( defaultValue = "neo4j", property = "betterdep.graph" )
+    protected GraphBackend graphBackend;
+
+    /**
+     * Reuse a dependency graph stored in {@link AbstractDepgraphGoal#dbDir} by an
+     * earlier run, if its inputs (roots, reactor POMs, scope, managed flag, preset
+     * and repositories) are unchanged. Discovery and resolution are skipped entirely
+     * in that case. Running Maven with -U always resolves the graph again.
+     */
+    @Parameter( defaultValue = "true", property = "betterdep.reuseGraph" )
+    protected boolean reuseGraph;
+
     private Log log;
 
     /**
@@ -170,12 +315,73 @@ public abstract class AbstractDepgraphGoal
     @Parameter( defaultValue = "${session}", readonly = true, required = true )
     private MavenSession session;
 
+    /**
+     * Number of roots (from the -Dfrom=GAV[,GAV]* parameter) whose direct
+     * relationships are discovered concurrently.
+     */
+    @Parameter( defaultValue = "4", property = "betterdep.discoveryThreads" )
+    protected int discoveryThreads;
+
+    /**
+     * Maximum number of open HTTP connections, across all remote repositories.
+     */
+    @Parameter( defaultValue = "200", property = "betterdep.http.maxConnections" )
+    protected int httpMaxConnections;
+
+    /**
+     * Maximum number of open HTTP connections to a single repository host. This
+     * caps how many transfers can actually run in parallel against one repository
+     * manager, whatever the thread counts are.
+     */
+    @Parameter( defaultValue = "20", property = "betterdep.http.perHost" )
+    protected int httpPerHost;
+
+    /**
+     * Seconds to wait for an HTTP connection to be established.
+     */
+    @Parameter( defaultValue = "10", property = "betterdep.http.connectTimeout" )
+    protected int httpConnectTimeout;
+
+    /**
+     * Seconds to wait for data on an HTTP connection (or for a free pooled
+     * connection) before giving up on a transfer.
+     */
+    @Parameter( defaultValue = "30", property = "betterdep.http.readTimeout" )
+    protected int httpReadTimeout;
+
+    /**
+     * Number of threads cartographer uses for graph discovery and batch transfers
+     * (as used by 'repozip' unless -Dbetterdep.zipStreaming is set). 0 uses
+     * {@link AbstractDepgraphGoal#httpPerHost}, so one repository's connections can
+     * all be kept busy.
+     */
+    @Parameter( defaultValue = "0", property = "betterdep.http.threads" )
+    protected int httpThreads;
+
+    /**
+     * Port (or host:port) of a running 'daemon' goal. When set, the 'tree', 'list',
+     * 'downlog' and 'paths' goals send their request to the daemon and write what it
+     * renders, instead of starting cartographer and resolving the graph in this JVM.
+     * This only works with the -Dfrom=GAV[,GAV]* parameter.
+     */
+    @Parameter( property = "betterdep.daemon" )
+    protected String daemon;
+
     /**
      * Whether to provide verbose output related to dependency graph resolution.
      */
     @Parameter( defaultValue = "false", property = "trace" )
     protected boolean trace;
 
+    /**
+     * File to write phase timings and resolution counters (cache hits and misses,
+     * bytes transferred, POMs fetched, graph size) to when the goal finishes. Files
+     * ending in '.prom' or '.txt' are written in the Prometheus text format, anything
+     * else as JSON.
+     */
+    @Parameter( property = "betterdep.metrics" )
+    protected File metricsFile;
+
     protected Set<ProjectVersionRef> roots;
 
     protected ProjectRelationshipFilter filter;
@@ -198,8 +404,137 @@ public abstract class AbstractDepgraphGoal
 
     protected static PresetSelector presets;
 
+    // shared like the cartographer instance, whose file events feed it; each goal (and
+    // daemon request) resets it so its report only covers that run.
+    protected static final Metrics METRICS = new Metrics();
+
+    // held for the life of the JVM, like the cartographer instance using the database.
+    private static DirectoryLock dbLock;
+
+    private static RepositoryRoutingIndex routingIndex;
+
+    private static LocationHealth locationHealth;
+
+    private static PersistentNotFoundCache notFoundCache;
+
+    private static MavenLocationExpander locationExpander;
+
     private RelationshipGraphFactory graphFactory;
 
+    // unbounded for a single build; the daemon caps it, since every new request can add a graph.
+    private static final LruMap<String, ResolvedGraph> RESOLVED_GRAPHS =
+        new LruMap<String, ResolvedGraph>( Integer.MAX_VALUE )
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void evicted( final String key, final ResolvedGraph resolved )
+            {
+                IOUtils.closeQuietly( resolved.getGraph() );
+            }
+        };
+
+    private static MavenSession resolvedSession;
+
+    protected ResolvedGraph resolvedGraph;
+
+    /**
+     * Dependency graph resolved for one set of roots / scope / preset / repositories
+     * during the current session, along with any repository contents computed from it,
+     * so later goals in the same invocation can skip discovery and resolution. Once it's
+     * resolved, a fingerprint marker (if any) is written so later runs can reuse it too,
+     * but only if a later run would resolve the same graph.
+     */
+    protected static final class ResolvedGraph
+    {
+        private final RelationshipGraph graph;
+
+        private final File marker;
+
+        private final Set<ProjectVersionRef> fingerprinted;
+
+        private final Map<String, Map<ProjectVersionRef, Map<ArtifactRef, ConcreteResource>>> contents =
+            new HashMap<String, Map<ProjectVersionRef, Map<ArtifactRef, ConcreteResource>>>();
+
+        private boolean resolved;
+
+        /**
+         * @param fingerprinted projects whose POMs are part of the marker's fingerprint,
+         *            so a snapshot version on them doesn't keep the graph from being reused
+         */
+        ResolvedGraph( final RelationshipGraph graph, final File marker, final Set<ProjectVersionRef> fingerprinted )
+        {
+            this.graph = graph;
+            this.marker = marker;
+            this.fingerprinted = fingerprinted;
+        }
+
+        public RelationshipGraph getGraph()
+        {
+            return graph;
+        }
+
+        public synchronized boolean isResolved()
+        {
+            return resolved;
+        }
+
+        public synchronized void setResolved()
+        {
+            if ( !resolved && marker != null && !marker.exists() && isStable() )
+            {
+                try
+                {
+                    marker.getParentFile()
+                          .mkdirs();
+                    marker.createNewFile();
+                }
+                catch ( final IOException e )
+                {
+                    // the marker only lets later runs skip resolution; nothing else depends on it.
+                }
+            }
+
+            this.resolved = true;
+        }
+
+        /**
+         * Whether the graph would resolve the same way in a later run: nothing failed to
+         * resolve, and nothing outside the fingerprinted projects has a snapshot or range
+         * version that could resolve to something else by then.
+         */
+        private boolean isStable()
+        {
+            if ( !graph.getAllIncompleteSubgraphs()
+                       .isEmpty() )
+            {
+                return false;
+            }
+
+            for ( final ProjectVersionRef ref : graph.getAllVariableSubgraphs() )
+            {
+                if ( !fingerprinted.contains( ref ) )
+                {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        public synchronized Map<ProjectVersionRef, Map<ArtifactRef, ConcreteResource>> getContents( final String key )
+        {
+            return contents.get( key );
+        }
+
+        public synchronized void setContents( final String key,
+                                              final Map<ProjectVersionRef, Map<ArtifactRef, ConcreteResource>> contents )
+        {
+            this.contents.put( key, contents );
+            setResolved();
+        }
+    }
+
     public AbstractDepgraphGoal()
     {
         super();
@@ -221,8 +556,10 @@ public abstract class AbstractDepgraphGoal
             }
         }
 
-        artifactRepositories = session.getRequest()
-                                      .getRemoteRepositories();
+        // settings.xml mirrors aren't applied to the request's repositories yet.
+        artifactRepositories = new RepositoryMirrors( session.getRequest()
+                                                             .getMirrors() ).apply( session.getRequest()
+                                                                                           .getRemoteRepositories() );
 
         final List<String> activeProfiles = session.getRequest()
                                                    .getActiveProfiles();
@@ -236,7 +573,15 @@ public abstract class AbstractDepgraphGoal
 
         if ( carto == null )
         {
-            startCartographer( useLocalRepo );
+            final Metrics.Timer timer = METRICS.start( "start_cartographer" );
+            try
+            {
+                startCartographer( useLocalRepo );
+            }
+            finally
+            {
+                timer.stop();
+            }
         }
 
         final Map<String, Object> presetParams = new HashMap<String, Object>();
@@ -248,18 +593,81 @@ public abstract class AbstractDepgraphGoal
         if ( fromProjects != null )
         {
             roots = toRefs( fromProjects );
-            setupGraph();
-            readFromGAVs();
         }
         else
         {
             roots = new LinkedHashSet<ProjectVersionRef>();
-            readFromReactorProjects();
-            setupGraph();
+
+            final Metrics.Timer timer = METRICS.start( "read_reactor" );
+            try
+            {
+                readFromReactorProjects();
+            }
+            finally
+            {
+                timer.stop();
+            }
+        }
+
+        final String graphKey = getGraphKey();
+        resolvedGraph = getResolvedGraph( session, graphKey );
+        if ( resolvedGraph != null )
+        {
+            getLog().info( "Reusing dependency graph already resolved in this session for: " + roots );
+            graph = resolvedGraph.getGraph();
+            return;
+        }
+
+        final File marker = getFingerprintMarker( graphKey );
+
+        setupGraph();
+        if ( marker != null && marker.exists() )
+        {
+            getLog().info( "Reusing dependency graph resolved by an earlier run from: " + dbDir + " (fingerprint: "
+                + marker.getName() + ")" );
+
+            activateProfiles();
+
+            resolvedGraph = new ResolvedGraph( graph, marker, getFingerprintedRoots() );
+            resolvedGraph.setResolved();
+            putResolvedGraph( session, graphKey, resolvedGraph );
+            return;
+        }
+
+        if ( fromProjects != null )
+        {
+            final Metrics.Timer timer = METRICS.start( "discover_roots" );
+            try
+            {
+                readFromGAVs();
+            }
+            finally
+            {
+                timer.stop();
+            }
         }
 
         getLog().info( "Got relationships:\n\n  " + join( rootRels, "\n  " ) + "\n" );
 
+        activateProfiles();
+
+        storeRels( rootRels );
+
+        resolvedGraph = new ResolvedGraph( graph, marker, getFingerprintedRoots() );
+        putResolvedGraph( session, graphKey, resolvedGraph );
+    }
+
+    /**
+     * Roots whose POMs go into the fingerprint: the reactor projects, if that's where
+     * the roots came from.
+     */
+    private Set<ProjectVersionRef> getFingerprintedRoots()
+    {
+        return fromProjects == null ? roots : Collections.<ProjectVersionRef> emptySet();
+    }
+
+    private void activateProfiles()
+    {
         if ( profiles != null && !profiles.isEmpty() )
         {
             getLog().info( "Activating pom locations:\n\n  " + join( profiles, "\n  " ) + "\n" );
@@ -267,8 +675,143 @@ public abstract class AbstractDepgraphGoal
             graph.getParams()
                  .addActivePomLocations( profiles );
         }
+    }
 
-        storeRels( rootRels );
+    /**
+     * Marker file in {@link AbstractDepgraphGoal#dbDir} named for a fingerprint of
+     * the graph key, the active profiles and the content of the reactor POMs (and
+     * their local parents).
+     * It exists once a graph with those inputs has been fully resolved into the
+     * database. Returns null if the graph can't or shouldn't be reused across runs.
+     */
+    private File getFingerprintMarker( final String graphKey )
+        throws MojoExecutionException
+    {
+        if ( !reuseGraph || dbLock == null || session.getRequest()
+                                                          .isUpdateSnapshots() )
+        {
+            return null;
+        }
+
+        if ( fromProjects != null )
+        {
+            for ( final ProjectVersionRef root : roots )
+            {
+                // unlike reactor POMs, a remote snapshot or range isn't part of the fingerprint.
+                if ( root.isVariableVersion() )
+                {
+                    getLog().info( "Not keeping the graph for later runs: " + root + " can resolve differently"
+                        + " next time." );
+                    return null;
+                }
+            }
+        }
+
+        final Set<String> profileIds = new TreeSet<String>();
+        for ( final URI profile : profiles )
+        {
+            profileIds.add( profile.toString() );
+        }
+
+        final Checksums fingerprint = new Checksums( Collections.singletonList( FINGERPRINT_TYPE ) );
+        final byte[] key = ( graphKey + "|" + join( profileIds, "," ) ).getBytes( StandardCharsets.UTF_8 );
+        fingerprint.update( key, 0, key.length );
+
+        if ( fromProjects == null && projects != null )
+        {
+            final Set<File> pomFiles = new TreeSet<File>();
+            for ( final MavenProject project : projects )
+            {
+                MavenProject current = project;
+                while ( current != null && current.getFile() != null )
+                {
+                    pomFiles.add( current.getFile() );
+                    current = current.getParent();
+                }
+            }
+
+            for ( final File pomFile : pomFiles )
+            {
+                try
+                {
+                    final byte[] pom = Files.readAllBytes( pomFile.toPath() );
+                    fingerprint.update( pom, 0, pom.length );
+                }
+                catch ( final IOException e )
+                {
+                    throw new MojoExecutionException( "Failed to read POM for graph fingerprint: " + pomFile
+                        + ". Reason: " + e.getMessage(), e );
+                }
+            }
+        }
+
+        return new File( new File( dbDir, FINGERPRINT_DIR ), fingerprint.digest()
+                                                                         .get( FINGERPRINT_TYPE ) );
+    }
+
+    /**
+     * Key identifying the resolved graph for the current roots, scope, managed flag,
+     * preset and repository set. Goals running later in the same session with the
+     * same key reuse the graph (and repository contents) instead of resolving it again.
+     */
+    private String getGraphKey()
+    {
+        final List<String> rootIds = new ArrayList<String>( roots.size() );
+        for ( final ProjectVersionRef root : roots )
+        {
+            rootIds.add( root.toString() );
+        }
+        Collections.sort( rootIds );
+
+        final List<String> repos = new ArrayList<String>();
+        if ( customLocations != null )
+        {
+            for ( final Location location : customLocations )
+            {
+                repos.add( location.getUri() );
+            }
+        }
+
+        if ( artifactRepositories != null )
+        {
+            for ( final ArtifactRepository repo : artifactRepositories )
+            {
+                repos.add( repo.getUrl() );
+            }
+        }
+
+        return join( rootIds, "," ) + "|" + scope + "|" + includeManaged + "|" + preset + "|" + join( repos, "," );
+    }
+
+    /**
+     * Limit the number of resolved graphs kept in memory, dropping the least recently
+     * used ones beyond it.
+     */
+    protected static synchronized void setMaxResolvedGraphs( final int max )
+    {
+        RESOLVED_GRAPHS.setMaxSize( max );
+    }
+
+    private static synchronized ResolvedGraph getResolvedGraph( final MavenSession session, final String key )
+    {
+        if ( resolvedSession != session )
+        {
+            return null;
+        }
+
+        return RESOLVED_GRAPHS.get( key );
+    }
+
+    private static synchronized void putResolvedGraph( final MavenSession session, final String key,
+                                                       final ResolvedGraph resolved )
+    {
+        if ( resolvedSession != session )
+        {
+            RESOLVED_GRAPHS.clear();
+            resolvedSession = session;
+        }
+
+        RESOLVED_GRAPHS.put( key, resolved );
     }
 
     private void setupGraph()
@@ -288,9 +831,12 @@ public abstract class AbstractDepgraphGoal
         throws MojoExecutionException
     {
         getLog().info( "Storing direct relationships..." );
+        final Metrics.Timer timer = METRICS.start( "store_relationships" );
         try
         {
             final Set<ProjectRelationship<?, ?>> rejected = graph.storeRelationships( rels );
+            METRICS.increment( "relationships_stored", rels.size() - rejected.size() );
+            METRICS.increment( "relationships_rejected", rejected.size() );
 
             getLog().info( "The following direct relationships were rejected:\n\n  " + join( rejected, "\n  " )
                                + "\n\n(" + ( rels.size() - rejected.size() ) + " were accepted)" );
@@ -300,21 +846,74 @@ public abstract class AbstractDepgraphGoal
             throw new MojoExecutionException( "Failed to store direct project relationships in depgraph database: "
                 + e.getMessage(), e );
         }
+        finally
+        {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Write the metrics collected so far to the file given by -Dbetterdep.metrics,
+     * if any, along with the current size of the graph.
+     */
+    protected void writeMetrics()
+        throws MojoExecutionException
+    {
+        if ( metricsFile == null )
+        {
+            return;
+        }
+
+        if ( graph != null )
+        {
+            METRICS.set( "graph_nodes", graph.getAllProjects()
+                                             .size() );
+            METRICS.set( "graph_edges", graph.getAllRelationships()
+                                             .size() );
+        }
+
+        if ( locationExpander != null )
+        {
+            locationExpander.report( METRICS );
+        }
+
+        if ( locationHealth != null )
+        {
+            locationHealth.report( METRICS );
+        }
+
+        try
+        {
+            METRICS.write( metricsFile );
+            getLog().info( "Metrics written to: " + metricsFile );
+        }
+        catch ( final IOException e )
+        {
+            throw new MojoExecutionException( "Failed to write metrics to: " + metricsFile + ". Reason: "
+                + e.getMessage(), e );
+        }
     }
 
     protected Writer getWriter()
         throws MojoExecutionException
     {
-        if ( output == null )
+        return getWriter( output );
+    }
+
+    protected Writer getWriter( final File file )
+        throws MojoExecutionException
+    {
+        if ( file == null )
         {
             throw new MojoExecutionException( "No output file specified. Cannot open output-file writer!" );
         }
 
-        output.getParentFile()
-              .mkdirs();
+        file.getAbsoluteFile()
+            .getParentFile()
+            .mkdirs();
         try
         {
-            return new FileWriter( output );
+            return new FileWriter( file );
         }
         catch ( final IOException e )
         {
@@ -325,7 +924,13 @@ public abstract class AbstractDepgraphGoal
     protected void write( final CharSequence cs )
         throws MojoExecutionException
     {
-        if ( output == null )
+        write( output, cs );
+    }
+
+    protected void write( final File file, final CharSequence cs )
+        throws MojoExecutionException
+    {
+        if ( file == null )
         {
             getLog().info( cs.toString() );
         }
@@ -333,16 +938,229 @@ public abstract class AbstractDepgraphGoal
         {
             try
             {
-                FileUtils.write( output, cs.toString() );
+                FileUtils.write( file, cs.toString() );
             }
             catch ( final IOException e )
             {
-                throw new MojoExecutionException( "Failed to write output to file: " + output + ". Reason: "
+                throw new MojoExecutionException( "Failed to write output to file: " + file + ". Reason: "
                     + e.getMessage(), e );
             }
         }
     }
 
+    /**
+     * Render the paths from the graph roots to the given GAVs, in the format
+     * used by the 'paths' goal.
+     */
+    protected CharSequence renderPaths( final String toProjects )
+        throws MojoExecutionException
+    {
+        final String[] rawGavs = toProjects.split( "\\s*,\\s*" );
+        final Set<ProjectRef> toGas = new HashSet<ProjectRef>( rawGavs.length );
+        for ( final String rawGav : rawGavs )
+        {
+            toGas.add( project( rawGav ) );
+        }
+
+        GraphComposition comp = GraphCompositionBuilder.newGraphCompositionBuilder()
+                                                       .withGraph( GraphDescriptionBuilder.newGraphDescriptionBuilder()
+                                                                                          .withFilter( filter )
+                                                                                          .withRoots( roots )
+                                                                                          .build() )
+                                                       .build();
+
+        PathsRequest request = PathsRequestBuilder.newPathsRecipeBuilder()
+                                                  .withResolve( true )
+                                                  .withWorkspaceId( WORKSPACE_ID )
+                                                  .withSource( MavenLocationExpander.EXPANSION_TARGET )
+                                                  .withGraphs( comp )
+                                                  .withTargets( toGas )
+                                                  .build();
+
+        getLog().info( "Resolving paths to:\n\n  " + join( toGas, "\n  " ) + "\n\nIn scope: " + scope + "\n" );
+
+        ProjectPathsResult result;
+        final Metrics.Timer timer = METRICS.start( "render_paths" );
+        try
+        {
+            result = carto.getGrapher().getPaths( request );
+        }
+        catch ( CartoDataException e )
+        {
+            throw new MojoExecutionException(
+                    "Failed to traverse '" + roots + "' looking for paths to: " + toGas + ". Reason: "
+                            + e.getMessage(), e );
+        }
+        catch ( CartoRequestException e )
+        {
+            throw new MojoExecutionException(
+                    "Failed to traverse '" + roots + "' looking for paths to: " + toGas + ". Reason: "
+                            + e.getMessage(), e );
+        }
+        finally
+        {
+            timer.stop();
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        if ( result != null && result.getProjects() != null )
+        {
+            AtomicInteger count = new AtomicInteger( 0 );
+            result.getProjects().forEach( ( gav, pathSet ) -> {
+                if ( pathSet.getPaths() != null )
+                {
+                    for ( ProjectPath path : pathSet.getPaths() )
+                    {
+                        sb.append( count.getAndIncrement() ).append( ". " );
+                        printPath( sb, path );
+                    }
+
+                    sb.append( "\n\n" );
+                }
+            } );
+
+            sb.append("\n\n").append( count.incrementAndGet() ).append( " paths found.\n\n");
+        }
+
+        if ( sb.length() < 1 )
+        {
+            sb.append( "\n\nNo paths found!\n\n" );
+        }
+
+        return sb;
+    }
+
+    private void printPath( final StringBuilder result, final ProjectPath projectPath )
+    {
+        List<ProjectRelationship<?, ?>> path = projectPath.getPathParts();
+        result.append( "\n" ).append( path.get( 0 ).getDeclaring() ).append( "\n" );
+
+        int indent = 1;
+        for ( final ProjectRelationship<?, ?> rel : path )
+        {
+            for ( int i = 0; i < indent; i++ )
+            {
+                result.append( PATH_INDENT );
+            }
+
+            result.append( rel.getTargetArtifact() ).append( "\n" );
+
+            indent++;
+        }
+    }
+
+    /**
+     * Render the given goal's output in the daemon at {@link AbstractDepgraphGoal#daemon},
+     * if one is configured, writing the result to the file (or to the console, if
+     * it's null).
+     *
+     * @return false if there is no daemon to use, or it can't render this request
+     *          the way this goal would, and the goal should run locally
+     */
+    protected boolean renderInDaemon( final String goal, final File out )
+        throws MojoExecutionException
+    {
+        if ( daemon == null )
+        {
+            return false;
+        }
+
+        if ( fromProjects == null )
+        {
+            getLog().warn( "The betterdep daemon can only render -Dfrom=GAV[,GAV]* requests. Running locally." );
+            return false;
+        }
+
+        final Map<String, String> params = daemonParams( goal, out );
+
+        getLog().info( "Rendering " + goal + " in betterdep daemon at: " + daemon );
+
+        // render next to the output first, so a declined or failed request doesn't leave a partial file behind.
+        final File target = out == null ? null : new File( out.getAbsoluteFile()
+                                                               .getParentFile(), out.getName() + ".part" );
+        final ByteArrayOutputStream buffer = target == null ? new ByteArrayOutputStream() : null;
+        OutputStream stream = buffer;
+        try
+        {
+            if ( target != null )
+            {
+                target.getParentFile()
+                      .mkdirs();
+                stream = new FileOutputStream( target );
+            }
+
+            DaemonClient.render( daemon, params, stream );
+            stream.close();
+
+            if ( target != null )
+            {
+                Files.move( target.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING );
+            }
+        }
+        catch ( final DaemonClient.DeclinedException e )
+        {
+            getLog().warn( e.getMessage() + " Running locally." );
+            return false;
+        }
+        catch ( final IOException e )
+        {
+            throw new MojoExecutionException( "Failed to render " + goal + " in betterdep daemon: " + e.getMessage(),
+                                              e );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( stream );
+            if ( target != null )
+            {
+                target.delete();
+            }
+        }
+
+        if ( out == null )
+        {
+            getLog().info( new String( buffer.toByteArray(), StandardCharsets.UTF_8 ) );
+        }
+        else
+        {
+            getLog().info( goal + " output written to: " + out );
+        }
+
+        return true;
+    }
+
+    /**
+     * The daemon request for the given goal: everything that affects its output.
+     * Goals add their own options to these. Null values aren't sent.
+     */
+    protected Map<String, String> daemonParams( final String goal, final File out )
+    {
+        final Map<String, String> params = new LinkedHashMap<String, String>();
+        params.put( "goal", goal );
+        params.put( "from", fromProjects );
+        params.put( "scope", scope.realName() );
+        params.put( "managed", Boolean.toString( includeManaged ) );
+        params.put( "preset", preset );
+        params.put( "in", inRepos );
+
+        return params;
+    }
+
+    /**
+     * The -Din repositories, or null if the session's repositories are used.
+     */
+    protected String getInRepos()
+    {
+        return inRepos;
+    }
+
+    /**
+     * Replace the -Dfrom=GAV[,GAV]* roots, for goals that serve several requests.
+     */
+    protected void setFromProjects( final String fromProjects )
+    {
+        this.fromProjects = fromProjects;
+    }
+
     protected Set<ProjectVersionRef> toRefs( final String gavs )
     {
         final String[] rawGavs = gavs.split( "\\s*,\\s*" );
@@ -380,7 +1198,9 @@ public abstract class AbstractDepgraphGoal
         {
             config = new DiscoveryConfig( MavenLocationExpander.EXPANSION_TARGET );
             config.setEnabledPatchers( patcherIds );
-            config.setStoreRelationships( true );
+
+            // stored below on this thread; the graph connections (Jung's in particular) aren't safe for concurrent writes.
+            config.setStoreRelationships( false );
         }
         catch ( final URISyntaxException e )
         {
@@ -388,44 +1208,127 @@ public abstract class AbstractDepgraphGoal
                 + ". Try -X for more information." );
         }
 
-        final Set<ProjectRelationship<?, ?>> rels = new HashSet<ProjectRelationship<?, ?>>();
+        if ( discoverer == null )
+        {
+            discoverer = cartoBuilder.getDiscoverer();
+        }
+
+        // discover in parallel, but accept and merge in a stable order so the result doesn't depend on timing.
+        final List<ProjectVersionRef> ordered = new ArrayList<ProjectVersionRef>( refs );
+        Collections.sort( ordered );
 
-        for ( final ProjectVersionRef projectRef : refs )
+        final int threads = Math.max( 1, Math.min( discoveryThreads, ordered.size() ) );
+        final ExecutorService executor =
+            Executors.newFixedThreadPool( threads, new NamedThreadFactory( "betterdep-discovery" ) );
+
+        final Map<ProjectVersionRef, Future<DiscoveryResult>> pending =
+            new LinkedHashMap<ProjectVersionRef, Future<DiscoveryResult>>();
+
+        final Set<ProjectRelationship<?, ?>> discovered = new LinkedHashSet<ProjectRelationship<?, ?>>();
+        final List<String> failures = new ArrayList<String>();
+        try
         {
-            if ( discoverer == null )
+            for ( final ProjectVersionRef projectRef : ordered )
             {
-                discoverer = cartoBuilder.getDiscoverer();
+                pending.put( projectRef,
+                             executor.submit( () -> discover( projectRef, config ) ) );
             }
 
-            DiscoveryResult result;
-            try
+            for ( final Map.Entry<ProjectVersionRef, Future<DiscoveryResult>> entry : pending.entrySet() )
             {
-                result = discoverer.discoverRelationships( projectRef, graph, config );
-            }
-            catch ( final CartoDataException e )
-            {
-                throw new MojoExecutionException( "Cannot discover direct relationships for: " + projectRef + ": "
-                    + e.getMessage(), e );
-            }
+                final ProjectVersionRef projectRef = entry.getKey();
 
-            if ( result == null )
-            {
-                throw new MojoExecutionException( "Cannot discover direct relationships for: " + projectRef
-                    + ". Try -X for more information." );
-            }
+                DiscoveryResult result;
+                try
+                {
+                    result = entry.getValue()
+                                  .get();
+                }
+                catch ( final ExecutionException e )
+                {
+                    final Throwable cause = e.getCause();
+                    getLog().error( "Cannot discover direct relationships for: " + projectRef + ": "
+                                        + cause.getMessage(), cause );
+                    failures.add( projectRef + ": " + cause.getMessage() );
+                    continue;
+                }
 
-            for ( final ProjectRelationship<?, ?> rel : result.getAcceptedRelationships() )
-            {
-                if ( filter.accept( rel ) )
+                if ( result == null )
                 {
-                    rels.add( rel );
+                    getLog().error( "Cannot discover direct relationships for: " + projectRef );
+                    failures.add( projectRef + ": no discovery result" );
+                    continue;
                 }
+
+                discovered.addAll( result.getAcceptedRelationships() );
+            }
+        }
+        catch ( final InterruptedException e )
+        {
+            Thread.currentThread()
+                  .interrupt();
+            throw new MojoExecutionException( "Interrupted while discovering direct relationships for: " + refs, e );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        if ( !failures.isEmpty() )
+        {
+            throw new MojoExecutionException( "Cannot discover direct relationships for " + failures.size() + " of "
+                + ordered.size() + " roots:\n\n  " + join( failures, "\n  " ) + "\n\nTry -X for more information." );
+        }
+
+        final Set<ProjectRelationship<?, ?>> rejected;
+        try
+        {
+            rejected = graph.storeRelationships( discovered );
+        }
+        catch ( final RelationshipGraphException e )
+        {
+            throw new MojoExecutionException( "Failed to store direct relationships for: " + refs + ": "
+                + e.getMessage(), e );
+        }
+
+        final Set<ProjectRelationship<?, ?>> rels = new LinkedHashSet<ProjectRelationship<?, ?>>();
+        for ( final ProjectRelationship<?, ?> rel : discovered )
+        {
+            if ( !rejected.contains( rel ) && filter.accept( rel ) )
+            {
+                rels.add( rel );
             }
         }
 
         return rels;
     }
 
+    /**
+     * Discover the direct relationships of one project, recording a {@link DiscoveryEvent}
+     * when flight recording is on.
+     */
+    private DiscoveryResult discover( final ProjectVersionRef projectRef, final DiscoveryConfig config )
+        throws CartoDataException
+    {
+        final Object event = FlightEvents.beginDiscovery();
+
+        DiscoveryResult result = null;
+        try
+        {
+            result = discoverer.discoverRelationships( projectRef, graph, config );
+            return result;
+        }
+        finally
+        {
+            if ( FlightEvents.shouldCommit( event ) )
+            {
+                FlightEvents.commitDiscovery( event, projectRef.toString(),
+                                              result == null ? 0 : result.getAcceptedRelationships()
+                                                                         .size(), result == null );
+            }
+        }
+    }
+
     protected void readFromReactorProjects()
         throws MojoExecutionException
     {
@@ -549,26 +1452,70 @@ public abstract class AbstractDepgraphGoal
         getLog().info( "Starting cartographer..." );
         try
         {
-            resolverDir.mkdirs();
-            dbDir.mkdirs();
-
             /* @formatter:off */
-            // TODO: Create a proper cache provider that works with the maven local repository format.
-            
             final MavenLocationExpander mavenLocations = new MavenLocationExpander( customLocations, 
                                                                                     artifactRepositories, 
                                                                                     useLocalRepo ? session.getLocalRepository() : null );
+            locationExpander = mavenLocations;
+
+            if ( routing )
+            {
+                routingIndex = new RepositoryRoutingIndex( new File( resolverDir, RepositoryRoutingIndex.FILE_NAME ) );
+                mavenLocations.setRoutingIndex( routingIndex );
+            }
+
+            final PasswordManager passwords = new MemoryPasswordManager();
+            final int threads = httpThreads > 0 ? httpThreads : Math.max( 1, httpPerHost );
 
 //            cartoBuilder = new CartographerBuilder( WORKSPACE_ID, resolverDir, 4, new JungWorkspaceFactory() )
-            RelationshipGraphConnectionFactory connFactory = new FileNeo4jConnectionFactory( dbDir, true );
+            RelationshipGraphConnectionFactory connFactory = newConnectionFactory();
             graphFactory = new RelationshipGraphFactory( connFactory );
 
-            cartoBuilder = new CartographerCoreBuilder( resolverDir, connFactory )
+            cartoBuilder = newCartographerBuilder( connFactory )
                     .withGraphFactory( graphFactory )
                                 .withLocationExpander( mavenLocations )
                                 .withSourceManager( mavenLocations )
+                                .withPasswordManager( passwords )
+                                .withHttp( new TunedHttp( passwords, httpMaxConnections, httpPerHost,
+                                                          (int) TimeUnit.SECONDS.toMillis( httpConnectTimeout ),
+                                                          (int) TimeUnit.SECONDS.toMillis( httpReadTimeout ) ) )
+                                .withResolverThreads( threads )
+                                .withBatchExecutor( Executors.newFixedThreadPool( threads,
+                                                                                  new NamedThreadFactory( "betterdep-transfer" ) ) )
                                 .withDefaultTransports();
 
+            getLog().info( "HTTP: " + httpMaxConnections + " connections (" + httpPerHost + " per host), " + threads
+                + " transfer threads, " + httpConnectTimeout + "s connect / " + httpReadTimeout + "s read timeout." );
+
+            if ( adaptiveOrder )
+            {
+                locationHealth = new LocationHealth();
+                locationHealth.setBreakerFailures( breakerFailures );
+                locationHealth.setBreakerMillis( TimeUnit.SECONDS.toMillis( breakerSeconds ) );
+                mavenLocations.setLocationHealth( locationHealth );
+
+                final List<Transport> transports = new ArrayList<Transport>();
+                for ( final Transport transport : cartoBuilder.getTransports() )
+                {
+                    transports.add( new MonitoredTransport( locationHealth, transport ) );
+                }
+                cartoBuilder.withTransports( transports );
+            }
+
+            if ( notFoundTtl > 0 )
+            {
+                notFoundCache = newNotFoundCache();
+                cartoBuilder.withNfc( notFoundCache );
+
+                // outermost, so requests the circuit breaker rejects aren't confirmed either.
+                final List<Transport> transports = new ArrayList<Transport>();
+                for ( final Transport transport : cartoBuilder.getTransports() )
+                {
+                    transports.add( new NotFoundConfirmingTransport( notFoundCache, transport ) );
+                }
+                cartoBuilder.withTransports( transports );
+            }
+
             carto = cartoBuilder.build();
             /* @formatter:on */
 
@@ -586,6 +1533,95 @@ public abstract class AbstractDepgraphGoal
         {
             throw new MojoExecutionException( "Failed to start cartographer: " + e.getMessage(), e );
         }
+        catch ( final IOException e )
+        {
+            throw new MojoExecutionException( "Failed to start cartographer: " + e.getMessage(), e );
+        }
+    }
+
+    private CartographerCoreBuilder newCartographerBuilder( final RelationshipGraphConnectionFactory connFactory )
+        throws CartoDataException
+    {
+        if ( !useLocalRepoCache )
+        {
+            resolverDir.mkdirs();
+            final FileEventManager events = newFileEvents( new NoOpFileEventManager() );
+            return new CartographerCoreBuilder( resolverDir, connFactory ).withFileEvents( events );
+        }
+
+        final File localRepo = new File( session.getLocalRepository()
+                                                .getBasedir() );
+        getLog().info( "Using the local repository as the resolver cache: " + localRepo );
+
+        final Map<String, String> repositoryIds = new HashMap<String, String>();
+        if ( artifactRepositories != null )
+        {
+            for ( final ArtifactRepository repo : artifactRepositories )
+            {
+                repositoryIds.put( repo.getUrl(), repo.getId() );
+            }
+        }
+
+        final LocalRepositoryPathGenerator pathGenerator = new LocalRepositoryPathGenerator( repositoryIds );
+        final FileEventManager events = newFileEvents( new RemoteRepositoriesTracker( pathGenerator ) );
+        final NoOpTransferDecorator decorator = new NoOpTransferDecorator();
+
+        final CacheProvider cache = new FileCacheProvider( localRepo, pathGenerator, events, decorator );
+
+        return new CartographerCoreBuilder( cache, connFactory ).withFileEvents( events )
+                                                                .withTransferDecorator( decorator );
+    }
+
+    private FileEventManager newFileEvents( final FileEventManager base )
+    {
+        final FileEventManager events = routingIndex == null ? base : new RoutingFileEventManager( routingIndex, base );
+        return new MetricsFileEventManager( METRICS, events );
+    }
+
+    /**
+     * Forget misses caused by failed requests in earlier runs of this JVM, so
+     * repositories that have recovered are tried again.
+     */
+    protected void forgetFailedLookups()
+    {
+        if ( notFoundCache != null )
+        {
+            notFoundCache.forgetFailures();
+        }
+    }
+
+    private PersistentNotFoundCache newNotFoundCache()
+        throws IOException
+    {
+        final boolean clear = session.getRequest()
+                                     .isUpdateSnapshots();
+        if ( clear )
+        {
+            getLog().info( "Forgetting cached not-found entries (-U)." );
+        }
+
+        return new PersistentNotFoundCache( new File( resolverDir, PersistentNotFoundCache.FILE_NAME ),
+                                            TimeUnit.HOURS.toMillis( notFoundTtl ), clear );
+    }
+
+    private RelationshipGraphConnectionFactory newConnectionFactory()
+        throws IOException
+    {
+        if ( graphBackend == GraphBackend.memory )
+        {
+            getLog().info( "Using in-memory dependency graph." );
+            return new JungGraphConnectionFactory();
+        }
+
+        dbLock = DirectoryLock.tryAcquire( dbDir, lockTimeout * 1000L );
+        if ( dbLock == null )
+        {
+            getLog().warn( "Dependency graph database: " + dbDir + " is in use by another build. Using an in-memory"
+                + " dependency graph for this build instead." );
+            return new JungGraphConnectionFactory();
+        }
+
+        return new FileNeo4jConnectionFactory( dbDir, true );
     }
 
     @Override
@@ -11,13 +11,23 @@
 package org.commonjava.maven.plugins.betterdep;
 
 import static org.apache.commons.lang.StringUtils.isEmpty;
+import static org.commonjava.maven.galley.util.UrlUtils.buildUrl;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.MalformedURLException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.zip.Deflater;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.commonjava.cartographer.CartoDataException;
@@ -30,7 +40,14 @@ import org.commonjava.maven.atlas.ident.ref.ArtifactRef;
 import org.commonjava.maven.atlas.ident.ref.ProjectVersionRef;
 import org.commonjava.maven.galley.model.ConcreteResource;
 import org.commonjava.maven.galley.model.SimpleLocation;
+import org.commonjava.maven.plugins.betterdep.impl.Checksums;
+import org.commonjava.maven.plugins.betterdep.impl.FlightEvents;
 import org.commonjava.maven.plugins.betterdep.impl.MavenLocationExpander;
+import org.commonjava.maven.plugins.betterdep.impl.Metrics;
+import org.commonjava.maven.plugins.betterdep.impl.RepoDirectoryWriter;
+import org.commonjava.maven.plugins.betterdep.impl.RepoManifest;
+import org.commonjava.maven.plugins.betterdep.impl.RepoZipWriter;
+import org.commonjava.maven.plugins.betterdep.impl.SortedLineWriter;
 
 /**
  * Abstract goal that takes care of resolving repository contents given a list of
@@ -43,6 +60,12 @@ public abstract class AbstractRepoGoal
         extends AbstractDepgraphGoal
 {
 
+    public enum RepoFormat
+    {
+        zip,
+        dir
+    }
+
     private static final Set<String> DEFAULT_METAS;
 
     private static final Set<ExtraCT> DEFAULT_EXTRAS;
@@ -89,7 +112,7 @@ public abstract class AbstractRepoGoal
      * </ul>
      */
     @Parameter( property = "metas" )
-    private String metas;
+    protected String metas;
 
     /**
      * Comma-delimited list of 'type[:classifier]' specs for extra attached 
@@ -99,7 +122,110 @@ public abstract class AbstractRepoGoal
      * <p><b>NOTE:</b> It's also possible to use -Dextras=*:*.</p>  
      */
     @Parameter( property = "extras" )
-    private String extras;
+    protected String extras;
+
+    /**
+     * Gzip the download log. This is also done whenever the output file name ends
+     * with '.gz'.
+     */
+    @Parameter( defaultValue = "false", property = "betterdep.downlogGzip" )
+    protected boolean downlogGzip;
+
+    /**
+     * Number of download-log entries held in memory before they are spilled to a
+     * sorted temporary file. The spilled chunks are merged when the log is written.
+     */
+    @Parameter( defaultValue = "100000", property = "betterdep.downlogChunkSize" )
+    protected int downlogChunkSize;
+
+    /**
+     * Write repository archive entries while later artifacts are still being
+     * downloaded, instead of downloading everything first. The archive contents
+     * and entry order are the same either way.
+     */
+    @Parameter( defaultValue = "false", property = "betterdep.zipStreaming" )
+    protected boolean zipStreaming;
+
+    /**
+     * Number of concurrent downloads used when writing the repository archive or
+     * directory.
+     */
+    @Parameter( defaultValue = "8", property = "betterdep.transferThreads" )
+    protected int transferThreads;
+
+    /**
+     * Maximum number of downloads allowed to run ahead of the archive entry currently
+     * being written, when streaming the repository archive.
+     */
+    @Parameter( defaultValue = "64", property = "betterdep.zipWindow" )
+    protected int zipWindow;
+
+    /**
+     * DEFLATE level (0-9, or -1 for the default) used for repository archive entries
+     * that aren't already compressed, like POMs and checksums. Jars, wars, zips and
+     * other archives are always stored without recompression.
+     */
+    @Parameter( defaultValue = "-1", property = "betterdep.zipLevel" )
+    protected int zipLevel;
+
+    /**
+     * Number of threads used to prepare repository archive entries ahead of the
+     * writer. 0 uses one thread per available processor.
+     */
+    @Parameter( defaultValue = "0", property = "betterdep.zipThreads" )
+    protected int zipThreads;
+
+    /**
+     * Format of the generated repository: 'zip' for an archive, or 'dir' for a
+     * plain Maven-layout directory.
+     */
+    @Parameter( defaultValue = "zip", property = "betterdep.repoFormat" )
+    protected RepoFormat repoFormat;
+
+    /**
+     * In 'dir' repository format, hard-link files from file: repositories into place
+     * instead of copying them. A linked file shares its content with the source
+     * repository, so the directory should then be treated as read-only.
+     */
+    @Parameter( defaultValue = "false", property = "betterdep.repoHardLinks" )
+    protected boolean repoHardLinks;
+
+    /**
+     * Manifest ('repo.zip.manifest') written alongside an earlier repository archive.
+     * When given, the new archive only contains the entries that were added or
+     * changed since then, and the paths that disappeared are listed in a '.removed'
+     * file next to it. A fresh manifest covering the full repository is still
+     * written, so it can serve as the baseline for the next run.
+     */
+    @Parameter( property = "betterdep.baseline" )
+    protected File baseline;
+
+    /**
+     * Generate .md5, .sha1 and .sha256 files for the repository contents from the
+     * bytes being written, instead of downloading the remote checksum files. Any
+     * checksum types in the meta-file extensions are dropped in this mode.
+     */
+    @Parameter( defaultValue = "false", property = "betterdep.generateChecksums" )
+    protected boolean generateChecksums;
+
+    /**
+     * With generated checksums, the fraction (0.0-1.0) of repository entries (in
+     * either format) whose SHA-1 is still checked against the remote .sha1 file. A
+     * mismatch, or a .sha1 that can't be retrieved, fails the build.
+     */
+    @Parameter( defaultValue = "0", property = "betterdep.checksumSample" )
+    protected double checksumSample;
+
+    @Override
+    protected Map<String, String> daemonParams( final String goal, final File out )
+    {
+        final Map<String, String> params = super.daemonParams( goal, out );
+        params.put( "metas", metas );
+        params.put( "extras", extras );
+        params.put( "checksums", Boolean.toString( generateChecksums ) );
+
+        return params;
+    }
 
     protected RepositoryContentRequest repoContentRequest(){
         final RepositoryContentRequest recipe = new RepositoryContentRequest();
@@ -109,7 +235,8 @@ public abstract class AbstractRepoGoal
                 new GraphDescription( filter, MUTATOR, roots ) ) ) );
         recipe.setMetas( getMetas() );
         recipe.setExtras( getExtras() );
-        recipe.setResolve( true );
+        // no need to walk the graph again if an earlier goal in this session already resolved it.
+        recipe.setResolve( resolvedGraph == null || !resolvedGraph.isResolved() );
         recipe.setWorkspaceId( WORKSPACE_ID );
         recipe.setSourceLocation( new SimpleLocation( MavenLocationExpander.EXPANSION_TARGET ) );
 
@@ -121,11 +248,26 @@ public abstract class AbstractRepoGoal
     {
         initDepgraph( false );
 
-        Map<ProjectVersionRef, Map<ArtifactRef, ConcreteResource>> contents;
+        final String contentKey = metas + "|" + extras + "|" + generateChecksums;
+        Map<ProjectVersionRef, Map<ArtifactRef, ConcreteResource>> contents = resolvedGraph.getContents( contentKey );
+        if ( contents != null )
+        {
+            getLog().info( "Reusing repository contents already resolved in this session." );
+            return contents;
+        }
+
         RepositoryContentRequest request = repoContentRequest();
+        final Metrics.Timer timer = METRICS.start( "resolve_repository_contents" );
         try
         {
             contents = carto.getResolver().resolveRepositoryContents( request );
+            resolvedGraph.setContents( contentKey, contents );
+
+            METRICS.increment( "projects_resolved", contents.size() );
+            for ( final Map<ArtifactRef, ConcreteResource> items : contents.values() )
+            {
+                METRICS.increment( "artifacts_resolved", items.size() );
+            }
         }
         catch ( final CartoDataException | CartoRequestException e )
         {
@@ -133,10 +275,273 @@ public abstract class AbstractRepoGoal
                     String.format( "Failed to graph repository contents for: %s. Reason: %s", request, e.getMessage() ),
                     e );
         }
+        finally
+        {
+            timer.stop();
+        }
 
         return contents;
     }
 
+    /**
+     * @param collapseTransitives whether to collapse transitive dependencies that were
+     *            already printed elsewhere in the tree
+     */
+    protected void renderTree( final File out, final boolean collapseTransitives )
+        throws MojoExecutionException
+    {
+        final Metrics.Timer timer = METRICS.start( "render_tree" );
+        final Object event = FlightEvents.beginRender();
+
+        Writer writer = null;
+        try
+        {
+            writer = getWriter( out );
+            final PrintWriter pw = new PrintWriter( writer );
+
+            RepositoryContentRequest request = repoContentRequest();
+            carto.getRenderer().depTree( request, collapseTransitives, pw );
+            resolvedGraph.setResolved();
+
+            getLog().info( "Dependency tree(s) written to: " + out );
+        }
+        catch ( final CartoDataException | CartoRequestException e )
+        {
+            throw new MojoExecutionException( "Failed to render dependency tree: " + e.getMessage(), e );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( writer );
+            timer.stop();
+            commitRender( event, "tree", out );
+        }
+    }
+
+    protected void renderList( final File out )
+        throws MojoExecutionException
+    {
+        final Metrics.Timer timer = METRICS.start( "render_list" );
+        final Object event = FlightEvents.beginRender();
+
+        Writer writer = null;
+        try
+        {
+            writer = getWriter( out );
+            final PrintWriter pw = new PrintWriter( writer );
+
+            RepositoryContentRequest request = repoContentRequest();
+            carto.getRenderer().depList( request, pw );
+            resolvedGraph.setResolved();
+
+            getLog().info( "Dependency list(s) written to: " + out );
+        }
+        catch ( final CartoDataException | CartoRequestException e )
+        {
+            throw new MojoExecutionException( "Failed to render dependency list: " + e.getMessage(), e );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( writer );
+            timer.stop();
+            commitRender( event, "list", out );
+        }
+    }
+
+    private void commitRender( final Object event, final String output, final File out )
+    {
+        if ( FlightEvents.shouldCommit( event ) )
+        {
+            FlightEvents.commitRender( event, output, String.valueOf( roots ), out == null ? 0 : out.length() );
+        }
+    }
+
+    /**
+     * Write the sorted, de-duplicated list of URLs for the given repository contents.
+     * If the file is null, the list is written to the console instead. The list is
+     * sorted externally once it grows past {@link #downlogChunkSize} entries, so
+     * memory use doesn't grow with the size of the graph.
+     *
+     * @param usePrefix whether to prefix each URL with 'Downloaded: ', to mimic the
+     *            console output of a Maven build
+     * @return false if one or more entries could not be rendered
+     */
+    protected boolean writeDownlog( final Map<ProjectVersionRef, Map<ArtifactRef, ConcreteResource>> contents,
+                                    final File out, final boolean usePrefix )
+        throws MojoExecutionException
+    {
+        final Metrics.Timer timer = METRICS.start( "write_downlog" );
+        boolean errors = false;
+        final SortedLineWriter downLog = new SortedLineWriter( downlogChunkSize );
+        try
+        {
+            for ( final Map<ArtifactRef, ConcreteResource> items : contents.values() )
+            {
+                for ( final ConcreteResource item : items.values() )
+                {
+                    getLog().info( "Adding: " + item );
+                    try
+                    {
+                        downLog.add( formatDownlogEntry( item, usePrefix ) );
+                    }
+                    catch ( final MalformedURLException e )
+                    {
+                        getLog().error( "Failed to format URL for: " + item + ". Reason: " + e.getMessage(), e );
+                        errors = true;
+                    }
+                }
+            }
+
+            if ( out == null )
+            {
+                final StringWriter sw = new StringWriter();
+                downLog.writeTo( sw );
+                getLog().info( sw.toString() );
+            }
+            else
+            {
+                final int count = downLog.writeTo( out, isGzipDownlog( out ) );
+
+                getLog().info( "Wrote " + count + " URLs to: " + out );
+            }
+        }
+        catch ( final IOException e )
+        {
+            throw new MojoExecutionException( "Failed to write download log to: " + out + ". Reason: " + e.getMessage(),
+                                              e );
+        }
+        finally
+        {
+            downLog.close();
+            timer.stop();
+        }
+
+        return !errors;
+    }
+
+    /**
+     * Whether the download log written to the given file is gzipped.
+     */
+    protected boolean isGzipDownlog( final File out )
+    {
+        return downlogGzip || out.getName()
+                                 .endsWith( ".gz" );
+    }
+
+    private String formatDownlogEntry( final ConcreteResource item, final boolean usePrefix )
+        throws MalformedURLException
+    {
+        final String url = buildUrl( item.getLocation()
+                                         .getUri(), item.getPath() );
+
+        if ( usePrefix )
+        {
+            return "Downloaded: " + url;
+        }
+
+        return url;
+    }
+
+    /**
+     * Write the repository contents in the selected {@link RepoFormat}.
+     *
+     * @return false if one or more artifacts couldn't be retrieved, and were left out
+     */
+    protected boolean writeRepository( final Map<ProjectVersionRef, Map<ArtifactRef, ConcreteResource>> contents,
+                                    final File out )
+        throws MojoExecutionException
+    {
+        if ( repoFormat == RepoFormat.dir )
+        {
+            return writeRepoDirectory( contents, out );
+        }
+        else
+        {
+            return writeRepoZip( contents, out );
+        }
+    }
+
+    protected boolean writeRepoDirectory( final Map<ProjectVersionRef, Map<ArtifactRef, ConcreteResource>> contents,
+                                       final File out )
+        throws MojoExecutionException
+    {
+        checkChecksumSample();
+
+        final Metrics.Timer timer = METRICS.start( "write_repository_directory" );
+        try
+        {
+            final RepoDirectoryWriter dirWriter = new RepoDirectoryWriter( cartoBuilder.getTransferManager() );
+            dirWriter.setTransferThreads( transferThreads );
+            dirWriter.setGenerateChecksums( generateChecksums );
+            dirWriter.setHardLinks( repoHardLinks );
+            if ( generateChecksums )
+            {
+                dirWriter.setVerifySample( checksumSample );
+            }
+
+            return dirWriter.write( contents, out );
+        }
+        catch ( final IOException e )
+        {
+            throw new MojoExecutionException( "Failed to generate runtime repository. Reason: " + e.getMessage(), e );
+        }
+        finally
+        {
+            timer.stop();
+        }
+    }
+
+    protected boolean writeRepoZip( final Map<ProjectVersionRef, Map<ArtifactRef, ConcreteResource>> contents,
+                                 final File out )
+        throws MojoExecutionException
+    {
+        if ( zipLevel < Deflater.DEFAULT_COMPRESSION || zipLevel > Deflater.BEST_COMPRESSION )
+        {
+            throw new MojoExecutionException( "Invalid zip level: " + zipLevel + ". Use 0-9, or -1 for the default." );
+        }
+
+        checkChecksumSample();
+
+        final Metrics.Timer timer = METRICS.start( "write_repository_zip" );
+        try
+        {
+            final RepoZipWriter zipWriter = new RepoZipWriter( cartoBuilder.getTransferManager() );
+            zipWriter.setStreaming( zipStreaming );
+            zipWriter.setLevel( zipLevel );
+            zipWriter.setZipThreads( zipThreads );
+            zipWriter.setTransferThreads( transferThreads );
+            zipWriter.setWindow( zipWindow );
+            zipWriter.setGenerateChecksums( generateChecksums );
+            if ( generateChecksums )
+            {
+                zipWriter.setVerifySample( checksumSample );
+            }
+            if ( baseline != null )
+            {
+                getLog().info( "Writing delta archive against baseline: " + baseline );
+                zipWriter.setBaseline( RepoManifest.read( baseline ) );
+            }
+
+            return zipWriter.write( contents, out );
+        }
+        catch ( final IOException e )
+        {
+            throw new MojoExecutionException( "Failed to generate runtime repository. Reason: " + e.getMessage(), e );
+        }
+        finally
+        {
+            timer.stop();
+        }
+    }
+
+    private void checkChecksumSample()
+        throws MojoExecutionException
+    {
+        if ( checksumSample < 0 || checksumSample > 1 )
+        {
+            throw new MojoExecutionException( "Invalid checksum sample: " + checksumSample + ". Use 0.0-1.0." );
+        }
+    }
+
     private Set<ExtraCT> getExtras()
     {
         if ( extras == null )
@@ -164,12 +569,34 @@ public abstract class AbstractRepoGoal
 
     private Set<String> getMetas()
     {
+        final Set<String> result;
         if ( isEmpty( metas ) )
         {
-            return DEFAULT_METAS;
+            result = new HashSet<String>( DEFAULT_METAS );
+        }
+        else
+        {
+            result = new HashSet<String>( Arrays.asList( metas.split( "\\s*,\\s*" ) ) );
         }
 
-        return new HashSet<String>( Arrays.asList( metas.split( "\\s*,\\s*" ) ) );
+        if ( generateChecksums )
+        {
+            // these are computed while writing, so there's no need to download them.
+            for ( final Iterator<String> it = result.iterator(); it.hasNext(); )
+            {
+                final String meta = it.next();
+                for ( final String suffix : Checksums.SUFFIXES )
+                {
+                    if ( meta.equals( suffix ) || meta.endsWith( "." + suffix ) )
+                    {
+                        it.remove();
+                        break;
+                    }
+                }
+            }
+        }
+
+        return result;
     }
 
 }
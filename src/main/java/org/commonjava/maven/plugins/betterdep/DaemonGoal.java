@@ -0,0 +1,339 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep;
+
+import static org.apache.commons.lang.StringUtils.join;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.commonjava.maven.atlas.ident.DependencyScope;
+import org.commonjava.maven.plugins.betterdep.impl.DaemonClient;
+import org.commonjava.maven.plugins.betterdep.impl.NamedThreadFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs a long-lived betterdep daemon on a localhost port. The daemon keeps
+ * cartographer, the graph database and the graphs it has already resolved in
+ * memory between requests. The 'tree', 'list', 'downlog' and 'paths' goals can
+ * then run as thin clients with -Dbetterdep.daemon=PORT, skipping the JVM and
+ * graph warm-up entirely.
+ *
+ * Requests are handled one at a time, using this goal's configuration (repositories,
+ * resolverDir, dbDir, etc.) plus the roots and output options (scope, preset, metas,
+ * extras, gzip...) sent by the client. Requests for other -Din repositories than the
+ * daemon's are declined, and the client renders them itself. The daemon runs until
+ * it gets a request on /shutdown, or Maven is interrupted.
+ */
+@Mojo( name = "daemon", requiresProject = false, aggregator = true, threadSafe = true )
+public class DaemonGoal
+    extends AbstractRepoGoal
+{
+
+    /**
+     * Port the daemon listens on, or 0 for any free port. It only accepts connections
+     * from localhost.
+     */
+    @Parameter( defaultValue = "8929", property = "betterdep.daemonPort" )
+    private int port;
+
+    /**
+     * Default for tree requests that don't say whether to collapse transitive
+     * dependencies that were already printed elsewhere in the tree.
+     */
+    @Parameter( defaultValue = "true", property = "collapseTransitives" )
+    private boolean collapseTransitives;
+
+    /**
+     * Default for download-log requests that don't say whether to prefix each URL
+     * with 'Downloaded: '.
+     */
+    @Parameter( property = "usePrefix", defaultValue = "false" )
+    private boolean usePrefix;
+
+    /**
+     * Number of resolved graphs (with the repository contents computed from them) the
+     * daemon keeps in memory between requests. The least recently used one is dropped
+     * to make room for a new one.
+     */
+    @Parameter( defaultValue = "16", property = "betterdep.daemonGraphs" )
+    private int maxGraphs;
+
+    private DependencyScope defaultScope;
+
+    private boolean defaultManaged;
+
+    private String defaultPreset;
+
+    private final CountDownLatch started = new CountDownLatch( 1 );
+
+    private volatile int boundPort = -1;
+
+    @Override
+    public void execute()
+        throws MojoExecutionException, MojoFailureException
+    {
+        defaultScope = scope;
+        defaultManaged = includeManaged;
+        defaultPreset = preset;
+        setMaxResolvedGraphs( maxGraphs );
+
+        final HttpServer server;
+        try
+        {
+            server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), port ), 0 );
+        }
+        catch ( final IOException e )
+        {
+            throw new MojoExecutionException( "Failed to start betterdep daemon on port " + port + ": "
+                + e.getMessage(), e );
+        }
+
+        final CountDownLatch stopped = new CountDownLatch( 1 );
+        server.createContext( DaemonClient.RENDER_PATH, this::handleRender );
+        server.createContext( DaemonClient.SHUTDOWN_PATH, exchange -> {
+            respond( exchange, 200, "Stopping betterdep daemon.\n" );
+            stopped.countDown();
+        } );
+
+        // one request at a time; the cartographer state shared between goals isn't meant for concurrent use,
+        // and render() sets this goal's fields for each request.
+        final ExecutorService executor =
+            Executors.newSingleThreadExecutor( new NamedThreadFactory( "betterdep-daemon" ) );
+        server.setExecutor( executor );
+        server.start();
+
+        boundPort = server.getAddress()
+                          .getPort();
+        started.countDown();
+
+        getLog().info( "betterdep daemon listening on 127.0.0.1:" + boundPort + ". Run goals with -Dbetterdep.daemon="
+            + boundPort + " to use it, or request http://127.0.0.1:" + boundPort + DaemonClient.SHUTDOWN_PATH
+            + " to stop it." );
+
+        try
+        {
+            stopped.await();
+        }
+        catch ( final InterruptedException e )
+        {
+            Thread.currentThread()
+                  .interrupt();
+        }
+        finally
+        {
+            server.stop( 0 );
+            executor.shutdownNow();
+        }
+
+        getLog().info( "betterdep daemon stopped." );
+    }
+
+    /**
+     * Wait for the daemon to start listening, and return its port, or -1 if it didn't
+     * start in time.
+     */
+    int awaitPort( final long millis )
+        throws InterruptedException
+    {
+        started.await( millis, TimeUnit.MILLISECONDS );
+        return boundPort;
+    }
+
+    private void handleRender( final HttpExchange exchange )
+        throws IOException
+    {
+        File out = null;
+        try
+        {
+            final Map<String, String> params = DaemonClient.parseQuery( exchange.getRequestURI()
+                                                                                .getRawQuery() );
+            getLog().info( "Daemon request: " + params );
+
+            final String declined = checkRepositories( params );
+            if ( declined != null )
+            {
+                getLog().warn( "Declined daemon request: " + declined );
+                respond( exchange, DaemonClient.DECLINED, declined );
+                return;
+            }
+
+            out = File.createTempFile( "betterdep-daemon-", ".out" );
+            render( params, out );
+
+            exchange.getResponseHeaders()
+                    .set( "Content-Type", "text/plain; charset=UTF-8" );
+            exchange.sendResponseHeaders( 200, out.length() == 0 ? -1 : out.length() );
+
+            final OutputStream body = exchange.getResponseBody();
+            Files.copy( out.toPath(), body );
+            body.close();
+        }
+        catch ( final MojoExecutionException | MojoFailureException | RuntimeException e )
+        {
+            getLog().error( "Daemon request failed: " + e.getMessage(), e );
+            respond( exchange, 500, e.getMessage() );
+        }
+        finally
+        {
+            if ( out != null )
+            {
+                out.delete();
+            }
+            exchange.close();
+        }
+    }
+
+    /**
+     * Render one request by setting this goal's fields from its parameters (or the
+     * daemon's defaults) and running the goal's rendering code. That's only safe
+     * because requests run one at a time, on the daemon's single-threaded executor.
+     */
+    private void render( final Map<String, String> params, final File out )
+        throws MojoExecutionException, MojoFailureException
+    {
+        final String goal = required( params, "goal" );
+        METRICS.reset( "daemon:" + goal );
+        forgetFailedLookups();
+        setFromProjects( required( params, "from" ) );
+
+        scope = params.containsKey( "scope" ) ? DependencyScope.getScope( params.get( "scope" ) ) : defaultScope;
+        includeManaged = params.containsKey( "managed" ) ? Boolean.parseBoolean( params.get( "managed" ) )
+                        : defaultManaged;
+        preset = params.containsKey( "preset" ) ? params.get( "preset" ) : defaultPreset;
+        final boolean collapse =
+            params.containsKey( "collapse" ) ? Boolean.parseBoolean( params.get( "collapse" ) ) : collapseTransitives;
+        final boolean prefix =
+            params.containsKey( "prefix" ) ? Boolean.parseBoolean( params.get( "prefix" ) ) : usePrefix;
+
+        // the client sends these whenever they're set, so a missing one means the client's default.
+        metas = params.get( "metas" );
+        extras = params.get( "extras" );
+        generateChecksums = Boolean.parseBoolean( params.get( "checksums" ) );
+        downlogGzip = Boolean.parseBoolean( params.get( "gzip" ) );
+
+        switch ( goal )
+        {
+            case "tree":
+            {
+                initDepgraph( true );
+                renderTree( out, collapse );
+                break;
+            }
+            case "list":
+            {
+                initDepgraph( true );
+                renderList( out );
+                break;
+            }
+            case "downlog":
+            {
+                if ( !writeDownlog( resolveRepoContents(), out, prefix ) )
+                {
+                    throw new MojoFailureException( "One or more items failed to render. See the daemon output." );
+                }
+                break;
+            }
+            case "paths":
+            {
+                initDepgraph( true );
+                write( out, renderPaths( required( params, "to" ) ) );
+                break;
+            }
+            default:
+            {
+                throw new MojoExecutionException( "The betterdep daemon can't render: '" + goal
+                    + "'. Supported goals are: tree, list, downlog, paths." );
+            }
+        }
+
+        // each request overwrites the daemon's own -Dbetterdep.metrics report.
+        writeMetrics();
+    }
+
+    /**
+     * The graph and the download URLs depend on the repositories, which are fixed
+     * when cartographer starts.
+     *
+     * @return why the request can't be rendered here, or null if it can
+     */
+    private String checkRepositories( final Map<String, String> params )
+    {
+        final List<String> requested = splitRepos( params.get( "in" ) );
+        final List<String> served = splitRepos( getInRepos() );
+        if ( requested.equals( served ) )
+        {
+            return null;
+        }
+
+        return "The request is for -Din=" + join( requested, "," ) + ", but the daemon was started with -Din="
+            + join( served, "," ) + ".";
+    }
+
+    private static List<String> splitRepos( final String repos )
+    {
+        if ( repos == null || repos.trim()
+                                   .isEmpty() )
+        {
+            return Collections.emptyList();
+        }
+
+        return Arrays.asList( repos.trim()
+                                   .split( "\\s*,\\s*" ) );
+    }
+
+    private String required( final Map<String, String> params, final String name )
+        throws MojoExecutionException
+    {
+        final String value = params.get( name );
+        if ( value == null || value.trim()
+                                   .isEmpty() )
+        {
+            throw new MojoExecutionException( "Missing required daemon request parameter: '" + name + "'" );
+        }
+
+        return value;
+    }
+
+    private void respond( final HttpExchange exchange, final int status, final String message )
+        throws IOException
+    {
+        final byte[] body = String.valueOf( message )
+                                  .getBytes( StandardCharsets.UTF_8 );
+        exchange.getResponseHeaders()
+                .set( "Content-Type", "text/plain; charset=UTF-8" );
+        exchange.sendResponseHeaders( status, body.length == 0 ? -1 : body.length );
+
+        final OutputStream stream = exchange.getResponseBody();
+        stream.write( body );
+        stream.close();
+    }
+
+}
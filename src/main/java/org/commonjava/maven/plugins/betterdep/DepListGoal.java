@@ -11,20 +11,10 @@
 package org.commonjava.maven.plugins.betterdep;
 
 import java.io.File;
-import java.io.PrintWriter;
-import java.io.Writer;
-import java.util.Map;
-import java.util.Set;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.Mojo;
-import org.commonjava.cartographer.CartoDataException;
-import org.commonjava.cartographer.CartoRequestException;
-import org.commonjava.cartographer.request.RepositoryContentRequest;
-import org.commonjava.maven.atlas.ident.ref.ProjectVersionRef;
-import org.commonjava.maven.plugins.betterdep.impl.BetterDepRelationshipPrinter;
 
 /**
  * Generates a listing of the artifacts contained within the dependency graph for
@@ -55,32 +45,22 @@ public class DepListGoal
         }
 
         HAS_RUN = true;
-
-        initDepgraph( true );
+        METRICS.reset( "list" );
 
         if ( output == null )
         {
             output = new File( "target/deplist.txt" );
         }
 
-        Writer writer = null;
-        try
+        if ( renderInDaemon( "list", output ) )
         {
-            writer = getWriter();
-            final PrintWriter pw = new PrintWriter( writer );
+            return;
+        }
 
-            RepositoryContentRequest request = repoContentRequest();
-            carto.getRenderer().depList( request, pw );
+        initDepgraph( true );
 
-            getLog().info( "Dependency list(s) written to: " + output );
-        }
-        catch ( final CartoDataException | CartoRequestException e )
-        {
-            throw new MojoExecutionException( "Failed to render dependency list: " + e.getMessage(), e );
-        }
-        finally
-        {
-            IOUtils.closeQuietly( writer );
-        }
+        renderList( output );
+
+        writeMetrics();
     }
 }
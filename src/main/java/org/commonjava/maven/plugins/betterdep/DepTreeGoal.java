@@ -11,21 +11,12 @@
 package org.commonjava.maven.plugins.betterdep;
 
 import java.io.File;
-import java.io.PrintWriter;
-import java.io.Writer;
 import java.util.Map;
-import java.util.Set;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
-import org.commonjava.cartographer.CartoDataException;
-import org.commonjava.cartographer.CartoRequestException;
-import org.commonjava.cartographer.request.RepositoryContentRequest;
-import org.commonjava.maven.atlas.ident.ref.ProjectVersionRef;
-import org.commonjava.maven.plugins.betterdep.impl.BetterDepRelationshipPrinter;
 
 /**
  * Generates a tree-style listing of the artifacts contained within the dependency graph for
@@ -46,6 +37,10 @@ public class DepTreeGoal
 
     private static boolean HAS_RUN = false;
 
+    /**
+     * Whether to collapse transitive dependencies that were already printed
+     * elsewhere in the tree.
+     */
     @Parameter( defaultValue = "true", property = "collapseTransitives" )
     private boolean collapseTransitives;
 
@@ -60,32 +55,31 @@ public class DepTreeGoal
         }
 
         HAS_RUN = true;
-
-        initDepgraph( true );
+        METRICS.reset( "tree" );
 
         if ( output == null )
         {
             output = new File( "target/deptree.txt" );
         }
 
-        Writer writer = null;
-        try
+        if ( renderInDaemon( "tree", output ) )
         {
-            writer = getWriter();
-            final PrintWriter pw = new PrintWriter( writer );
+            return;
+        }
 
-            RepositoryContentRequest request = repoContentRequest();
-            carto.getRenderer().depTree( request, collapseTransitives, pw );
+        initDepgraph( true );
 
-            getLog().info( "Dependency tree(s) written to: " + output );
-        }
-        catch ( final CartoDataException | CartoRequestException e )
-        {
-            throw new MojoExecutionException( "Failed to render dependency tree: " + e.getMessage(), e );
-        }
-        finally
-        {
-            IOUtils.closeQuietly( writer );
-        }
+        renderTree( output, collapseTransitives );
+
+        writeMetrics();
+    }
+
+    @Override
+    protected Map<String, String> daemonParams( final String goal, final File out )
+    {
+        final Map<String, String> params = super.daemonParams( goal, out );
+        params.put( "collapse", Boolean.toString( collapseTransitives ) );
+
+        return params;
     }
 }
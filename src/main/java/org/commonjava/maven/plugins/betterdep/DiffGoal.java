@@ -86,6 +86,7 @@ public class DiffGoal
         }
 
         HAS_RUN = true;
+        METRICS.reset( "diff" );
 
         initDepgraph( true );
 
@@ -114,8 +115,9 @@ public class DiffGoal
 
             final StringBuilder sb = new StringBuilder();
 
-            final List<String> removed = printRels( reverse ? diff.getAdded() : diff.getRemoved() );
-            final List<String> added = printRels( reverse ? diff.getRemoved() : diff.getAdded() );
+            final DiffFormat fmt = format == null ? DiffFormat.brief : DiffFormat.valueOf( format.toLowerCase() );
+            final List<String> removed = printRels( reverse ? diff.getAdded() : diff.getRemoved(), fmt );
+            final List<String> added = printRels( reverse ? diff.getRemoved() : diff.getAdded(), fmt );
 
             Collections.sort( removed );
             Collections.sort( added );
@@ -143,16 +145,20 @@ public class DiffGoal
             throw new MojoExecutionException(
                     "Failed to retrieve depgraph for roots: " + roots + ". Reason: " + e.getMessage(), e );
         }
+
+        writeMetrics();
     }
 
-    private List<String> printRels( final Set<ProjectRelationship<?, ?>> rels )
+    /**
+     * One line per relationship in the given format, without duplicates.
+     */
+    static List<String> printRels( final Set<ProjectRelationship<?, ?>> rels, final DiffFormat fmt )
     {
         final Set<String> result = new LinkedHashSet<String>();
         final StringBuilder sb = new StringBuilder();
         for ( final ProjectRelationship<?, ?> rel : rels )
         {
             sb.setLength( 0 );
-            final DiffFormat fmt = format == null ? DiffFormat.brief : DiffFormat.valueOf( format.toLowerCase() );
             switch ( fmt )
             {
                 case full:
@@ -10,16 +10,8 @@
  ******************************************************************************/
 package org.commonjava.maven.plugins.betterdep;
 
-import static org.apache.commons.lang.StringUtils.join;
-import static org.commonjava.maven.galley.util.UrlUtils.buildUrl;
-
-import java.net.MalformedURLException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.List;
+import java.io.File;
 import java.util.Map;
-import java.util.Set;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -52,6 +44,10 @@ public class DownlogGoal
 {
     private static boolean HAS_RUN = false;
 
+    /**
+     * Whether to prefix each URL with 'Downloaded: ', to mimic the console output of
+     * a Maven build.
+     */
     @Parameter( property = "usePrefix", defaultValue = "false" )
     private boolean usePrefix;
 
@@ -66,57 +62,34 @@ public class DownlogGoal
         }
 
         HAS_RUN = true;
+        METRICS.reset( "downlog" );
 
-        final Map<ProjectVersionRef, Map<ArtifactRef, ConcreteResource>> contents = resolveRepoContents();
-
-        final List<ProjectVersionRef> refs = new ArrayList<ProjectVersionRef>( contents.keySet() );
-        Collections.sort( refs );
-
-        boolean errors = false;
-        final Set<String> downLog = new HashSet<String>();
-        for ( final ProjectVersionRef ref : refs )
+        if ( renderInDaemon( "downlog", output ) )
         {
-            final Map<ArtifactRef, ConcreteResource> items = contents.get( ref );
-            for ( final ConcreteResource item : items.values() )
-            {
-                getLog().info( "Adding: " + item );
-                try
-                {
-                    downLog.add( formatDownlogEntry( item ) );
-                }
-                catch ( final MalformedURLException e )
-                {
-                    getLog().error( "Failed to format URL for: " + item + ". Reason: " + e.getMessage(), e );
-                    errors = true;
-                }
-            }
+            return;
         }
 
-        final List<String> sorted = new ArrayList<String>( downLog );
-        Collections.sort( sorted );
+        final Map<ProjectVersionRef, Map<ArtifactRef, ConcreteResource>> contents = resolveRepoContents();
 
-        final String out = join( sorted, "\n" );
+        final boolean success = writeDownlog( contents, output, usePrefix );
 
-        write( out );
+        writeMetrics();
 
-        if ( errors )
+        if ( !success )
         {
             throw new MojoFailureException( "One or more items failed to render. See output above." );
         }
     }
 
-    private String formatDownlogEntry( final ConcreteResource item )
-        throws MalformedURLException
+    @Override
+    protected Map<String, String> daemonParams( final String goal, final File out )
     {
-        final String url = buildUrl( item.getLocation()
-                                         .getUri(), item.getPath() );
-
-        if ( usePrefix )
-        {
-            return "Downloaded: " + url;
-        }
+        final Map<String, String> params = super.daemonParams( goal, out );
+        params.put( "prefix", Boolean.toString( usePrefix ) );
+        // the daemon renders to a file of its own, so it can't go by this one's name.
+        params.put( "gzip", Boolean.toString( out != null && isGzipDownlog( out ) ) );
 
-        return url;
+        return params;
     }
 
 }
@@ -93,6 +93,7 @@ public class PomGoal
         }
 
         HAS_RUN = true;
+        METRICS.reset( "pom" );
 
         initDepgraph( true );
 
@@ -139,6 +140,7 @@ public class PomGoal
                     "Failed to write generated BOM/POM to: " + output + ". Reason: " + e.getMessage(), e );
         }
 
+        writeMetrics();
     }
 
 }
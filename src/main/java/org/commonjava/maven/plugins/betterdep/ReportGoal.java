@@ -0,0 +1,299 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep;
+
+import static org.apache.commons.lang.StringUtils.join;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.commonjava.maven.atlas.ident.ref.ArtifactRef;
+import org.commonjava.maven.atlas.ident.ref.ProjectVersionRef;
+import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.plugins.betterdep.impl.NamedThreadFactory;
+
+/**
+ * Resolves the dependency graph and its repository contents once, then generates
+ * several of the other goals' outputs from that single resolution. This is much
+ * cheaper than running 'tree', 'list', 'downlog' and 'repozip' one after another
+ * for the same roots. The tree, list and paths outputs walk the shared graph and are
+ * rendered one at a time; the downlog and zip outputs only read the resolved
+ * contents, so they're written concurrently alongside them.
+ *
+ * The -Doutputs=OUTPUT[,OUTPUT]* parameter selects from: tree, list, downlog, paths
+ * and zip. The 'paths' output also requires the -Dto=GAV[,GAV]* parameter.
+ *
+ * If this goal is run using the -Dfrom=GAV[,GAV]* parameter,
+ * those GAVs will be treated as the "roots" of the dependency graph (origins of traversal).
+ * Otherwise, the current set of projects will be used.
+ */
+@Mojo( name = "report", requiresProject = false, aggregator = true, threadSafe = true )
+public class ReportGoal
+    extends AbstractRepoGoal
+{
+
+    public enum ReportOutput
+    {
+        tree( "deptree.txt" ),
+        list( "deplist.txt" ),
+        downlog( "downlog.txt" ),
+        paths( "paths.txt" ),
+        zip( "repo.zip" );
+
+        private final String fileName;
+
+        ReportOutput( final String fileName )
+        {
+            this.fileName = fileName;
+        }
+
+        public String getFileName()
+        {
+            return fileName;
+        }
+    }
+
+    private static boolean HAS_RUN = false;
+
+    /**
+     * Comma-delimited list of outputs to generate: tree, list, downlog, paths, zip.
+     */
+    @Parameter( defaultValue = "tree,list,downlog,zip", property = "outputs" )
+    private String outputs;
+
+    /**
+     * Directory where the selected outputs are written, each under its usual file name
+     * (deptree.txt, deplist.txt, downlog.txt, paths.txt, repo.zip, or repo/ with
+     * -Dbetterdep.repoFormat=dir).
+     */
+    @Parameter( defaultValue = "target/betterdep", property = "reportDir" )
+    private File reportDir;
+
+    /**
+     * GAVs to find paths to, for the 'paths' output.
+     */
+    @Parameter( property = "to" )
+    private String toProjects;
+
+    /**
+     * Number of repository outputs (downlog and zip) that may be written concurrently
+     * with the graph outputs.
+     */
+    @Parameter( defaultValue = "4", property = "betterdep.reportThreads" )
+    private int reportThreads;
+
+    /**
+     * Whether the tree output should collapse transitive dependencies that were
+     * already printed elsewhere in the tree.
+     */
+    @Parameter( defaultValue = "true", property = "collapseTransitives" )
+    private boolean collapseTransitives;
+
+    /**
+     * Whether the downlog output should prefix each URL with 'Downloaded: ', to
+     * mimic the console output of a Maven build.
+     */
+    @Parameter( property = "usePrefix", defaultValue = "false" )
+    private boolean usePrefix;
+
+    @Override
+    public void execute()
+        throws MojoExecutionException, MojoFailureException
+    {
+        if ( HAS_RUN )
+        {
+            getLog().info( "Report has already run. Skipping." );
+            return;
+        }
+
+        HAS_RUN = true;
+        METRICS.reset( "report" );
+
+        final Set<ReportOutput> selected = getOutputs();
+        if ( selected.contains( ReportOutput.paths ) && toProjects == null )
+        {
+            throw new MojoExecutionException( "The 'paths' output requires -Dto=GAV[,GAV]*" );
+        }
+
+        // resolves the graph once; every renderer below reuses it.
+        final Map<ProjectVersionRef, Map<ArtifactRef, ConcreteResource>> contents = resolveRepoContents();
+
+        int concurrent = 0;
+        for ( final ReportOutput out : selected )
+        {
+            if ( isConcurrent( out ) )
+            {
+                concurrent++;
+            }
+        }
+
+        final int threads = Math.max( 1, Math.min( reportThreads, concurrent ) );
+        final ExecutorService executor =
+            Executors.newFixedThreadPool( threads, new NamedThreadFactory( "betterdep-report" ) );
+
+        final Map<ReportOutput, Future<Boolean>> pending = new LinkedHashMap<ReportOutput, Future<Boolean>>();
+        final List<String> failures = new ArrayList<String>();
+        try
+        {
+            for ( final ReportOutput out : selected )
+            {
+                if ( isConcurrent( out ) )
+                {
+                    pending.put( out, executor.submit( () -> render( out, getFile( out ), contents ) ) );
+                }
+            }
+
+            // cartographer's graph isn't safe to walk from several threads, so these run one at a time.
+            for ( final ReportOutput out : selected )
+            {
+                if ( isConcurrent( out ) )
+                {
+                    continue;
+                }
+
+                try
+                {
+                    if ( !render( out, getFile( out ), contents ) )
+                    {
+                        failures.add( out + ": one or more items failed to render. See output above." );
+                    }
+                }
+                catch ( final MojoExecutionException e )
+                {
+                    getLog().error( "Failed to generate " + out + " output: " + e.getMessage(), e );
+                    failures.add( out + ": " + e.getMessage() );
+                }
+            }
+
+            for ( final Map.Entry<ReportOutput, Future<Boolean>> entry : pending.entrySet() )
+            {
+                final ReportOutput out = entry.getKey();
+                try
+                {
+                    if ( !entry.getValue()
+                               .get() )
+                    {
+                        failures.add( out + ": one or more items failed to render. See output above." );
+                    }
+                }
+                catch ( final ExecutionException e )
+                {
+                    final Throwable cause = e.getCause();
+                    getLog().error( "Failed to generate " + out + " output: " + cause.getMessage(), cause );
+                    failures.add( out + ": " + cause.getMessage() );
+                }
+            }
+        }
+        catch ( final InterruptedException e )
+        {
+            Thread.currentThread()
+                  .interrupt();
+            throw new MojoExecutionException( "Interrupted while generating report outputs.", e );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        writeMetrics();
+
+        if ( !failures.isEmpty() )
+        {
+            throw new MojoFailureException( "Failed to generate report output(s):\n\n  " + join( failures, "\n  " ) );
+        }
+
+        getLog().info( "Report written to: " + reportDir );
+    }
+
+    /**
+     * Whether the output only reads the resolved repository contents, rather than
+     * walking the graph, so it can be written alongside the others.
+     */
+    private static boolean isConcurrent( final ReportOutput out )
+    {
+        return out == ReportOutput.downlog || out == ReportOutput.zip;
+    }
+
+    private File getFile( final ReportOutput out )
+    {
+        return new File( reportDir, out == ReportOutput.zip && repoFormat == RepoFormat.dir ? "repo"
+                        : out.getFileName() );
+    }
+
+    private boolean render( final ReportOutput out, final File file,
+                            final Map<ProjectVersionRef, Map<ArtifactRef, ConcreteResource>> contents )
+        throws MojoExecutionException
+    {
+        switch ( out )
+        {
+            case tree:
+            {
+                renderTree( file, collapseTransitives );
+                break;
+            }
+            case list:
+            {
+                renderList( file );
+                break;
+            }
+            case downlog:
+            {
+                return writeDownlog( contents, file, usePrefix );
+            }
+            case paths:
+            {
+                write( file, renderPaths( toProjects ) );
+                break;
+            }
+            case zip:
+            {
+                return writeRepository( contents, file );
+            }
+        }
+
+        return true;
+    }
+
+    private Set<ReportOutput> getOutputs()
+        throws MojoExecutionException
+    {
+        final Set<ReportOutput> result = new LinkedHashSet<ReportOutput>();
+        for ( final String name : outputs.split( "\\s*,\\s*" ) )
+        {
+            try
+            {
+                result.add( ReportOutput.valueOf( name.trim()
+                                                      .toLowerCase() ) );
+            }
+            catch ( final IllegalArgumentException e )
+            {
+                throw new MojoExecutionException( "Invalid report output: '" + name + "'. Valid outputs are: "
+                    + join( ReportOutput.values(), ", " ) );
+            }
+        }
+
+        return result;
+    }
+
+}
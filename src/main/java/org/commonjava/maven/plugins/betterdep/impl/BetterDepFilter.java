@@ -174,6 +174,46 @@ public class BetterDepFilter
         return true;
     }
 
+    @Override
+    public int hashCode()
+    {
+        final int result = 31 + ( scope == null ? 0 : scope.hashCode() );
+        return 31 * result + ( excludes == null || excludes.isEmpty() ? 0 : excludes.hashCode() );
+    }
+
+    /**
+     * Filters with the same scope and excludes accept the same relationships, so
+     * aggregating filters can drop the duplicates.
+     */
+    @Override
+    public boolean equals( final Object obj )
+    {
+        if ( this == obj )
+        {
+            return true;
+        }
+
+        if ( obj == null || getClass() != obj.getClass() )
+        {
+            return false;
+        }
+
+        final BetterDepFilter other = (BetterDepFilter) obj;
+        if ( scope != other.scope )
+        {
+            return false;
+        }
+
+        final boolean noExcludes = excludes == null || excludes.isEmpty();
+        final boolean otherNoExcludes = other.excludes == null || other.excludes.isEmpty();
+        if ( noExcludes || otherNoExcludes )
+        {
+            return noExcludes && otherNoExcludes;
+        }
+
+        return excludes.equals( other.excludes );
+    }
+
     @Override
     public Set<RelationshipType> getAllowedTypes()
     {
@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import static org.apache.commons.io.IOUtils.closeQuietly;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Computes several digests of some content in a single pass over its bytes, so
+ * checksum files can be generated while the content is copied instead of being
+ * downloaded separately.
+ */
+public final class Checksums
+{
+
+    /**
+     * Checksum file suffixes that can be generated, in the order they're written.
+     */
+    public static final List<String> SUFFIXES = Collections.unmodifiableList( Arrays.asList( "md5", "sha1", "sha256" ) );
+
+    public static final String SHA1 = "sha1";
+
+    private final Map<String, MessageDigest> digests = new LinkedHashMap<String, MessageDigest>();
+
+    public Checksums( final List<String> suffixes )
+    {
+        for ( final String suffix : suffixes )
+        {
+            digests.put( suffix, newDigest( suffix ) );
+        }
+    }
+
+    public void update( final byte[] buf, final int off, final int len )
+    {
+        for ( final MessageDigest digest : digests.values() )
+        {
+            digest.update( buf, off, len );
+        }
+    }
+
+    /**
+     * Finish the digests, returning the hex value of each keyed by its checksum file
+     * suffix. This can only be called once.
+     */
+    public Map<String, String> digest()
+    {
+        final Map<String, String> result = new LinkedHashMap<String, String>();
+        for ( final Map.Entry<String, MessageDigest> entry : digests.entrySet() )
+        {
+            result.put( entry.getKey(), toHex( entry.getValue()
+                                                    .digest() ) );
+        }
+
+        return result;
+    }
+
+    /**
+     * Read the hex digest from a checksum file as found in a remote repository.
+     * Some tools append the file name after the digest, so only the first token
+     * is used.
+     */
+    public static String read( final InputStream in )
+        throws IOException
+    {
+        try
+        {
+            final String content = IOUtils.toString( in, StandardCharsets.UTF_8.name() )
+                                          .trim();
+            final String[] parts = content.split( "\\s+" );
+
+            return parts[0].toLowerCase();
+        }
+        finally
+        {
+            closeQuietly( in );
+        }
+    }
+
+    private static String toHex( final byte[] digest )
+    {
+        final StringBuilder sb = new StringBuilder( digest.length * 2 );
+        for ( final byte b : digest )
+        {
+            sb.append( Character.forDigit( ( b >> 4 ) & 0xf, 16 ) )
+              .append( Character.forDigit( b & 0xf, 16 ) );
+        }
+
+        return sb.toString();
+    }
+
+    private static MessageDigest newDigest( final String suffix )
+    {
+        final String algorithm;
+        switch ( suffix )
+        {
+            case "md5":
+                algorithm = "MD5";
+                break;
+            case "sha1":
+                algorithm = "SHA-1";
+                break;
+            case "sha256":
+                algorithm = "SHA-256";
+                break;
+            default:
+                throw new IllegalArgumentException( "Unsupported checksum type: " + suffix );
+        }
+
+        try
+        {
+            return MessageDigest.getInstance( algorithm );
+        }
+        catch ( final NoSuchAlgorithmException e )
+        {
+            // every JVM is required to support all three of these.
+            throw new IllegalStateException( algorithm + " digest is not available", e );
+        }
+    }
+
+}
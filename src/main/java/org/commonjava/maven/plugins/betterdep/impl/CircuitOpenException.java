@@ -0,0 +1,31 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import org.commonjava.maven.galley.TransferException;
+
+/**
+ * The error {@link MonitoredTransport} reports for a request it skipped because the
+ * location's circuit is open. Nothing was asked of the location, so this says nothing
+ * about whether it has the resource.
+ */
+public class CircuitOpenException
+    extends TransferException
+{
+
+    private static final long serialVersionUID = 1L;
+
+    public CircuitOpenException( final String uri )
+    {
+        super( "Skipping %s: it failed too many times in a row.", uri );
+    }
+
+}
@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import static org.apache.commons.io.IOUtils.closeQuietly;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Sends render requests to a betterdep daemon (see the 'daemon' goal) over
+ * localhost HTTP, and streams the rendered output back.
+ */
+public final class DaemonClient
+{
+
+    public static final String RENDER_PATH = "/render";
+
+    public static final String SHUTDOWN_PATH = "/shutdown";
+
+    /**
+     * Status the daemon answers with when it can't render a request the way the
+     * client would, e.g. because it was started with different repositories.
+     */
+    public static final int DECLINED = HttpURLConnection.HTTP_CONFLICT;
+
+    private DaemonClient()
+    {
+    }
+
+    /**
+     * Ask the daemon to render a goal's output, copying the result to the given
+     * stream.
+     *
+     * @param address port, or host:port, of the daemon
+     * @throws DeclinedException if the daemon can't render this request, and the client should do it itself
+     */
+    public static void render( final String address, final Map<String, String> params, final OutputStream out )
+        throws IOException
+    {
+        final URL url = new URL( "http://" + toHostAndPort( address ) + RENDER_PATH + "?" + toQuery( params ) );
+
+        final HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        InputStream in = null;
+        try
+        {
+            if ( conn.getResponseCode() != HttpURLConnection.HTTP_OK )
+            {
+                in = conn.getErrorStream();
+                final String message = in == null ? conn.getResponseMessage() : IOUtils.toString( in, "UTF-8" );
+                if ( conn.getResponseCode() == DECLINED )
+                {
+                    throw new DeclinedException( "betterdep daemon at " + address + " declined the request: " + message );
+                }
+
+                throw new IOException( "betterdep daemon at " + address + " failed to render: " + message );
+            }
+
+            in = conn.getInputStream();
+            IOUtils.copy( in, out );
+        }
+        finally
+        {
+            closeQuietly( in );
+            conn.disconnect();
+        }
+    }
+
+    public static String toHostAndPort( final String address )
+    {
+        return address.contains( ":" ) ? address : "127.0.0.1:" + address;
+    }
+
+    public static String toQuery( final Map<String, String> params )
+        throws UnsupportedEncodingException
+    {
+        final StringBuilder sb = new StringBuilder();
+        for ( final Map.Entry<String, String> param : params.entrySet() )
+        {
+            if ( param.getValue() == null )
+            {
+                continue;
+            }
+
+            if ( sb.length() > 0 )
+            {
+                sb.append( '&' );
+            }
+
+            sb.append( URLEncoder.encode( param.getKey(), StandardCharsets.UTF_8.name() ) )
+              .append( '=' )
+              .append( URLEncoder.encode( param.getValue(), StandardCharsets.UTF_8.name() ) );
+        }
+
+        return sb.toString();
+    }
+
+    public static Map<String, String> parseQuery( final String query )
+        throws UnsupportedEncodingException
+    {
+        final Map<String, String> params = new LinkedHashMap<String, String>();
+        if ( query == null || query.isEmpty() )
+        {
+            return params;
+        }
+
+        for ( final String pair : query.split( "&" ) )
+        {
+            final int idx = pair.indexOf( '=' );
+            final String key = idx < 0 ? pair : pair.substring( 0, idx );
+            final String value = idx < 0 ? "" : pair.substring( idx + 1 );
+
+            params.put( URLDecoder.decode( key, StandardCharsets.UTF_8.name() ),
+                        URLDecoder.decode( value, StandardCharsets.UTF_8.name() ) );
+        }
+
+        return params;
+    }
+
+    public static final class DeclinedException
+        extends IOException
+    {
+        private static final long serialVersionUID = 1L;
+
+        public DeclinedException( final String message )
+        {
+            super( message );
+        }
+    }
+
+}
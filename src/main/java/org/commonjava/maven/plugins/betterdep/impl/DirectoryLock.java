@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import static org.apache.commons.io.IOUtils.closeQuietly;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+
+/**
+ * Exclusive, cross-process lock on a directory, held through a lock file inside
+ * it. Used to make sure only one build at a time opens a shared graph database.
+ */
+public final class DirectoryLock
+    implements Closeable
+{
+
+    public static final String LOCK_FILE = ".betterdep.lock";
+
+    private static final long POLL_MILLIS = 250;
+
+    private final File dir;
+
+    private final FileChannel channel;
+
+    private final FileLock lock;
+
+    private DirectoryLock( final File dir, final FileChannel channel, final FileLock lock )
+    {
+        this.dir = dir;
+        this.channel = channel;
+        this.lock = lock;
+    }
+
+    /**
+     * Try to lock the directory, waiting up to the given time for another process
+     * to release it.
+     *
+     * @return the lock, or null if it's still held elsewhere when the time runs out
+     */
+    public static DirectoryLock tryAcquire( final File dir, final long timeoutMillis )
+        throws IOException
+    {
+        dir.mkdirs();
+
+        final RandomAccessFile file = new RandomAccessFile( new File( dir, LOCK_FILE ), "rw" );
+        final FileChannel channel = file.getChannel();
+
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        try
+        {
+            while ( true )
+            {
+                FileLock lock;
+                try
+                {
+                    lock = channel.tryLock();
+                }
+                catch ( final OverlappingFileLockException e )
+                {
+                    // already held by this JVM, which is just as unavailable.
+                    lock = null;
+                }
+
+                if ( lock != null )
+                {
+                    return new DirectoryLock( dir, channel, lock );
+                }
+
+                if ( System.currentTimeMillis() >= deadline )
+                {
+                    closeQuietly( file );
+                    return null;
+                }
+
+                Thread.sleep( POLL_MILLIS );
+            }
+        }
+        catch ( final InterruptedException e )
+        {
+            Thread.currentThread()
+                  .interrupt();
+            closeQuietly( file );
+            throw new InterruptedIOException( "Interrupted while waiting to lock: " + dir );
+        }
+        catch ( final IOException e )
+        {
+            closeQuietly( file );
+            throw e;
+        }
+    }
+
+    public File getDirectory()
+    {
+        return dir;
+    }
+
+    @Override
+    public void close()
+        throws IOException
+    {
+        try
+        {
+            lock.release();
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+}
@@ -0,0 +1,39 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for discovering the direct relationships of one project.
+ */
+@Name( "org.commonjava.betterdep.Discovery" )
+@Label( "POM Discovery" )
+@Category( { "Maven", "Betterdep" } )
+public class DiscoveryEvent
+    extends Event
+{
+
+    @Label( "GAV" )
+    public String gav;
+
+    @Label( "Relationships" )
+    @Description( "Number of direct relationships discovered" )
+    public int relationships;
+
+    @Label( "Failed" )
+    public boolean failed;
+
+}
@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The only way into the flight recorder events. Some Java 8 runtimes have no
+ * jdk.jfr, and the event classes can't even be loaded there, so callers get an
+ * opaque handle from the begin methods instead of the event itself. The handle is
+ * null, and nothing is allocated, when jdk.jfr is missing or no recording has the
+ * event enabled; the commit methods ignore a null handle.
+ *
+ * Only the nested {@link Jfr} class refers to the event types, and it's only loaded
+ * once jdk.jfr is known to be there.
+ */
+public final class FlightEvents
+{
+
+    private static final boolean AVAILABLE = isAvailable();
+
+    private FlightEvents()
+    {
+    }
+
+    public static Object beginDiscovery()
+    {
+        return AVAILABLE ? Jfr.beginDiscovery() : null;
+    }
+
+    public static Object beginLocationExpansion()
+    {
+        return AVAILABLE ? Jfr.beginLocationExpansion() : null;
+    }
+
+    public static Object beginTransfer()
+    {
+        return AVAILABLE ? Jfr.beginTransfer() : null;
+    }
+
+    public static Object beginRender()
+    {
+        return AVAILABLE ? Jfr.beginRender() : null;
+    }
+
+    /**
+     * Whether the event should be committed, so callers only build its fields
+     * (string conversions, sizes) when a recording wants it.
+     */
+    public static boolean shouldCommit( final Object event )
+    {
+        return event != null && Jfr.shouldCommit( event );
+    }
+
+    public static void commitDiscovery( final Object event, final String gav, final int relationships,
+                                        final boolean failed )
+    {
+        if ( event != null )
+        {
+            Jfr.commitDiscovery( event, gav, relationships, failed );
+        }
+    }
+
+    public static void commitLocationExpansion( final Object event, final String location, final String path,
+                                                final int expanded )
+    {
+        if ( event != null )
+        {
+            Jfr.commitLocationExpansion( event, location, path, expanded );
+        }
+    }
+
+    public static void commitTransfer( final Object event, final String path, final String location,
+                                       final long bytes, final boolean found )
+    {
+        if ( event != null )
+        {
+            Jfr.commitTransfer( event, path, location, bytes, found );
+        }
+    }
+
+    public static void commitRender( final Object event, final String output, final String roots, final long bytes )
+    {
+        if ( event != null )
+        {
+            Jfr.commitRender( event, output, roots, bytes );
+        }
+    }
+
+    private static boolean isAvailable()
+    {
+        final Logger logger = LoggerFactory.getLogger( FlightEvents.class );
+        try
+        {
+            Class.forName( "jdk.jfr.Event", false, FlightEvents.class.getClassLoader() );
+            Jfr.init();
+            return true;
+        }
+        catch ( final ClassNotFoundException | LinkageError e )
+        {
+            logger.debug( "Flight recorder events are disabled; jdk.jfr isn't available: {}", e.toString() );
+            return false;
+        }
+    }
+
+    private static final class Jfr
+    {
+        private static EventType discovery;
+
+        private static EventType locationExpansion;
+
+        private static EventType transfer;
+
+        private static EventType render;
+
+        static void init()
+        {
+            discovery = EventType.getEventType( DiscoveryEvent.class );
+            locationExpansion = EventType.getEventType( LocationExpansionEvent.class );
+            transfer = EventType.getEventType( TransferEvent.class );
+            render = EventType.getEventType( RenderEvent.class );
+        }
+
+        static Object beginDiscovery()
+        {
+            return discovery.isEnabled() ? begin( new DiscoveryEvent() ) : null;
+        }
+
+        static Object beginLocationExpansion()
+        {
+            return locationExpansion.isEnabled() ? begin( new LocationExpansionEvent() ) : null;
+        }
+
+        static Object beginTransfer()
+        {
+            return transfer.isEnabled() ? begin( new TransferEvent() ) : null;
+        }
+
+        static Object beginRender()
+        {
+            return render.isEnabled() ? begin( new RenderEvent() ) : null;
+        }
+
+        static boolean shouldCommit( final Object event )
+        {
+            return ( (Event) event ).shouldCommit();
+        }
+
+        static void commitDiscovery( final Object handle, final String gav, final int relationships,
+                                     final boolean failed )
+        {
+            final DiscoveryEvent event = (DiscoveryEvent) handle;
+            event.gav = gav;
+            event.relationships = relationships;
+            event.failed = failed;
+            event.commit();
+        }
+
+        static void commitLocationExpansion( final Object handle, final String location, final String path,
+                                             final int expanded )
+        {
+            final LocationExpansionEvent event = (LocationExpansionEvent) handle;
+            event.location = location;
+            event.path = path;
+            event.expanded = expanded;
+            event.commit();
+        }
+
+        static void commitTransfer( final Object handle, final String path, final String location,
+                                    final long bytes, final boolean found )
+        {
+            final TransferEvent event = (TransferEvent) handle;
+            event.path = path;
+            event.location = location;
+            event.bytes = bytes;
+            event.found = found;
+            event.commit();
+        }
+
+        static void commitRender( final Object handle, final String output, final String roots, final long bytes )
+        {
+            final RenderEvent event = (RenderEvent) handle;
+            event.output = output;
+            event.roots = roots;
+            event.bytes = bytes;
+            event.commit();
+        }
+
+        private static Event begin( final Event event )
+        {
+            event.begin();
+            return event;
+        }
+    }
+
+}
@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import java.util.Map;
+
+import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.Location;
+import org.commonjava.maven.galley.spi.io.PathGenerator;
+
+/**
+ * Lays out galley's cache the same way Maven lays out its local repository, so the
+ * local repository itself can be used as the cache. Artifacts keep their remote
+ * paths. Remote repository metadata is stored as 'maven-metadata-[repoId].xml', as
+ * Maven does, so it never overwrites the metadata of locally installed artifacts.
+ */
+public class LocalRepositoryPathGenerator
+    implements PathGenerator
+{
+
+    private static final String METADATA = "maven-metadata";
+
+    private final Map<String, String> repositoryIds;
+
+    /**
+     * @param repositoryIds Maven repository ids, keyed by repository URL
+     */
+    public LocalRepositoryPathGenerator( final Map<String, String> repositoryIds )
+    {
+        this.repositoryIds = repositoryIds;
+    }
+
+    @Override
+    public String getFilePath( final ConcreteResource resource )
+    {
+        final String path = resource.getPath();
+
+        final int idx = path.lastIndexOf( '/' );
+        final String fileName = path.substring( idx + 1 );
+        if ( !fileName.startsWith( METADATA + "." ) )
+        {
+            return path;
+        }
+
+        // maven-metadata.xml[.sha1] -> maven-metadata-[repoId].xml[.sha1]
+        return path.substring( 0, idx + 1 ) + METADATA + "-" + getRepositoryId( resource.getLocation() )
+            + fileName.substring( METADATA.length() );
+    }
+
+    /**
+     * Id of the Maven repository for the given location. Locations that don't
+     * correspond to a configured repository (for instance, ones passed in with
+     * -Din) get an id derived from their name.
+     */
+    public String getRepositoryId( final Location location )
+    {
+        final String id = repositoryIds.get( location.getUri() );
+        if ( id != null )
+        {
+            return id;
+        }
+
+        return location.getName()
+                       .replaceAll( "[^A-Za-z0-9._-]+", "_" );
+    }
+
+}
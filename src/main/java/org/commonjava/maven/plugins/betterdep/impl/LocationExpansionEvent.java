@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for one expansion of locations or a resource into the
+ * repositories they stand for.
+ */
+@Name( "org.commonjava.betterdep.LocationExpansion" )
+@Label( "Location Expansion" )
+@Category( { "Maven", "Betterdep" } )
+public class LocationExpansionEvent
+    extends Event
+{
+
+    @Label( "Location" )
+    @Description( "The location(s) being expanded" )
+    public String location;
+
+    @Label( "Path" )
+    @Description( "Path of the resource being expanded, if any" )
+    public String path;
+
+    @Label( "Expanded Locations" )
+    public int expanded;
+
+}
@@ -0,0 +1,445 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.commonjava.maven.galley.TransferTimeoutException;
+import org.commonjava.maven.galley.model.Location;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks the latency, errors and timeouts of each remote location during a run,
+ * and uses them to move slow or failing locations to the back of the expansion
+ * order. A location that fails {@link #setBreakerFailures(int)} times in a row is
+ * circuit-broken: requests to it fail immediately until the cool-down passes, after
+ * which one request at a time is let through to probe it, until one succeeds.
+ *
+ * Fed by {@link MonitoredTransport}; local (file:) locations aren't tracked. The
+ * {@link #getEpoch() epoch} changes whenever a location moves between healthy,
+ * degraded and circuit-broken, so callers can cache orders built from it.
+ */
+public class LocationHealth
+{
+
+    /**
+     * Weight of the newest sample in the latency and failure averages.
+     */
+    private static final double ALPHA = 0.2;
+
+    /**
+     * Samples needed before a location's latency is trusted for ordering.
+     */
+    private static final int MIN_SAMPLES = 5;
+
+    /**
+     * A location is slow if its average latency is this many times that of the
+     * fastest location...
+     */
+    private static final double SLOW_FACTOR = 4;
+
+    /**
+     * ...and at least this many milliseconds.
+     */
+    private static final double SLOW_MILLIS = 250;
+
+    /**
+     * A location is failing if its average failure rate is above this.
+     */
+    private static final double FAILING_RATE = 0.25;
+
+    private static final int HEALTHY = 0;
+
+    private static final int DEGRADED = 1;
+
+    private static final int BROKEN = 2;
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final ConcurrentHashMap<String, Stats> stats = new ConcurrentHashMap<String, Stats>();
+
+    private int breakerFailures = 5;
+
+    private long breakerMillis = TimeUnit.SECONDS.toMillis( 30 );
+
+    private volatile long epoch;
+
+    // when the next open circuit closes, which changes that location's state without a new sample.
+    private volatile long nextExpiry = Long.MAX_VALUE;
+
+    private volatile boolean allHealthy = true;
+
+    // set whenever a refresh is due; whoever holds the lock picks it up.
+    private final AtomicBoolean dirty = new AtomicBoolean();
+
+    private final ReentrantLock refreshLock = new ReentrantLock();
+
+    /**
+     * Consecutive failures that open the circuit for a location, or 0 to never open it.
+     */
+    public void setBreakerFailures( final int breakerFailures )
+    {
+        this.breakerFailures = Math.max( 0, breakerFailures );
+    }
+
+    /**
+     * How long an open circuit rejects requests before letting one through again.
+     */
+    public void setBreakerMillis( final long breakerMillis )
+    {
+        this.breakerMillis = Math.max( 0, breakerMillis );
+    }
+
+    /**
+     * Record a completed request. Not-found answers are successes; error is the
+     * failure that ended the request, if any.
+     */
+    public void record( final String uri, final long nanos, final Throwable error )
+    {
+        if ( !isTracked( uri ) )
+        {
+            return;
+        }
+
+        final Stats s = getStats( uri );
+        final boolean timeout = error != null && isTimeout( error );
+        if ( s.record( TimeUnit.NANOSECONDS.toMillis( nanos ), error != null, timeout ) )
+        {
+            logger.warn( "{} failed {} times in a row; skipping it for {}s. Last error: {}", uri, s.consecutiveFailures,
+                         TimeUnit.MILLISECONDS.toSeconds( breakerMillis ), error.getMessage() );
+        }
+
+        refresh();
+    }
+
+    /**
+     * A counter that changes whenever the result of {@link #order(List)} might.
+     */
+    public long getEpoch()
+    {
+        final long now = System.currentTimeMillis();
+        if ( now >= nextExpiry )
+        {
+            refresh();
+        }
+
+        return epoch;
+    }
+
+    /**
+     * Whether requests to the given location should be rejected without trying it.
+     * Rejections are counted. Once the cool-down has passed, this lets one probe
+     * through, and rejects the rest until the probe has been recorded (or a further
+     * cool-down has passed without it).
+     */
+    public boolean isOpen( final String uri )
+    {
+        final Stats s = isTracked( uri ) ? stats.get( uri ) : null;
+        return s != null && s.reject();
+    }
+
+    /**
+     * Stably reorder the given locations so healthy ones come first, then slow or
+     * failing ones, then circuit-broken ones. Locations without enough history count
+     * as healthy. Returns the given list when nothing needs to move.
+     */
+    public List<Location> order( final List<Location> locations )
+    {
+        getEpoch();
+        if ( allHealthy || locations.size() < 2 )
+        {
+            return locations;
+        }
+
+        final List<Location> healthy = new ArrayList<Location>( locations.size() );
+        final List<Location> degraded = new ArrayList<Location>();
+        final List<Location> broken = new ArrayList<Location>();
+        for ( final Location location : locations )
+        {
+            final Stats s = stats.get( location.getUri() );
+            switch ( s == null ? HEALTHY : s.state )
+            {
+                case BROKEN:
+                    broken.add( location );
+                    break;
+                case DEGRADED:
+                    degraded.add( location );
+                    break;
+                default:
+                    healthy.add( location );
+            }
+        }
+
+        if ( degraded.isEmpty() && broken.isEmpty() )
+        {
+            return locations;
+        }
+
+        healthy.addAll( degraded );
+        healthy.addAll( broken );
+
+        return healthy;
+    }
+
+    /**
+     * Recompute the state of every location, unless another thread is already doing
+     * it, in which case that thread runs again to pick up this change. Transfer threads
+     * never wait on each other here.
+     */
+    private void refresh()
+    {
+        dirty.set( true );
+        while ( dirty.get() && refreshLock.tryLock() )
+        {
+            try
+            {
+                if ( dirty.getAndSet( false ) )
+                {
+                    recompute( System.currentTimeMillis() );
+                }
+            }
+            finally
+            {
+                refreshLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Move to a new epoch if any location's state changed. Latency states are relative
+     * to the fastest location, so one sample can move others. Only called holding the
+     * refresh lock.
+     */
+    private void recompute( final long now )
+    {
+        double fastest = Double.MAX_VALUE;
+        for ( final Stats s : stats.values() )
+        {
+            if ( s.isSampled() )
+            {
+                fastest = Math.min( fastest, s.latency );
+            }
+        }
+
+        boolean changed = false;
+        boolean healthy = true;
+        long expiry = Long.MAX_VALUE;
+        for ( final Stats s : stats.values() )
+        {
+            final int state = s.getState( fastest, now );
+            if ( state != s.state )
+            {
+                s.state = state;
+                changed = true;
+            }
+
+            if ( state != HEALTHY )
+            {
+                healthy = false;
+            }
+
+            if ( state == BROKEN )
+            {
+                expiry = Math.min( expiry, s.getOpenUntil() );
+            }
+        }
+
+        allHealthy = healthy;
+        nextExpiry = expiry;
+        if ( changed )
+        {
+            epoch++;
+        }
+    }
+
+    /**
+     * Add per-location gauges, labeled with the location URI, to the given metrics.
+     */
+    public void report( final Metrics metrics )
+    {
+        for ( final Map.Entry<String, Stats> entry : stats.entrySet() )
+        {
+            final String uri = entry.getKey();
+            final Stats s = entry.getValue();
+            synchronized ( s )
+            {
+                metrics.set( "location_requests", "location", uri, s.requests );
+                metrics.set( "location_errors", "location", uri, s.errors );
+                metrics.set( "location_timeouts", "location", uri, s.timeouts );
+                metrics.set( "location_rejected", "location", uri, s.rejected );
+                metrics.set( "location_circuit_opens", "location", uri, s.opens );
+                metrics.set( "location_latency_millis", "location", uri,
+                             s.requests == 0 ? 0 : s.totalMillis / s.requests );
+            }
+        }
+    }
+
+    private Stats getStats( final String uri )
+    {
+        Stats s = stats.get( uri );
+        if ( s == null )
+        {
+            s = new Stats();
+            final Stats existing = stats.putIfAbsent( uri, s );
+            if ( existing != null )
+            {
+                s = existing;
+            }
+        }
+
+        return s;
+    }
+
+    private static boolean isTracked( final String uri )
+    {
+        return uri != null && !uri.startsWith( "file:" );
+    }
+
+    private static boolean isTimeout( final Throwable error )
+    {
+        Throwable t = error;
+        while ( t != null )
+        {
+            // covers socket read and connect timeouts, which HttpClient throws as subclasses.
+            if ( t instanceof TransferTimeoutException || t instanceof InterruptedIOException )
+            {
+                return true;
+            }
+
+            t = t.getCause() == t ? null : t.getCause();
+        }
+
+        return false;
+    }
+
+    private final class Stats
+    {
+        private long requests;
+
+        private long errors;
+
+        private long timeouts;
+
+        private long rejected;
+
+        private long opens;
+
+        private long totalMillis;
+
+        private double latency;
+
+        private double failureRate;
+
+        private int consecutiveFailures;
+
+        private long openUntil;
+
+        // while a half-open circuit's probe is out; 0 when none is.
+        private long probeUntil;
+
+        // as of the last refresh.
+        private volatile int state = HEALTHY;
+
+        /**
+         * @return true if this request opened the circuit
+         */
+        synchronized boolean record( final long millis, final boolean failed, final boolean timeout )
+        {
+            latency = requests == 0 ? millis : ALPHA * millis + ( 1 - ALPHA ) * latency;
+            failureRate = ALPHA * ( failed ? 1 : 0 ) + ( 1 - ALPHA ) * failureRate;
+            requests++;
+            totalMillis += millis;
+
+            probeUntil = 0;
+            if ( !failed )
+            {
+                consecutiveFailures = 0;
+                openUntil = 0;
+                return false;
+            }
+
+            errors++;
+            if ( timeout )
+            {
+                timeouts++;
+            }
+
+            consecutiveFailures++;
+            final long now = System.currentTimeMillis();
+            if ( breakerFailures > 0 && consecutiveFailures >= breakerFailures && openUntil <= now )
+            {
+                // a failed probe after the cool-down opens it again straight away.
+                openUntil = now + breakerMillis;
+                opens++;
+                return true;
+            }
+
+            return false;
+        }
+
+        synchronized boolean reject()
+        {
+            final long now = System.currentTimeMillis();
+            if ( openUntil > now || probeUntil > now )
+            {
+                rejected++;
+                return true;
+            }
+
+            if ( openUntil > 0 )
+            {
+                // half-open: this request is the probe.
+                probeUntil = now + breakerMillis;
+            }
+
+            return false;
+        }
+
+        synchronized long getOpenUntil()
+        {
+            return openUntil;
+        }
+
+        synchronized boolean isSampled()
+        {
+            return requests >= MIN_SAMPLES;
+        }
+
+        synchronized int getState( final double fastest, final long now )
+        {
+            if ( openUntil > now )
+            {
+                return BROKEN;
+            }
+
+            if ( failureRate > FAILING_RATE )
+            {
+                return DEGRADED;
+            }
+
+            if ( requests >= MIN_SAMPLES && latency > SLOW_MILLIS && latency > SLOW_FACTOR * fastest )
+            {
+                return DEGRADED;
+            }
+
+            return HEALTHY;
+        }
+    }
+
+}
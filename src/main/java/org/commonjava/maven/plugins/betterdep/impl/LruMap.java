@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Map holding at most {@link #getMaxSize()} entries. Lookups count as use, and the
+ * least recently used entry is dropped (and passed to {@link #evicted(Object, Object)})
+ * to make room for a new one. Not thread-safe.
+ */
+public class LruMap<K, V>
+    extends LinkedHashMap<K, V>
+{
+
+    private static final long serialVersionUID = 1L;
+
+    private int maxSize;
+
+    public LruMap( final int maxSize )
+    {
+        super( 16, 0.75f, true );
+        this.maxSize = Math.max( 1, maxSize );
+    }
+
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+
+    /**
+     * Change the limit, dropping the least recently used entries if there are now too many.
+     */
+    public void setMaxSize( final int maxSize )
+    {
+        this.maxSize = Math.max( 1, maxSize );
+        for ( final Iterator<Map.Entry<K, V>> it = entrySet().iterator(); it.hasNext() && size() > this.maxSize; )
+        {
+            final Map.Entry<K, V> eldest = it.next();
+            it.remove();
+            evicted( eldest.getKey(), eldest.getValue() );
+        }
+    }
+
+    /**
+     * Called after an entry has been dropped to stay within the limit.
+     */
+    protected void evicted( final K key, final V value )
+    {
+    }
+
+    @Override
+    protected boolean removeEldestEntry( final Map.Entry<K, V> eldest )
+    {
+        if ( size() > maxSize )
+        {
+            remove( eldest.getKey() );
+            evicted( eldest.getKey(), eldest.getValue() );
+        }
+
+        // already removed above, so the hook sees a map that's within the limit.
+        return false;
+    }
+
+}
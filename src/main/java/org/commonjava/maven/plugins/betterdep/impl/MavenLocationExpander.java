@@ -23,19 +23,21 @@ import org.commonjava.maven.galley.model.SimpleLocation;
 import org.commonjava.maven.galley.model.VirtualResource;
 import org.commonjava.maven.galley.spi.transport.LocationExpander;
 import org.commonjava.maven.galley.transport.htcli.model.SimpleHttpLocation;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Galley {@link LocationExpander} implementation that expands a shorthand URI
@@ -52,11 +54,27 @@ public class MavenLocationExpander
 
     public static final String LOCAL_URI = "file:maven:local-or-preresolved";
 
+    private static final int MAX_TEMPLATES = 8192;
+
     private final List<Location> locations;
 
     private final List<URI> locationUris;
 
-    private final Logger logger = LoggerFactory.getLogger( getClass() );
+    private RepositoryRoutingIndex routingIndex;
+
+    private LocationHealth locationHealth;
+
+    // expanded resources by path, along with the location order and epoch they were built for.
+    private final ConcurrentHashMap<String, Template> templates = new ConcurrentHashMap<String, Template>();
+
+    // location orders by groupId prefix ("" for paths without one), along with the epoch they were built for.
+    private final ConcurrentHashMap<String, Order> orders = new ConcurrentHashMap<String, Order>();
+
+    private final AtomicLong expansions = new AtomicLong();
+
+    private final AtomicLong cacheHits = new AtomicLong();
+
+    private final AtomicLong expanded = new AtomicLong();
 
     public MavenLocationExpander( final List<Location> customLocations,
                                   final List<ArtifactRepository> artifactRepositories,
@@ -66,15 +84,26 @@ public class MavenLocationExpander
         final Set<Location> locs = new LinkedHashSet<Location>();
         final Set<URI> uris = new HashSet<URI>();
 
+        // normalized URLs already in the list, so the same server isn't tried twice per lookup.
+        final Set<String> seen = new HashSet<String>();
+
         if ( localRepository != null )
         {
-            locs.add( new SimpleLocation( new File( localRepository.getBasedir() ).toURI()
-                                                                                  .toString() ) );
+            final String url = new File( localRepository.getBasedir() ).toURI()
+                                                                       .toString();
+            seen.add( RepositoryMirrors.normalize( url ) );
+            locs.add( new SimpleLocation( url ) );
         }
 
         if ( customLocations != null )
         {
-            locs.addAll( customLocations );
+            for ( final Location loc : customLocations )
+            {
+                if ( seen.add( RepositoryMirrors.normalize( loc.getUri() ) ) )
+                {
+                    locs.add( loc );
+                }
+            }
         }
 
         for ( final ArtifactRepository repo : artifactRepositories )
@@ -83,6 +112,11 @@ public class MavenLocationExpander
             final String url = repo.getUrl();
             uris.add( new URI( url ) );
 
+            if ( !seen.add( RepositoryMirrors.normalize( url ) ) )
+            {
+                continue;
+            }
+
             if ( url.startsWith( "file:" ) )
             {
                 locs.add( new SimpleLocation( url ) );
@@ -97,41 +131,130 @@ public class MavenLocationExpander
         }
 
         this.locationUris = new ArrayList<URI>( uris );
-        this.locations = new ArrayList<Location>( locs );
+        this.locations = Collections.unmodifiableList( new ArrayList<Location>( locs ) );
+    }
+
+    /**
+     * Use the given index to put the repositories most likely to have a resource
+     * first when it's expanded.
+     */
+    public void setRoutingIndex( final RepositoryRoutingIndex routingIndex )
+    {
+        this.routingIndex = routingIndex;
+    }
+
+    /**
+     * Use the given health tracker to move slow, failing or circuit-broken
+     * repositories to the back when locations are expanded.
+     */
+    public void setLocationHealth( final LocationHealth locationHealth )
+    {
+        this.locationHealth = locationHealth;
     }
 
     @Override
     public List<Location> expand( final Location... locations )
         throws TransferException
     {
-        final List<Location> result = new ArrayList<Location>();
-        for ( final Location loc : locations )
+        final Object event = FlightEvents.beginLocationExpansion();
+
+        final List<Location> result = expandLocations( Arrays.asList( locations ) );
+
+        commit( event, locations, null, result.size() );
+
+        return result;
+    }
+
+    @Override
+    public <T extends Location> List<Location> expand( final Collection<T> locations )
+        throws TransferException
+    {
+        final Object event = FlightEvents.beginLocationExpansion();
+
+        final List<Location> result = expandLocations( locations );
+
+        commit( event, locations, null, result.size() );
+
+        return result;
+    }
+
+    @Override
+    public VirtualResource expand( final Resource resource )
+        throws TransferException
+    {
+        final Object event = FlightEvents.beginLocationExpansion();
+
+        if ( resource instanceof ConcreteResource )
         {
-            logger.info( "Expanding: {}", loc );
-            if ( EXPANSION_TARGET.equals( loc.getUri() ) )
+            final ConcreteResource cr = (ConcreteResource) resource;
+            final VirtualResource result = expandResource( cr );
+
+            commit( event, cr.getLocation(), cr.getPath(), result.toConcreteResources()
+                                                                  .size() );
+
+            return result;
+        }
+        else
+        {
+            final List<ConcreteResource> resources = ( (VirtualResource) resource ).toConcreteResources();
+            if ( resources.size() == 1 )
             {
-                result.addAll( this.locations );
+                final VirtualResource result = expandResource( resources.get( 0 ) );
+
+                commit( event, resource, null, result.toConcreteResources()
+                                                     .size() );
+
+                return result;
             }
-            else
+
+            final List<ConcreteResource> expanded = new ArrayList<ConcreteResource>();
+            for ( final ConcreteResource cr : resources )
             {
-                result.add( loc );
+                expanded.addAll( expandResource( cr ).toConcreteResources() );
             }
+
+            commit( event, resource, null, expanded.size() );
+
+            return new VirtualResource( expanded );
         }
+    }
 
-        return result;
+    /**
+     * Add the expansion counters to the given metrics.
+     */
+    public void report( final Metrics metrics )
+    {
+        metrics.set( "location_expansions", expansions.get() );
+        metrics.set( "location_expansion_cache_hits", cacheHits.get() );
+        metrics.set( "locations_expanded", expanded.get() );
     }
 
-    @Override
-    public <T extends Location> List<Location> expand( final Collection<T> locations )
-        throws TransferException
+    /**
+     * Expand the given locations. A lone {@link #EXPANSION_TARGET} gets the shared,
+     * unmodifiable list of locations rather than a copy.
+     */
+    private List<Location> expandLocations( final Collection<? extends Location> locations )
     {
+        expansions.incrementAndGet();
+
+        if ( locations.size() == 1 )
+        {
+            final Location loc = locations.iterator()
+                                          .next();
+
+            final List<Location> result =
+                EXPANSION_TARGET.equals( loc.getUri() ) ? route( null ) : Collections.singletonList( loc );
+            expanded.addAndGet( result.size() );
+
+            return result;
+        }
+
         final List<Location> result = new ArrayList<Location>();
         for ( final Location loc : locations )
         {
-            logger.info( "Expanding: {}", loc );
             if ( EXPANSION_TARGET.equals( loc.getUri() ) )
             {
-                result.addAll( this.locations );
+                result.addAll( route( null ) );
             }
             else
             {
@@ -139,57 +262,141 @@ public class MavenLocationExpander
             }
         }
 
+        expanded.addAndGet( result.size() );
+
         return result;
     }
 
-    @Override
-    public VirtualResource expand( final Resource resource )
-        throws TransferException
+    /**
+     * Expand a single resource, reusing the cached {@link VirtualResource} for its
+     * path as long as neither the routes nor the location health have changed since
+     * it was built. A hit allocates nothing.
+     */
+    private VirtualResource expandResource( final ConcreteResource resource )
     {
-        if ( resource instanceof ConcreteResource )
+        expansions.incrementAndGet();
+
+        final Location loc = resource.getLocation();
+        if ( !EXPANSION_TARGET.equals( loc.getUri() ) )
         {
-            final ConcreteResource cr = (ConcreteResource) resource;
-            final Location loc = cr.getLocation();
+            expanded.incrementAndGet();
+            return new VirtualResource( resource );
+        }
 
-            logger.info( "Expanding: {}", loc );
+        final String path = resource.getPath();
+        final long epoch = getEpoch();
 
-            final List<Location> result = new ArrayList<Location>();
-            if ( EXPANSION_TARGET.equals( loc.getUri() ) )
-            {
-                result.addAll( this.locations );
-            }
-            else
-            {
-                result.add( loc );
-            }
+        final Template cached = templates.get( path );
+        if ( cached != null && cached.epoch == epoch )
+        {
+            cacheHits.incrementAndGet();
+            expanded.addAndGet( cached.order.size() );
+            return cached.resource;
+        }
 
-            return new VirtualResource( result, cr.getPath() );
+        final List<Location> order = route( path, epoch );
+
+        final Template template;
+        if ( cached != null && cached.order == order )
+        {
+            // something changed, but not for this path's prefix.
+            template = new Template( order, cached.resource, epoch );
         }
         else
         {
-            final List<ConcreteResource> expanded = new ArrayList<ConcreteResource>();
-            for ( final ConcreteResource cr : (VirtualResource) resource )
+            final List<ConcreteResource> resources = new ArrayList<ConcreteResource>( order.size() );
+            for ( final Location location : order )
             {
-                final Location loc = cr.getLocation();
-                logger.info( "Expanding: {}", loc );
+                resources.add( new ConcreteResource( location, path ) );
+            }
 
-                final List<Location> locations = new ArrayList<Location>();
-                if ( EXPANSION_TARGET.equals( loc.getUri() ) )
-                {
-                    locations.addAll( this.locations );
-                }
-                else
-                {
-                    locations.add( loc );
-                }
+            template = new Template( order, new VirtualResource( Collections.unmodifiableList( resources ) ), epoch );
+        }
 
-                for ( final Location location : locations )
-                {
-                    expanded.add( new ConcreteResource( location, cr.getPath() ) );
-                }
-            }
+        if ( templates.size() >= MAX_TEMPLATES )
+        {
+            // cheaper than LRU bookkeeping on every lookup; hot paths are re-cached quickly.
+            templates.clear();
+        }
+        templates.put( path, template );
 
-            return new VirtualResource( expanded );
+        expanded.addAndGet( order.size() );
+
+        return template.resource;
+    }
+
+    /**
+     * The locations to try for the given path (or any path, if null), in order.
+     */
+    private List<Location> route( final String path )
+    {
+        return route( path, getEpoch() );
+    }
+
+    /**
+     * The locations to try for the given path, as of the given epoch. Paths with the
+     * same groupId prefix share one cached list, so an unchanged order is the same instance.
+     */
+    private List<Location> route( final String path, final long epoch )
+    {
+        if ( routingIndex == null && locationHealth == null )
+        {
+            return locations;
+        }
+
+        String prefix = routingIndex == null || path == null ? null : RepositoryRoutingIndex.getPrefix( path );
+        if ( prefix == null )
+        {
+            prefix = "";
+        }
+
+        final Order cached = orders.get( prefix );
+        if ( cached != null && cached.epoch == epoch )
+        {
+            return cached.locations;
+        }
+
+        // epoch was read before routing, so a change that races with this is picked up next time.
+        final List<Location> routed =
+            routingIndex == null || prefix.isEmpty() ? locations : routingIndex.route( path, locations );
+        List<Location> order = locationHealth == null ? routed : locationHealth.order( routed );
+        if ( cached != null && cached.locations.equals( order ) )
+        {
+            // keep the old instance, so the templates built from it stay valid.
+            order = cached.locations;
+        }
+        else if ( order != locations )
+        {
+            order = Collections.unmodifiableList( order );
+        }
+
+        if ( orders.size() >= MAX_TEMPLATES )
+        {
+            orders.clear();
+        }
+        orders.put( prefix, new Order( order, epoch ) );
+
+        return order;
+    }
+
+    /**
+     * Changes whenever a learned route or a location's health could change the order of the locations.
+     */
+    private long getEpoch()
+    {
+        // both only ever go up, so their sum changes whenever either does.
+        return ( routingIndex == null ? 0 : routingIndex.getEpoch() )
+            + ( locationHealth == null ? 0 : locationHealth.getEpoch() );
+    }
+
+    private void commit( final Object event, final Object location, final String path,
+                         final int expanded )
+    {
+        // only pay for the string conversions when a recording wants the event.
+        if ( FlightEvents.shouldCommit( event ) )
+        {
+            final Object locations = location instanceof Object[] ? Arrays.asList( (Object[]) location ) : location;
+            FlightEvents.commitLocationExpansion( event, String.valueOf( locations ), path, expanded );
         }
     }
 
@@ -202,13 +409,29 @@ public class MavenLocationExpander
     @Override
     public List<? extends Location> createLocations( final Object... sources )
     {
+        return createLocations( Arrays.asList( sources ) );
+    }
+
+    @Override
+    public List<? extends Location> createLocations( final Collection<Object> sources )
+    {
+        expansions.incrementAndGet();
+
+        if ( sources.size() == 1 && EXPANSION_TARGET.equals( sources.iterator()
+                                                                    .next() ) )
+        {
+            final List<Location> result = route( null );
+            expanded.addAndGet( result.size() );
+
+            return result;
+        }
+
         final List<Location> result = new ArrayList<Location>();
         for ( final Object src : sources )
         {
-            logger.info( "Expanding: {}", src );
             if ( EXPANSION_TARGET.equals( src ) )
             {
-                result.addAll( this.locations );
+                result.addAll( route( null ) );
             }
             else
             {
@@ -216,14 +439,9 @@ public class MavenLocationExpander
             }
         }
 
-        return result;
-    }
+        expanded.addAndGet( result.size() );
 
-    @Override
-    public List<? extends Location> createLocations( final Collection<Object> sources )
-    {
-        // TODO Auto-generated method stub
-        return null;
+        return result;
     }
 
     @Override
@@ -349,4 +567,33 @@ public class MavenLocationExpander
                      .size() > initialCount;
     }
 
+    private static final class Template
+    {
+        private final List<Location> order;
+
+        private final VirtualResource resource;
+
+        private final long epoch;
+
+        Template( final List<Location> order, final VirtualResource resource, final long epoch )
+        {
+            this.order = order;
+            this.resource = resource;
+            this.epoch = epoch;
+        }
+    }
+
+    private static final class Order
+    {
+        private final List<Location> locations;
+
+        private final long epoch;
+
+        Order( final List<Location> locations, final long epoch )
+        {
+            this.locations = locations;
+            this.epoch = epoch;
+        }
+    }
+
 }
@@ -0,0 +1,243 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import static org.apache.commons.io.IOUtils.closeQuietly;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Phase timers and counters for a betterdep run, which can be written out as JSON
+ * or in the Prometheus text format to track performance across releases. Timer
+ * and counter names should be lower_case_with_underscores, so they're usable as-is
+ * in either format. Counters can carry a label, e.g. the repository they describe.
+ */
+public class Metrics
+{
+
+    private static final String PREFIX = "betterdep_";
+
+    private final Map<String, long[]> timers = new TreeMap<String, long[]>();
+
+    private final Map<String, Long> counters = new TreeMap<String, Long>();
+
+    private String goal;
+
+    /**
+     * Drop everything collected so far and label the report with the goal (or daemon
+     * request) about to run. The instance outlives a single goal, like the cartographer
+     * feeding it, so without this one report would include every earlier run in the JVM.
+     */
+    public synchronized void reset( final String goal )
+    {
+        this.goal = goal;
+        timers.clear();
+        counters.clear();
+    }
+
+    public synchronized String getGoal()
+    {
+        return goal;
+    }
+
+    /**
+     * Start timing a phase. Call {@link Timer#stop()} (usually in a finally block)
+     * when it's done; repeated phases accumulate.
+     */
+    public Timer start( final String name )
+    {
+        return new Timer( name, System.nanoTime() );
+    }
+
+    public synchronized void increment( final String name, final long delta )
+    {
+        final Long current = counters.get( name );
+        counters.put( name, current == null ? delta : current + delta );
+    }
+
+    public void increment( final String name )
+    {
+        increment( name, 1 );
+    }
+
+    public synchronized void set( final String name, final long value )
+    {
+        counters.put( name, value );
+    }
+
+    /**
+     * Set a labeled counter, e.g. set( "location_errors", "location", uri, 3 ).
+     */
+    public void set( final String name, final String label, final String value, final long gauge )
+    {
+        set( name + "{" + label + "=\"" + escape( value ) + "\"}", gauge );
+    }
+
+    public synchronized long get( final String name )
+    {
+        final Long value = counters.get( name );
+        return value == null ? 0 : value;
+    }
+
+    private synchronized void record( final String name, final long nanos )
+    {
+        long[] timer = timers.get( name );
+        if ( timer == null )
+        {
+            timer = new long[2];
+            timers.put( name, timer );
+        }
+
+        timer[0]++;
+        timer[1] += nanos;
+    }
+
+    /**
+     * Write the report. Files ending in '.prom' or '.txt' get the Prometheus text
+     * format; anything else gets JSON.
+     */
+    public void write( final File file )
+        throws IOException
+    {
+        file.getAbsoluteFile()
+            .getParentFile()
+            .mkdirs();
+
+        Writer writer = null;
+        try
+        {
+            writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file ), StandardCharsets.UTF_8 ) );
+
+            final String name = file.getName();
+            if ( name.endsWith( ".prom" ) || name.endsWith( ".txt" ) )
+            {
+                writePrometheus( writer );
+            }
+            else
+            {
+                writeJson( writer );
+            }
+        }
+        finally
+        {
+            closeQuietly( writer );
+        }
+    }
+
+    public synchronized void writeJson( final Writer writer )
+        throws IOException
+    {
+        writer.write( "{\n" );
+        if ( goal != null )
+        {
+            writer.write( "  \"goal\": \"" + escape( goal ) + "\",\n" );
+        }
+
+        writer.write( "  \"timers\": {" );
+
+        boolean first = true;
+        for ( final Map.Entry<String, long[]> timer : timers.entrySet() )
+        {
+            writer.write( first ? "\n" : ",\n" );
+            writer.write( "    \"" + timer.getKey() + "\": { \"count\": " + timer.getValue()[0] + ", \"millis\": "
+                + TimeUnit.NANOSECONDS.toMillis( timer.getValue()[1] ) + " }" );
+            first = false;
+        }
+
+        writer.write( "\n  },\n  \"counters\": {" );
+
+        first = true;
+        for ( final Map.Entry<String, Long> counter : counters.entrySet() )
+        {
+            writer.write( first ? "\n" : ",\n" );
+            writer.write( "    \"" + escape( counter.getKey() ) + "\": " + counter.getValue() );
+            first = false;
+        }
+
+        writer.write( "\n  }\n}\n" );
+    }
+
+    public synchronized void writePrometheus( final Writer writer )
+        throws IOException
+    {
+        if ( goal != null )
+        {
+            writer.write( "# TYPE " + PREFIX + "run_info gauge\n" );
+            writer.write( PREFIX + "run_info{goal=\"" + escape( goal ) + "\"} 1\n" );
+        }
+
+        if ( !timers.isEmpty() )
+        {
+            writer.write( "# TYPE " + PREFIX + "phase_seconds summary\n" );
+            for ( final Map.Entry<String, long[]> timer : timers.entrySet() )
+            {
+                final String label = "{phase=\"" + timer.getKey() + "\"}";
+                writer.write( PREFIX + "phase_seconds_count" + label + " " + timer.getValue()[0] + "\n" );
+                writer.write( PREFIX + "phase_seconds_sum" + label + " " + ( timer.getValue()[1] / 1e9 ) + "\n" );
+            }
+        }
+
+        String type = null;
+        for ( final Map.Entry<String, Long> counter : counters.entrySet() )
+        {
+            // labeled counters sort next to each other, and share one TYPE line.
+            final String key = counter.getKey();
+            final int brace = key.indexOf( '{' );
+            final String name = brace < 0 ? key : key.substring( 0, brace );
+            if ( !name.equals( type ) )
+            {
+                writer.write( "# TYPE " + PREFIX + name + " gauge\n" );
+                type = name;
+            }
+
+            writer.write( PREFIX + key + " " + counter.getValue() + "\n" );
+        }
+    }
+
+    /**
+     * Escape backslashes, quotes and newlines, which is the same for JSON strings
+     * and Prometheus label values.
+     */
+    private static String escape( final String value )
+    {
+        return value.replace( "\\", "\\\\" )
+                    .replace( "\"", "\\\"" )
+                    .replace( "\n", "\\n" );
+    }
+
+    public final class Timer
+    {
+        private final String name;
+
+        private final long start;
+
+        private Timer( final String name, final long start )
+        {
+            this.name = name;
+            this.start = start;
+        }
+
+        public void stop()
+        {
+            record( name, System.nanoTime() - start );
+        }
+    }
+
+}
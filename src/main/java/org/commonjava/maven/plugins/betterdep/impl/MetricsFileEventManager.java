@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import org.commonjava.maven.galley.event.FileAccessEvent;
+import org.commonjava.maven.galley.event.FileDeletionEvent;
+import org.commonjava.maven.galley.event.FileErrorEvent;
+import org.commonjava.maven.galley.event.FileNotFoundEvent;
+import org.commonjava.maven.galley.event.FileStorageEvent;
+import org.commonjava.maven.galley.model.Transfer;
+import org.commonjava.maven.galley.model.TransferOperation;
+import org.commonjava.maven.galley.spi.event.FileEventManager;
+
+/**
+ * Counts galley's file events into {@link Metrics} before passing them on. Every
+ * download is a cache miss; cache reads that didn't need a download are hits.
+ */
+public class MetricsFileEventManager
+    implements FileEventManager
+{
+
+    private final Metrics metrics;
+
+    private final FileEventManager delegate;
+
+    public MetricsFileEventManager( final Metrics metrics, final FileEventManager delegate )
+    {
+        this.metrics = metrics;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void fire( final FileNotFoundEvent event )
+    {
+        metrics.increment( "transfers_not_found" );
+        delegate.fire( event );
+    }
+
+    @Override
+    public void fire( final FileStorageEvent event )
+    {
+        if ( event.getType() == TransferOperation.DOWNLOAD )
+        {
+            final Transfer transfer = event.getTransfer();
+            metrics.increment( "cache_misses" );
+            metrics.increment( "bytes_transferred", Math.max( 0, transfer.length() ) );
+            if ( transfer.getPath()
+                         .endsWith( ".pom" ) )
+            {
+                metrics.increment( "poms_fetched" );
+            }
+        }
+
+        delegate.fire( event );
+    }
+
+    @Override
+    public void fire( final FileAccessEvent event )
+    {
+        metrics.increment( "cache_reads" );
+        delegate.fire( event );
+    }
+
+    @Override
+    public void fire( final FileDeletionEvent event )
+    {
+        delegate.fire( event );
+    }
+
+    @Override
+    public void fire( final FileErrorEvent event )
+    {
+        metrics.increment( "transfer_errors" );
+        delegate.fire( event );
+    }
+
+}
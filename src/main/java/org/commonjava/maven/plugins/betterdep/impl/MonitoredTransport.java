@@ -0,0 +1,294 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import java.io.InputStream;
+
+import org.commonjava.maven.galley.TransferException;
+import org.commonjava.maven.galley.event.EventMetadata;
+import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.ListingResult;
+import org.commonjava.maven.galley.model.Location;
+import org.commonjava.maven.galley.model.Transfer;
+import org.commonjava.maven.galley.spi.transport.DownloadJob;
+import org.commonjava.maven.galley.spi.transport.ExistenceJob;
+import org.commonjava.maven.galley.spi.transport.ListingJob;
+import org.commonjava.maven.galley.spi.transport.PublishJob;
+import org.commonjava.maven.galley.spi.transport.Transport;
+import org.commonjava.maven.galley.spi.transport.TransportJob;
+
+/**
+ * {@link Transport} wrapper that times each download, existence check and listing
+ * and reports the outcome to a {@link LocationHealth}. Requests to a location whose
+ * circuit is open fail immediately instead of waiting on the repository.
+ */
+public class MonitoredTransport
+    implements Transport
+{
+
+    private final LocationHealth health;
+
+    private final Transport delegate;
+
+    public MonitoredTransport( final LocationHealth health, final Transport delegate )
+    {
+        this.health = health;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public ListingJob createListingJob( final ConcreteResource resource, final Transfer target, final int timeoutSeconds )
+        throws TransferException
+    {
+        final String uri = resource.getLocationUri();
+        if ( health.isOpen( uri ) )
+        {
+            return new RejectedListingJob( uri );
+        }
+
+        return new MonitoredListingJob( uri, delegate.createListingJob( resource, target, timeoutSeconds ) );
+    }
+
+    @Override
+    public DownloadJob createDownloadJob( final ConcreteResource resource, final Transfer target,
+                                          final int timeoutSeconds, final EventMetadata eventMetadata )
+        throws TransferException
+    {
+        final String uri = resource.getLocationUri();
+        if ( health.isOpen( uri ) )
+        {
+            return new RejectedDownloadJob( uri, target );
+        }
+
+        return new MonitoredDownloadJob( uri, delegate.createDownloadJob( resource, target, timeoutSeconds,
+                                                                          eventMetadata ) );
+    }
+
+    @Override
+    public PublishJob createPublishJob( final ConcreteResource resource, final InputStream stream, final long length,
+                                        final int timeoutSeconds )
+        throws TransferException
+    {
+        return delegate.createPublishJob( resource, stream, length, timeoutSeconds );
+    }
+
+    @Override
+    public PublishJob createPublishJob( final ConcreteResource resource, final InputStream stream, final long length,
+                                        final String contentType, final int timeoutSeconds )
+        throws TransferException
+    {
+        return delegate.createPublishJob( resource, stream, length, contentType, timeoutSeconds );
+    }
+
+    @Override
+    public ExistenceJob createExistenceJob( final ConcreteResource resource, final Transfer target,
+                                            final int timeoutSeconds )
+        throws TransferException
+    {
+        final String uri = resource.getLocationUri();
+        if ( health.isOpen( uri ) )
+        {
+            return new RejectedExistenceJob( uri );
+        }
+
+        return new MonitoredExistenceJob( uri, delegate.createExistenceJob( resource, target, timeoutSeconds ) );
+    }
+
+    @Override
+    public boolean handles( final Location location )
+    {
+        return delegate.handles( location );
+    }
+
+    private <T> T timed( final String uri, final TransportJob<T> job )
+        throws Exception
+    {
+        final long start = System.nanoTime();
+        try
+        {
+            final T result = job.call();
+            health.record( uri, System.nanoTime() - start, job.getError() );
+            return result;
+        }
+        catch ( final Exception e )
+        {
+            health.record( uri, System.nanoTime() - start, e );
+            throw e;
+        }
+    }
+
+    private final class MonitoredDownloadJob
+        implements DownloadJob
+    {
+        private final String uri;
+
+        private final DownloadJob job;
+
+        MonitoredDownloadJob( final String uri, final DownloadJob job )
+        {
+            this.uri = uri;
+            this.job = job;
+        }
+
+        @Override
+        public DownloadJob call()
+            throws Exception
+        {
+            timed( uri, job );
+            return this;
+        }
+
+        @Override
+        public TransferException getError()
+        {
+            return job.getError();
+        }
+
+        @Override
+        public Transfer getTransfer()
+        {
+            return job.getTransfer();
+        }
+    }
+
+    private final class MonitoredExistenceJob
+        implements ExistenceJob
+    {
+        private final String uri;
+
+        private final ExistenceJob job;
+
+        MonitoredExistenceJob( final String uri, final ExistenceJob job )
+        {
+            this.uri = uri;
+            this.job = job;
+        }
+
+        @Override
+        public Boolean call()
+            throws Exception
+        {
+            return timed( uri, job );
+        }
+
+        @Override
+        public TransferException getError()
+        {
+            return job.getError();
+        }
+    }
+
+    private final class MonitoredListingJob
+        implements ListingJob
+    {
+        private final String uri;
+
+        private final ListingJob job;
+
+        MonitoredListingJob( final String uri, final ListingJob job )
+        {
+            this.uri = uri;
+            this.job = job;
+        }
+
+        @Override
+        public ListingResult call()
+            throws Exception
+        {
+            return timed( uri, job );
+        }
+
+        @Override
+        public TransferException getError()
+        {
+            return job.getError();
+        }
+    }
+
+    private static final class RejectedDownloadJob
+        implements DownloadJob
+    {
+        private final TransferException error;
+
+        private final Transfer target;
+
+        RejectedDownloadJob( final String uri, final Transfer target )
+        {
+            this.error = new CircuitOpenException( uri );
+            this.target = target;
+        }
+
+        @Override
+        public DownloadJob call()
+        {
+            return this;
+        }
+
+        @Override
+        public TransferException getError()
+        {
+            return error;
+        }
+
+        @Override
+        public Transfer getTransfer()
+        {
+            return target;
+        }
+    }
+
+    private static final class RejectedExistenceJob
+        implements ExistenceJob
+    {
+        private final TransferException error;
+
+        RejectedExistenceJob( final String uri )
+        {
+            this.error = new CircuitOpenException( uri );
+        }
+
+        @Override
+        public Boolean call()
+        {
+            return false;
+        }
+
+        @Override
+        public TransferException getError()
+        {
+            return error;
+        }
+    }
+
+    private static final class RejectedListingJob
+        implements ListingJob
+    {
+        private final TransferException error;
+
+        RejectedListingJob( final String uri )
+        {
+            this.error = new CircuitOpenException( uri );
+        }
+
+        @Override
+        public ListingResult call()
+        {
+            return null;
+        }
+
+        @Override
+        public TransferException getError()
+        {
+            return error;
+        }
+    }
+
+}
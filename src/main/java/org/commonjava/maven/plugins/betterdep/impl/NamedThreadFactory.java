@@ -0,0 +1,43 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link ThreadFactory} for the worker pools betterdep goals use internally. Threads
+ * are named after the pool (so they're recognizable in thread dumps and log output)
+ * and are daemons, so a stuck worker can never keep the Maven JVM alive.
+ */
+public class NamedThreadFactory
+    implements ThreadFactory
+{
+
+    private final String name;
+
+    private final AtomicInteger counter = new AtomicInteger( 0 );
+
+    public NamedThreadFactory( final String name )
+    {
+        this.name = name;
+    }
+
+    @Override
+    public Thread newThread( final Runnable runnable )
+    {
+        final Thread t = new Thread( runnable, name + "-" + counter.incrementAndGet() );
+        t.setDaemon( true );
+
+        return t;
+    }
+
+}
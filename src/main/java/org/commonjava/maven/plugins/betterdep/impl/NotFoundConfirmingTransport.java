@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import java.io.InputStream;
+
+import org.commonjava.maven.galley.TransferException;
+import org.commonjava.maven.galley.event.EventMetadata;
+import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.ListingResult;
+import org.commonjava.maven.galley.model.Location;
+import org.commonjava.maven.galley.model.Transfer;
+import org.commonjava.maven.galley.spi.transport.DownloadJob;
+import org.commonjava.maven.galley.spi.transport.ExistenceJob;
+import org.commonjava.maven.galley.spi.transport.ListingJob;
+import org.commonjava.maven.galley.spi.transport.PublishJob;
+import org.commonjava.maven.galley.spi.transport.Transport;
+
+/**
+ * {@link Transport} wrapper that tells the {@link PersistentNotFoundCache} which misses
+ * are genuine: the request completed without an error and found nothing. Galley
+ * reports failed requests as misses too, and only genuine ones should outlive the run.
+ * Requests the circuit breaker skipped weren't sent at all, so their misses aren't
+ * recorded.
+ */
+public class NotFoundConfirmingTransport
+    implements Transport
+{
+
+    private final PersistentNotFoundCache nfc;
+
+    private final Transport delegate;
+
+    public NotFoundConfirmingTransport( final PersistentNotFoundCache nfc, final Transport delegate )
+    {
+        this.nfc = nfc;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public ListingJob createListingJob( final ConcreteResource resource, final Transfer target, final int timeoutSeconds )
+        throws TransferException
+    {
+        return new ConfirmingListingJob( resource, delegate.createListingJob( resource, target, timeoutSeconds ) );
+    }
+
+    @Override
+    public DownloadJob createDownloadJob( final ConcreteResource resource, final Transfer target,
+                                          final int timeoutSeconds, final EventMetadata eventMetadata )
+        throws TransferException
+    {
+        return new ConfirmingDownloadJob( resource, delegate.createDownloadJob( resource, target, timeoutSeconds,
+                                                                                eventMetadata ) );
+    }
+
+    @Override
+    public PublishJob createPublishJob( final ConcreteResource resource, final InputStream stream, final long length,
+                                        final int timeoutSeconds )
+        throws TransferException
+    {
+        return delegate.createPublishJob( resource, stream, length, timeoutSeconds );
+    }
+
+    @Override
+    public PublishJob createPublishJob( final ConcreteResource resource, final InputStream stream, final long length,
+                                        final String contentType, final int timeoutSeconds )
+        throws TransferException
+    {
+        return delegate.createPublishJob( resource, stream, length, contentType, timeoutSeconds );
+    }
+
+    @Override
+    public ExistenceJob createExistenceJob( final ConcreteResource resource, final Transfer target,
+                                            final int timeoutSeconds )
+        throws TransferException
+    {
+        return new ConfirmingExistenceJob( resource, delegate.createExistenceJob( resource, target, timeoutSeconds ) );
+    }
+
+    @Override
+    public boolean handles( final Location location )
+    {
+        return delegate.handles( location );
+    }
+
+    private void report( final ConcreteResource resource, final TransferException error, final boolean notFound )
+    {
+        if ( error instanceof CircuitOpenException )
+        {
+            nfc.ignoreNextMiss( resource );
+        }
+        else if ( error == null && notFound )
+        {
+            nfc.confirmNotFound( resource );
+        }
+    }
+
+    private final class ConfirmingDownloadJob
+        implements DownloadJob
+    {
+        private final ConcreteResource resource;
+
+        private final DownloadJob job;
+
+        ConfirmingDownloadJob( final ConcreteResource resource, final DownloadJob job )
+        {
+            this.resource = resource;
+            this.job = job;
+        }
+
+        @Override
+        public DownloadJob call()
+            throws Exception
+        {
+            job.call();
+
+            final Transfer transfer = job.getTransfer();
+            report( resource, job.getError(), transfer == null || !transfer.exists() );
+
+            return this;
+        }
+
+        @Override
+        public TransferException getError()
+        {
+            return job.getError();
+        }
+
+        @Override
+        public Transfer getTransfer()
+        {
+            return job.getTransfer();
+        }
+    }
+
+    private final class ConfirmingExistenceJob
+        implements ExistenceJob
+    {
+        private final ConcreteResource resource;
+
+        private final ExistenceJob job;
+
+        ConfirmingExistenceJob( final ConcreteResource resource, final ExistenceJob job )
+        {
+            this.resource = resource;
+            this.job = job;
+        }
+
+        @Override
+        public Boolean call()
+            throws Exception
+        {
+            final Boolean exists = job.call();
+            report( resource, job.getError(), Boolean.FALSE.equals( exists ) );
+
+            return exists;
+        }
+
+        @Override
+        public TransferException getError()
+        {
+            return job.getError();
+        }
+    }
+
+    private final class ConfirmingListingJob
+        implements ListingJob
+    {
+        private final ConcreteResource resource;
+
+        private final ListingJob job;
+
+        ConfirmingListingJob( final ConcreteResource resource, final ListingJob job )
+        {
+            this.resource = resource;
+            this.job = job;
+        }
+
+        @Override
+        public ListingResult call()
+            throws Exception
+        {
+            final ListingResult result = job.call();
+            report( resource, job.getError(), result == null );
+
+            return result;
+        }
+
+        @Override
+        public TransferException getError()
+        {
+            return job.getError();
+        }
+    }
+
+}
@@ -13,6 +13,7 @@ package org.commonjava.maven.plugins.betterdep.impl;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -74,19 +75,7 @@ public class PathsTraversal
             }
             else
             {
-                final ProjectRelationshipFilter child = filter.getChildFilter( relationship );
-                final OrFilter f = cache.get( tRef );
-                if ( f == null )
-                {
-                    cache.put( tRef, new OrFilter( child ) );
-                }
-                else
-                {
-                    final List<ProjectRelationshipFilter> filters =
-                        new ArrayList<ProjectRelationshipFilter>( f.getFilters() );
-                    filters.add( child );
-                    cache.put( tRef, new OrFilter( filters ) );
-                }
+                addFilter( tRef, filter.getChildFilter( relationship ) );
 
                 return true;
             }
@@ -95,6 +84,37 @@ public class PathsTraversal
         return false;
     }
 
+    /**
+     * Add a filter for the given project to the ones it's already reached with. The
+     * cached filter is kept flat and free of duplicates: nesting a new {@link OrFilter}
+     * around the old one for every path to a project makes its size, and the cost of
+     * hashing it, grow with the number of paths.
+     */
+    private void addFilter( final ProjectRef ref, final ProjectRelationshipFilter child )
+    {
+        final OrFilter existing = cache.get( ref );
+        final Set<ProjectRelationshipFilter> filters = new LinkedHashSet<ProjectRelationshipFilter>();
+        if ( existing != null )
+        {
+            filters.addAll( existing.getFilters() );
+        }
+
+        final int before = filters.size();
+        if ( child instanceof OrFilter )
+        {
+            filters.addAll( ( (OrFilter) child ).getFilters() );
+        }
+        else
+        {
+            filters.add( child );
+        }
+
+        if ( existing == null || filters.size() > before )
+        {
+            cache.put( ref, new OrFilter( filters ) );
+        }
+    }
+
     public Set<List<ProjectRelationship<?, ?>>> getDiscoveredPaths()
     {
         return paths;
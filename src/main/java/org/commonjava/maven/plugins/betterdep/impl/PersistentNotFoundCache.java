@@ -0,0 +1,465 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.Location;
+import org.commonjava.maven.galley.model.SimpleLocation;
+import org.commonjava.maven.galley.spi.nfc.NotFoundCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link NotFoundCache} that remembers failed remote lookups between runs, so
+ * artifacts that are permanently missing from a repository aren't probed there
+ * again until the entry expires. Entries are appended to a file as 'timestamp TAB
+ * location TAB path' lines, where later lines win and a timestamp of 0 clears the
+ * entry; expired ones are dropped when the file is loaded.
+ *
+ * Several builds can share the file. Every write, and the load (which compacts the
+ * file in place), holds an exclusive lock on it, so one build never rewrites the
+ * file under another's appends.
+ *
+ * Only misses confirmed by {@link #confirmNotFound(ConcreteResource)}, i.e. requests that
+ * completed without an error and found nothing, are written to the file. Galley reports
+ * errors, timeouts and circuit-broken requests as misses too; those are only remembered
+ * in memory, until {@link #forgetFailures()} or the end of the run, so a flaky repository
+ * doesn't hide real artifacts from later runs. Misses for requests that were never sent,
+ * because the circuit breaker skipped them, aren't remembered at all.
+ *
+ * Lookups on file: locations are never cached, since they're cheap and the local
+ * repository can change at any time.
+ */
+public class PersistentNotFoundCache
+    implements NotFoundCache
+{
+
+    public static final String FILE_NAME = ".betterdep-not-found";
+
+    // serializes this JVM's locked sections, since a second FileLock on the same file here would throw.
+    private static final Object FILE_MONITOR = new Object();
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final File file;
+
+    private final long ttlMillis;
+
+    private final ConcurrentHashMap<String, Map<String, Long>> missing =
+        new ConcurrentHashMap<String, Map<String, Long>>();
+
+    // misses caused by failed requests, which aren't written to the file.
+    private final ConcurrentHashMap<String, Map<String, Long>> failed =
+        new ConcurrentHashMap<String, Map<String, Long>>();
+
+    // how to record galley's next addMissing call for a resource: true for a genuine
+    // not-found, false for a request that was never sent.
+    private final ConcurrentHashMap<String, Boolean> outcomes = new ConcurrentHashMap<String, Boolean>();
+
+    private final FileChannel channel;
+
+    /**
+     * Load the cache from the given file, dropping entries older than the TTL. If
+     * clear is set (e.g. when Maven runs with -U), the stored entries are deleted
+     * instead, but new misses are still recorded.
+     */
+    public PersistentNotFoundCache( final File file, final long ttlMillis, final boolean clear )
+        throws IOException
+    {
+        this.file = file;
+        this.ttlMillis = ttlMillis;
+
+        file.getAbsoluteFile()
+            .getParentFile()
+            .mkdirs();
+        channel = new RandomAccessFile( file, "rw" ).getChannel();
+
+        synchronized ( FILE_MONITOR )
+        {
+            final FileLock lock = channel.lock();
+            try
+            {
+                if ( clear )
+                {
+                    channel.truncate( 0 );
+                }
+                else
+                {
+                    load();
+                }
+            }
+            finally
+            {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Record that a request for the resource completed without an error and found
+     * nothing, so the {@link #addMissing(ConcreteResource)} call that follows it is
+     * kept for later runs.
+     */
+    public void confirmNotFound( final ConcreteResource resource )
+    {
+        if ( isCacheable( resource.getLocationUri() ) )
+        {
+            outcomes.put( toKey( resource ), Boolean.TRUE );
+        }
+    }
+
+    /**
+     * Record that a request for the resource was never sent, e.g. because its
+     * location's circuit is open, so the {@link #addMissing(ConcreteResource)} call
+     * that follows it is dropped.
+     */
+    public void ignoreNextMiss( final ConcreteResource resource )
+    {
+        if ( isCacheable( resource.getLocationUri() ) )
+        {
+            outcomes.put( toKey( resource ), Boolean.FALSE );
+        }
+    }
+
+    /**
+     * Forget the misses caused by failed requests, e.g. before a daemon request, so
+     * repositories that have recovered are tried again.
+     */
+    public void forgetFailures()
+    {
+        failed.clear();
+    }
+
+    @Override
+    public void addMissing( final ConcreteResource resource )
+    {
+        final String uri = resource.getLocationUri();
+        if ( !isCacheable( uri ) )
+        {
+            return;
+        }
+
+        final Boolean outcome = outcomes.remove( toKey( resource ) );
+        if ( Boolean.FALSE.equals( outcome ) )
+        {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        if ( Boolean.TRUE.equals( outcome ) )
+        {
+            getPaths( missing, uri ).put( resource.getPath(), now );
+            append( now, uri, resource.getPath() );
+        }
+        else
+        {
+            getPaths( failed, uri ).put( resource.getPath(), now );
+        }
+    }
+
+    @Override
+    public boolean isMissing( final ConcreteResource resource )
+    {
+        final long now = System.currentTimeMillis();
+        return isMissing( missing, resource, now ) || isMissing( failed, resource, now );
+    }
+
+    @Override
+    public void clearMissing( final Location location )
+    {
+        failed.remove( location.getUri() );
+        final Map<String, Long> paths = missing.remove( location.getUri() );
+        if ( paths != null )
+        {
+            clear( location.getUri(), paths );
+        }
+    }
+
+    @Override
+    public void clearMissing( final ConcreteResource resource )
+    {
+        final Map<String, Long> failedPaths = failed.get( resource.getLocationUri() );
+        if ( failedPaths != null )
+        {
+            failedPaths.remove( resource.getPath() );
+        }
+
+        final Map<String, Long> paths = missing.get( resource.getLocationUri() );
+        if ( paths != null && paths.remove( resource.getPath() ) != null )
+        {
+            append( 0, resource.getLocationUri(), resource.getPath() );
+        }
+    }
+
+    @Override
+    public void clearAllMissing()
+    {
+        failed.clear();
+        for ( final String uri : missing.keySet() )
+        {
+            final Map<String, Long> paths = missing.remove( uri );
+            if ( paths != null )
+            {
+                clear( uri, paths );
+            }
+        }
+    }
+
+    @Override
+    public Map<Location, Set<String>> getAllMissing()
+    {
+        final Set<String> uris = new HashSet<String>( missing.keySet() );
+        uris.addAll( failed.keySet() );
+
+        final Map<Location, Set<String>> result = new HashMap<Location, Set<String>>();
+        for ( final String uri : uris )
+        {
+            result.put( new SimpleLocation( uri ), getMissing( uri ) );
+        }
+
+        return result;
+    }
+
+    @Override
+    public Set<String> getMissing( final Location location )
+    {
+        return getMissing( location.getUri() );
+    }
+
+    private Set<String> getMissing( final String uri )
+    {
+        final Set<String> result = new HashSet<String>();
+        final Map<String, Long> paths = missing.get( uri );
+        if ( paths != null )
+        {
+            result.addAll( paths.keySet() );
+        }
+
+        final Map<String, Long> failedPaths = failed.get( uri );
+        if ( failedPaths != null )
+        {
+            result.addAll( failedPaths.keySet() );
+        }
+
+        return result;
+    }
+
+    private boolean isMissing( final Map<String, Map<String, Long>> entries, final ConcreteResource resource,
+                               final long now )
+    {
+        final Map<String, Long> paths = entries.get( resource.getLocationUri() );
+        if ( paths == null )
+        {
+            return false;
+        }
+
+        final Long added = paths.get( resource.getPath() );
+        if ( added == null )
+        {
+            return false;
+        }
+
+        if ( isExpired( added, now ) )
+        {
+            paths.remove( resource.getPath() );
+            return false;
+        }
+
+        return true;
+    }
+
+    private static Map<String, Long> getPaths( final ConcurrentHashMap<String, Map<String, Long>> entries,
+                                               final String uri )
+    {
+        Map<String, Long> paths = entries.get( uri );
+        if ( paths == null )
+        {
+            paths = new ConcurrentHashMap<String, Long>();
+            final Map<String, Long> existing = entries.putIfAbsent( uri, paths );
+            if ( existing != null )
+            {
+                paths = existing;
+            }
+        }
+
+        return paths;
+    }
+
+    private boolean isCacheable( final String uri )
+    {
+        return uri != null && !uri.startsWith( "file:" );
+    }
+
+    private boolean isExpired( final long added, final long now )
+    {
+        return now - added > ttlMillis;
+    }
+
+    /**
+     * Read the live entries, and rewrite the file with only those if it has
+     * anything else. Only called with the file locked.
+     */
+    private void load()
+        throws IOException
+    {
+        final long now = System.currentTimeMillis();
+
+        final ByteBuffer buf = ByteBuffer.allocate( (int) channel.size() );
+        while ( buf.hasRemaining() && channel.read( buf, buf.position() ) > -1 )
+        {
+            // keep reading.
+        }
+
+        int lines = 0;
+        final BufferedReader reader =
+            new BufferedReader( new StringReader( new String( buf.array(), 0, buf.position(), StandardCharsets.UTF_8 ) ) );
+
+        String line;
+        while ( ( line = reader.readLine() ) != null )
+        {
+            lines++;
+
+            final String[] parts = line.split( "\t" );
+            if ( parts.length != 3 )
+            {
+                continue;
+            }
+
+            final long added;
+            try
+            {
+                added = Long.parseLong( parts[0] );
+            }
+            catch ( final NumberFormatException e )
+            {
+                continue;
+            }
+
+            if ( isExpired( added, now ) )
+            {
+                getPaths( missing, parts[1] ).remove( parts[2] );
+            }
+            else
+            {
+                getPaths( missing, parts[1] ).put( parts[2], added );
+            }
+        }
+
+        int count = 0;
+        final StringBuilder live = new StringBuilder();
+        for ( final Map.Entry<String, Map<String, Long>> location : missing.entrySet() )
+        {
+            for ( final Map.Entry<String, Long> path : location.getValue()
+                                                              .entrySet() )
+            {
+                live.append( toLine( path.getValue(), location.getKey(), path.getKey() ) );
+                count++;
+            }
+        }
+
+        if ( count < lines )
+        {
+            // in place rather than replacing the file, so other builds' open channels still point at it.
+            channel.truncate( 0 );
+            write( live.toString() );
+        }
+
+        logger.info( "Loaded {} cached not-found entries from: {}", count, file );
+    }
+
+    /**
+     * Record that the given paths are no longer missing from the location.
+     */
+    private void clear( final String uri, final Map<String, Long> paths )
+    {
+        final StringBuilder tombstones = new StringBuilder();
+        for ( final String path : paths.keySet() )
+        {
+            tombstones.append( toLine( 0, uri, path ) );
+        }
+
+        appendLocked( tombstones.toString() );
+    }
+
+    private void append( final long added, final String uri, final String path )
+    {
+        appendLocked( toLine( added, uri, path ) );
+    }
+
+    private void appendLocked( final String lines )
+    {
+        if ( lines.isEmpty() )
+        {
+            return;
+        }
+
+        synchronized ( FILE_MONITOR )
+        {
+            try
+            {
+                final FileLock lock = channel.lock();
+                try
+                {
+                    write( lines );
+                }
+                finally
+                {
+                    lock.release();
+                }
+            }
+            catch ( final IOException e )
+            {
+                logger.warn( "Failed to update not-found cache: {}. Reason: {}", file, e.getMessage() );
+            }
+        }
+    }
+
+    /**
+     * Append to the end of the file, wherever another build has left it. Only called
+     * with the file locked.
+     */
+    private void write( final String lines )
+        throws IOException
+    {
+        final ByteBuffer buf = ByteBuffer.wrap( lines.getBytes( StandardCharsets.UTF_8 ) );
+        long position = channel.size();
+        while ( buf.hasRemaining() )
+        {
+            position += channel.write( buf, position );
+        }
+    }
+
+    private static String toKey( final ConcreteResource resource )
+    {
+        return resource.getLocationUri() + "\t" + resource.getPath();
+    }
+
+    private static String toLine( final long added, final String uri, final String path )
+    {
+        return added + "\t" + uri + "\t" + path + "\n";
+    }
+
+}
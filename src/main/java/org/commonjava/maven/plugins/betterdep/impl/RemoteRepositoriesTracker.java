@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.commonjava.maven.galley.event.FileStorageEvent;
+import org.commonjava.maven.galley.event.NoOpFileEventManager;
+import org.commonjava.maven.galley.model.Transfer;
+import org.commonjava.maven.galley.model.TransferOperation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps Maven's '_remote.repositories' bookkeeping up to date for files galley
+ * downloads into the local repository. Without an entry there, Maven would either
+ * treat a downloaded file as locally installed, or download it again.
+ */
+public class RemoteRepositoriesTracker
+    extends NoOpFileEventManager
+{
+
+    public static final String REMOTE_REPOSITORIES = "_remote.repositories";
+
+    private static final String HEADER =
+        "#NOTE: This is an internal implementation file, its format can be changed without prior notice.";
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final LocalRepositoryPathGenerator paths;
+
+    public RemoteRepositoriesTracker( final LocalRepositoryPathGenerator paths )
+    {
+        this.paths = paths;
+    }
+
+    @Override
+    public void fire( final FileStorageEvent event )
+    {
+        if ( event.getType() != TransferOperation.DOWNLOAD )
+        {
+            return;
+        }
+
+        final Transfer transfer = event.getTransfer();
+        final File file = transfer.getDetachedFile();
+        if ( file == null || !isTracked( file.getName() ) )
+        {
+            return;
+        }
+
+        final String entry = file.getName() + ">" + paths.getRepositoryId( transfer.getLocation() ) + "=";
+        try
+        {
+            record( new File( file.getParentFile(), REMOTE_REPOSITORIES ), entry );
+        }
+        catch ( final IOException e )
+        {
+            logger.warn( "Failed to record {} in {}. Reason: {}", entry, REMOTE_REPOSITORIES, e.getMessage() );
+        }
+    }
+
+    /**
+     * Maven only keeps track of artifacts, not checksums or repository metadata.
+     */
+    private boolean isTracked( final String fileName )
+    {
+        return !fileName.startsWith( "maven-metadata" ) && !fileName.endsWith( ".sha1" )
+            && !fileName.endsWith( ".md5" ) && !fileName.endsWith( ".sha256" ) && !fileName.endsWith( ".sha512" );
+    }
+
+    private static synchronized void record( final File file, final String entry )
+        throws IOException
+    {
+        final List<String> lines = new ArrayList<String>();
+        if ( file.exists() )
+        {
+            lines.addAll( Files.readAllLines( file.toPath(), StandardCharsets.UTF_8 ) );
+            if ( lines.contains( entry ) )
+            {
+                return;
+            }
+        }
+        else
+        {
+            lines.add( HEADER );
+            lines.add( "#" + new Date() );
+        }
+
+        lines.add( entry );
+
+        // write a sibling and rename it, so Maven never reads a half-written file.
+        final Path tmp = Files.createTempFile( file.getParentFile()
+                                                   .toPath(), REMOTE_REPOSITORIES, ".tmp" );
+        Files.write( tmp, lines, StandardCharsets.UTF_8 );
+        Files.move( tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    }
+
+}
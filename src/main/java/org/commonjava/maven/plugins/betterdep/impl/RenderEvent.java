@@ -0,0 +1,39 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for rendering one output (tree, list, ...) for a set of roots.
+ */
+@Name( "org.commonjava.betterdep.Render" )
+@Label( "Render" )
+@Category( { "Maven", "Betterdep" } )
+public class RenderEvent
+    extends Event
+{
+
+    @Label( "Output" )
+    public String output;
+
+    @Label( "Roots" )
+    public String roots;
+
+    @Label( "Bytes" )
+    @DataAmount
+    public long bytes;
+
+}
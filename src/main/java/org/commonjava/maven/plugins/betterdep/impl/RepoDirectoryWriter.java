@@ -0,0 +1,394 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import static org.apache.commons.io.IOUtils.closeQuietly;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.commonjava.maven.atlas.ident.ref.ArtifactRef;
+import org.commonjava.maven.atlas.ident.ref.ProjectVersionRef;
+import org.commonjava.maven.galley.TransferException;
+import org.commonjava.maven.galley.TransferManager;
+import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.Transfer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Materializes the resolved repository contents of a dependency graph as a
+ * Maven-layout directory, as an alternative to {@link RepoZipWriter}. Files that
+ * are already on local disk (file: locations, or anything galley has cached) are
+ * copied with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}.
+ * Files from file: locations can be hard-linked instead, see {@link #setHardLinks(boolean)}.
+ */
+public class RepoDirectoryWriter
+{
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final TransferManager transfers;
+
+    private int transferThreads = 8;
+
+    private boolean generateChecksums;
+
+    private double verifySample;
+
+    private boolean hardLinks;
+
+    public RepoDirectoryWriter( final TransferManager transfers )
+    {
+        this.transfers = transfers;
+    }
+
+    /**
+     * Number of resources materialized concurrently.
+     */
+    public void setTransferThreads( final int transferThreads )
+    {
+        this.transferThreads = Math.max( 1, transferThreads );
+    }
+
+    /**
+     * Generate .md5, .sha1 and .sha256 files next to every file written, instead of
+     * relying on downloaded checksum files.
+     */
+    public void setGenerateChecksums( final boolean generateChecksums )
+    {
+        this.generateChecksums = generateChecksums;
+    }
+
+    /**
+     * Fraction (0.0-1.0) of files whose generated SHA-1 is checked against the remote
+     * .sha1 file. A mismatch fails the repository.
+     */
+    public void setVerifySample( final double verifySample )
+    {
+        this.verifySample = verifySample;
+    }
+
+    /**
+     * Hard-link files from file: locations into place, where the filesystem allows
+     * it, instead of copying them. A linked file shares its content with the source
+     * repository. Galley's cache is always copied, since it isn't ours to share.
+     */
+    public void setHardLinks( final boolean hardLinks )
+    {
+        this.hardLinks = hardLinks;
+    }
+
+    /**
+     * @return false if one or more files couldn't be retrieved. They're left out of
+     *         the repository, and logged.
+     */
+    public boolean write( final Map<ProjectVersionRef, Map<ArtifactRef, ConcreteResource>> contents, final File dir )
+        throws IOException
+    {
+        dir.mkdirs();
+
+        final Set<ConcreteResource> entries = RepoZipWriter.getEntries( contents, logger );
+        RepoZipWriter.createCacheDirectories( transfers, entries );
+
+        logger.info( "Writing {} artifacts to: {} ({} threads).", entries.size(), dir, transferThreads );
+
+        final ExecutorService executor =
+            Executors.newFixedThreadPool( transferThreads, new NamedThreadFactory( "betterdep-repodir" ) );
+
+        final Map<ConcreteResource, Future<Boolean>> pending = new LinkedHashMap<ConcreteResource, Future<Boolean>>();
+        final List<String> failed = new ArrayList<String>();
+        int written = 0;
+        try
+        {
+            for ( final ConcreteResource resource : entries )
+            {
+                pending.put( resource, executor.submit( () -> materialize( resource, dir ) ) );
+            }
+
+            for ( final Map.Entry<ConcreteResource, Future<Boolean>> entry : pending.entrySet() )
+            {
+                try
+                {
+                    if ( entry.getValue()
+                              .get() )
+                    {
+                        written++;
+                    }
+                }
+                catch ( final ExecutionException e )
+                {
+                    final Throwable cause = e.getCause();
+                    if ( cause instanceof TransferException )
+                    {
+                        // same as the zip: leave the file out, and report the repository as incomplete.
+                        logger.debug( "Failed to retrieve: {}. Reason: {}", entry.getKey(), cause.getMessage() );
+                        failed.add( entry.getKey()
+                                         .getPath() + ": " + cause.getMessage() );
+                        continue;
+                    }
+
+                    throw new IOException( "Failed to write: " + entry.getKey() + ". Reason: " + cause.getMessage(),
+                                           cause );
+                }
+            }
+        }
+        catch ( final InterruptedException e )
+        {
+            Thread.currentThread()
+                  .interrupt();
+            throw new InterruptedIOException( "Interrupted while writing repository directory: " + dir );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        logger.info( "Wrote {} of {} artifacts.", written, entries.size() );
+
+        return RepoZipWriter.reportFailures( failed, logger );
+    }
+
+    private boolean materialize( final ConcreteResource resource, final File dir )
+        throws IOException, TransferException
+    {
+        if ( !copyOrLink( resource, dir ) )
+        {
+            return false;
+        }
+
+        if ( generateChecksums )
+        {
+            final String sha1 = writeChecksums( new File( dir, resource.getPath() ) );
+            if ( isSampled() )
+            {
+                verify( resource, sha1 );
+            }
+        }
+
+        return true;
+    }
+
+    private boolean isSampled()
+    {
+        return verifySample > 0 && ThreadLocalRandom.current()
+                                                    .nextDouble() < verifySample;
+    }
+
+    private void verify( final ConcreteResource resource, final String sha1 )
+        throws IOException
+    {
+        final String expected = RepoZipWriter.getRemoteSha1( transfers, resource, logger );
+        if ( expected != null && !expected.equals( sha1 ) )
+        {
+            throw new IOException( "Checksum mismatch for: " + resource.getPath() + ". Remote SHA-1: " + expected
+                + ", content SHA-1: " + sha1 );
+        }
+    }
+
+    private boolean copyOrLink( final ConcreteResource resource, final File dir )
+        throws IOException, TransferException
+    {
+        final File target = new File( dir, resource.getPath() );
+        target.getParentFile()
+              .mkdirs();
+
+        final File local = getLocalFile( resource );
+        if ( local != null )
+        {
+            if ( hardLinks )
+            {
+                link( local, target );
+            }
+            else
+            {
+                copy( local, target );
+            }
+
+            return true;
+        }
+
+        final Transfer transfer = retrieve( resource );
+        if ( transfer == null || !transfer.exists() )
+        {
+            return false;
+        }
+
+        final File cached = transfer.getDetachedFile();
+        if ( cached != null && cached.isFile() )
+        {
+            copy( cached, target );
+            return true;
+        }
+
+        InputStream in = null;
+        try
+        {
+            in = transfer.openInputStream();
+            Files.copy( in, target.toPath(), StandardCopyOption.REPLACE_EXISTING );
+        }
+        finally
+        {
+            closeQuietly( in );
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the SHA-1 of the file
+     */
+    private String writeChecksums( final File target )
+        throws IOException
+    {
+        final Checksums checksums = new Checksums( Checksums.SUFFIXES );
+
+        InputStream in = null;
+        try
+        {
+            in = new FileInputStream( target );
+            final byte[] buf = new byte[16384];
+            int read;
+            while ( ( read = in.read( buf ) ) > -1 )
+            {
+                checksums.update( buf, 0, read );
+            }
+        }
+        finally
+        {
+            closeQuietly( in );
+        }
+
+        final Map<String, String> digests = checksums.digest();
+        for ( final Map.Entry<String, String> digest : digests.entrySet() )
+        {
+            final File checksumFile = new File( target.getPath() + "." + digest.getKey() );
+            Files.write( checksumFile.toPath(), digest.getValue()
+                                                      .getBytes( StandardCharsets.UTF_8 ) );
+        }
+
+        return digests.get( Checksums.SHA1 );
+    }
+
+    /**
+     * Retrieve the resource, recording a {@link TransferEvent} when flight recording is on.
+     */
+    private Transfer retrieve( final ConcreteResource resource )
+        throws TransferException
+    {
+        final Object event = FlightEvents.beginTransfer();
+
+        Transfer transfer = null;
+        try
+        {
+            transfer = transfers.retrieve( resource );
+            return transfer;
+        }
+        finally
+        {
+            if ( FlightEvents.shouldCommit( event ) )
+            {
+                final boolean found = transfer != null && transfer.exists();
+                FlightEvents.commitTransfer( event, resource.getPath(), resource.getLocation()
+                                                                                .getUri(),
+                                             found ? transfer.length() : 0, found );
+            }
+        }
+    }
+
+    /**
+     * If the resource lives on a file: location, return the file itself so we can
+     * skip the transfer layer entirely.
+     */
+    private File getLocalFile( final ConcreteResource resource )
+    {
+        final String uri = resource.getLocationUri();
+        if ( uri == null || !uri.startsWith( "file:" ) )
+        {
+            return null;
+        }
+
+        try
+        {
+            final File file = new File( new File( new URI( uri ) ), resource.getPath() );
+            return file.isFile() ? file : null;
+        }
+        catch ( final Exception e )
+        {
+            logger.debug( "Cannot use {} as a local file: {}", resource, e.getMessage() );
+            return null;
+        }
+    }
+
+    private void link( final File source, final File target )
+        throws IOException
+    {
+        Files.deleteIfExists( target.toPath() );
+        try
+        {
+            Files.createLink( target.toPath(), source.toPath() );
+            return;
+        }
+        catch ( final IOException | UnsupportedOperationException e )
+        {
+            logger.debug( "Cannot hard-link {} to {}; copying instead. Reason: {}", source, target, e.getMessage() );
+        }
+
+        copy( source, target );
+    }
+
+    private void copy( final File source, final File target )
+        throws IOException
+    {
+        FileInputStream in = null;
+        FileOutputStream out = null;
+        try
+        {
+            in = new FileInputStream( source );
+            out = new FileOutputStream( target );
+
+            final FileChannel src = in.getChannel();
+            final FileChannel dest = out.getChannel();
+
+            final long size = src.size();
+            long pos = 0;
+            while ( pos < size )
+            {
+                pos += src.transferTo( pos, size - pos, dest );
+            }
+        }
+        finally
+        {
+            closeQuietly( out );
+            closeQuietly( in );
+        }
+    }
+
+}
@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import static org.apache.commons.io.IOUtils.closeQuietly;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Listing of the entries in a generated repository archive, one line per entry
+ * in the form 'path TAB size TAB sha1', sorted by path. A manifest from an earlier
+ * run can be passed back in as a baseline so only added and changed entries
+ * have to be written.
+ */
+public class RepoManifest
+{
+
+    public static final String MANIFEST_SUFFIX = ".manifest";
+
+    public static final String REMOVED_SUFFIX = ".removed";
+
+    private final Map<String, Record> records = new TreeMap<String, Record>();
+
+    public static RepoManifest read( final File file )
+        throws IOException
+    {
+        final RepoManifest manifest = new RepoManifest();
+
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader( new InputStreamReader( new FileInputStream( file ), StandardCharsets.UTF_8 ) );
+
+            String line;
+            int lineNo = 0;
+            while ( ( line = reader.readLine() ) != null )
+            {
+                lineNo++;
+                if ( line.trim()
+                         .isEmpty() )
+                {
+                    continue;
+                }
+
+                final String[] parts = line.split( "\t" );
+                if ( parts.length != 3 )
+                {
+                    throw new IOException( "Invalid manifest line " + lineNo + " in: " + file + ": '" + line + "'" );
+                }
+
+                try
+                {
+                    manifest.add( new Record( parts[0], Long.parseLong( parts[1] ), parts[2] ) );
+                }
+                catch ( final NumberFormatException e )
+                {
+                    throw new IOException( "Invalid size on manifest line " + lineNo + " in: " + file + ": '" + line
+                        + "'" );
+                }
+            }
+        }
+        finally
+        {
+            closeQuietly( reader );
+        }
+
+        return manifest;
+    }
+
+    public void write( final File file )
+        throws IOException
+    {
+        Writer writer = null;
+        try
+        {
+            writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file ), StandardCharsets.UTF_8 ) );
+            for ( final Record record : records.values() )
+            {
+                writer.write( record.getPath() );
+                writer.write( '\t' );
+                writer.write( Long.toString( record.getSize() ) );
+                writer.write( '\t' );
+                writer.write( record.getSha1() );
+                writer.write( '\n' );
+            }
+        }
+        finally
+        {
+            closeQuietly( writer );
+        }
+    }
+
+    public synchronized void add( final Record record )
+    {
+        records.put( record.getPath(), record );
+    }
+
+    public synchronized Record get( final String path )
+    {
+        return records.get( path );
+    }
+
+    public synchronized boolean contains( final String path )
+    {
+        return records.containsKey( path );
+    }
+
+    public synchronized Set<String> getPaths()
+    {
+        return records.keySet();
+    }
+
+    public synchronized Collection<Record> getRecords()
+    {
+        return records.values();
+    }
+
+    public synchronized int size()
+    {
+        return records.size();
+    }
+
+    public static final class Record
+    {
+        private final String path;
+
+        private final long size;
+
+        private final String sha1;
+
+        public Record( final String path, final long size, final String sha1 )
+        {
+            this.path = path;
+            this.size = size;
+            this.sha1 = sha1;
+        }
+
+        public String getPath()
+        {
+            return path;
+        }
+
+        public long getSize()
+        {
+            return size;
+        }
+
+        public String getSha1()
+        {
+            return sha1;
+        }
+    }
+
+}
@@ -0,0 +1,823 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import static org.apache.commons.io.IOUtils.closeQuietly;
+import static org.apache.commons.lang.StringUtils.join;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.commonjava.maven.atlas.ident.ref.ArtifactRef;
+import org.commonjava.maven.atlas.ident.ref.ProjectVersionRef;
+import org.commonjava.maven.galley.TransferException;
+import org.commonjava.maven.galley.TransferManager;
+import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.Transfer;
+import org.commonjava.maven.plugins.betterdep.impl.RepoManifest.Record;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Retrieves the resolved repository contents of a dependency graph and writes
+ * them into a zip archive, using the paths of the resources as entry names.
+ * Shared by the 'repozip' and 'report' goals.
+ *
+ * A {@link RepoManifest} of the archive is written next to it. If a baseline
+ * manifest is given, only entries that were added or changed since then are
+ * written, and the paths that disappeared are listed in a '.removed' file.
+ */
+public class RepoZipWriter
+{
+
+    private static final Comparator<ConcreteResource> PATH_ORDER = new Comparator<ConcreteResource>()
+    {
+        @Override
+        public int compare( final ConcreteResource f, final ConcreteResource s )
+        {
+            return f.getPath()
+                    .compareTo( s.getPath() );
+        }
+    };
+
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<String>(
+        Arrays.asList( "jar", "war", "ear", "rar", "sar", "har", "aar", "zip", "gz", "tgz", "bz2", "xz" ) );
+
+    private static final int BUFFER_SIZE = 16384;
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final TransferManager transfers;
+
+    private boolean streaming;
+
+    private int level = Deflater.DEFAULT_COMPRESSION;
+
+    private int zipThreads = Runtime.getRuntime()
+                                    .availableProcessors();
+
+    private int transferThreads = 8;
+
+    private int window = 64;
+
+    private RepoManifest baseline;
+
+    private boolean generateChecksums;
+
+    private double verifySample;
+
+    public RepoZipWriter( final TransferManager transfers )
+    {
+        this.transfers = transfers;
+    }
+
+    /**
+     * Write zip entries while later transfers are still in flight, rather than
+     * retrieving everything before writing the first entry. Entries are still
+     * written in path order, so the archive is the same either way.
+     */
+    public void setStreaming( final boolean streaming )
+    {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Number of concurrent transfers.
+     */
+    public void setTransferThreads( final int transferThreads )
+    {
+        this.transferThreads = Math.max( 1, transferThreads );
+    }
+
+    /**
+     * Maximum number of transfers that may be in flight (or finished but not yet
+     * written) ahead of the next zip entry in streaming mode.
+     */
+    public void setWindow( final int window )
+    {
+        this.window = Math.max( 1, window );
+    }
+
+    /**
+     * DEFLATE level for entries that aren't already compressed (POMs, checksums,
+     * signatures, metadata). Archives, like jars, are always STORED.
+     */
+    public void setLevel( final int level )
+    {
+        this.level = level;
+    }
+
+    /**
+     * Number of threads used to prepare zip entries (compute sizes and CRCs of
+     * STORED entries) ahead of the writer in batch mode. Values below 1 select the
+     * number of available processors.
+     */
+    public void setZipThreads( final int zipThreads )
+    {
+        this.zipThreads = zipThreads < 1 ? Runtime.getRuntime()
+                                                  .availableProcessors() : zipThreads;
+    }
+
+    /**
+     * Manifest of a previously generated archive. When set, the archive only
+     * contains entries that are new or whose content changed since then. Released
+     * (non-SNAPSHOT) paths that are already in the baseline are assumed to be
+     * unchanged, so they aren't even downloaded.
+     */
+    public void setBaseline( final RepoManifest baseline )
+    {
+        this.baseline = baseline;
+    }
+
+    /**
+     * Generate .md5, .sha1 and .sha256 entries for every file from the digests
+     * computed while it's copied into the archive. This is meant to replace
+     * downloading the checksum files along with each artifact.
+     */
+    public void setGenerateChecksums( final boolean generateChecksums )
+    {
+        this.generateChecksums = generateChecksums;
+    }
+
+    /**
+     * Fraction (0.0-1.0) of entries whose computed SHA-1 is checked against the
+     * remote .sha1 file. A mismatch fails the archive.
+     */
+    public void setVerifySample( final double verifySample )
+    {
+        this.verifySample = verifySample;
+    }
+
+    /**
+     * @return false if one or more entries couldn't be retrieved. They're left out of
+     *         the archive and its manifest, and logged.
+     */
+    public boolean write( final Map<ProjectVersionRef, Map<ArtifactRef, ConcreteResource>> contents,
+                          final File zipFile )
+        throws IOException
+    {
+        zipFile.getAbsoluteFile()
+               .getParentFile()
+               .mkdirs();
+
+        final Set<ConcreteResource> entries = getEntries( contents, logger );
+        final Set<String> paths = new HashSet<String>();
+        final RepoManifest manifest = new RepoManifest();
+        if ( baseline != null )
+        {
+            for ( final Iterator<ConcreteResource> it = entries.iterator(); it.hasNext(); )
+            {
+                final String path = it.next()
+                                      .getPath();
+                paths.add( path );
+                if ( generateChecksums )
+                {
+                    for ( final String suffix : Checksums.SUFFIXES )
+                    {
+                        paths.add( path + "." + suffix );
+                    }
+                }
+
+                if ( baseline.contains( path ) && !path.contains( "SNAPSHOT" ) )
+                {
+                    carryOver( path, manifest );
+                    it.remove();
+                }
+            }
+
+            logger.info( "Skipping {} released artifacts already in the baseline manifest.", manifest.size() );
+        }
+
+        createCacheDirectories( transfers, entries );
+
+        final List<String> failed = new ArrayList<String>();
+        OutputStream zipStream = null;
+        ZipOutputStream stream = null;
+        try
+        {
+            zipStream = new FileOutputStream( zipFile );
+
+            stream = new ZipOutputStream( zipStream );
+            stream.setLevel( level );
+            if ( streaming )
+            {
+                writeStreaming( entries, manifest, failed, stream );
+            }
+            else
+            {
+                writeBatch( entries, manifest, failed, stream );
+            }
+
+            stream.finish();
+        }
+        finally
+        {
+            closeQuietly( stream );
+            closeQuietly( zipStream );
+        }
+
+        manifest.write( new File( zipFile.getPath() + RepoManifest.MANIFEST_SUFFIX ) );
+        if ( baseline != null )
+        {
+            writeRemoved( paths, new File( zipFile.getPath() + RepoManifest.REMOVED_SUFFIX ) );
+        }
+
+        return reportFailures( failed, logger );
+    }
+
+    /**
+     * Log the entries that couldn't be retrieved, if any.
+     *
+     * @return true if there weren't any
+     */
+    static boolean reportFailures( final List<String> failed, final Logger logger )
+    {
+        if ( failed.isEmpty() )
+        {
+            return true;
+        }
+
+        Collections.sort( failed );
+        logger.error( "{} artifacts could not be retrieved:\n  {}", failed.size(), join( failed, "\n  " ) );
+        return false;
+    }
+
+    /**
+     * Record an entry that's unchanged since the baseline (along with its generated
+     * checksums) in the new manifest, without writing it.
+     */
+    private void carryOver( final String path, final RepoManifest manifest )
+    {
+        manifest.add( baseline.get( path ) );
+        if ( generateChecksums )
+        {
+            for ( final String suffix : Checksums.SUFFIXES )
+            {
+                final Record record = baseline.get( path + "." + suffix );
+                if ( record != null )
+                {
+                    manifest.add( record );
+                }
+            }
+        }
+    }
+
+    /**
+     * List the baseline paths that are no longer part of the repository, so they
+     * can be deleted wherever the delta archive is applied.
+     */
+    private void writeRemoved( final Set<String> paths, final File file )
+        throws IOException
+    {
+        int removed = 0;
+        Writer writer = null;
+        try
+        {
+            writer = new OutputStreamWriter( new FileOutputStream( file ), StandardCharsets.UTF_8 );
+            for ( final String path : baseline.getPaths() )
+            {
+                if ( !paths.contains( path ) )
+                {
+                    writer.write( path );
+                    writer.write( '\n' );
+                    removed++;
+                }
+            }
+        }
+        finally
+        {
+            closeQuietly( writer );
+        }
+
+        logger.info( "{} paths were removed since the baseline. See: {}", removed, file );
+    }
+
+    /**
+     * Retrieve every entry before writing the first one. Galley's own batch retrieval
+     * reports a failed transfer the same way as a missing file, so the transfers are
+     * run here instead, and failures are added to {@code failed}.
+     */
+    private void writeBatch( final Set<ConcreteResource> entries, final RepoManifest manifest,
+                             final List<String> failed, final ZipOutputStream stream )
+        throws IOException
+    {
+        logger.info( "Starting batch retrieval of {} artifacts ({} threads).", entries.size(), transferThreads );
+
+        final ExecutorService executor =
+            Executors.newFixedThreadPool( transferThreads, new NamedThreadFactory( "betterdep-zip-batch" ) );
+
+        final List<Transfer> items = new ArrayList<Transfer>();
+        try
+        {
+            final Map<String, Future<Transfer>> pending = new LinkedHashMap<String, Future<Transfer>>();
+            for ( final ConcreteResource resource : entries )
+            {
+                pending.put( resource.getPath(), executor.submit( () -> retrieve( resource ) ) );
+            }
+
+            for ( final Map.Entry<String, Future<Transfer>> entry : pending.entrySet() )
+            {
+                final Transfer item = await( entry.getKey(), entry.getValue(), failed );
+                if ( item != null && item.exists() )
+                {
+                    items.add( item );
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        logger.info( "Retrieved {} artifacts. Creating zip.", items.size() );
+
+        Collections.sort( items, new Comparator<Transfer>()
+        {
+            @Override
+            public int compare( final Transfer f, final Transfer s )
+            {
+                return f.getPath()
+                        .compareTo( s.getPath() );
+            }
+        } );
+
+        final Map<String, Callable<PreparedEntry>> tasks = new LinkedHashMap<String, Callable<PreparedEntry>>();
+        for ( final Transfer item : items )
+        {
+            if ( item != null )
+            {
+                tasks.put( item.getPath(), () -> prepare( item ) );
+            }
+        }
+
+        writeInOrder( tasks, zipThreads, manifest, failed, stream );
+    }
+
+    /**
+     * Retrieve entries on a worker pool while writing them, in path order, as soon as
+     * each one is available.
+     */
+    private void writeStreaming( final Set<ConcreteResource> entries, final RepoManifest manifest,
+                                 final List<String> failed, final ZipOutputStream stream )
+        throws IOException
+    {
+        final List<ConcreteResource> sorted = new ArrayList<ConcreteResource>( entries );
+        Collections.sort( sorted, PATH_ORDER );
+
+        logger.info( "Starting streaming retrieval of {} artifacts ({} threads, window of {}).", sorted.size(),
+                     transferThreads, window );
+
+        final Map<String, Callable<PreparedEntry>> tasks = new LinkedHashMap<String, Callable<PreparedEntry>>();
+        for ( final ConcreteResource resource : sorted )
+        {
+            tasks.put( resource.getPath(), () -> prepare( retrieve( resource ) ) );
+        }
+
+        final int written = writeInOrder( tasks, transferThreads, manifest, failed, stream );
+
+        logger.info( "Wrote {} of {} artifacts.", written, sorted.size() );
+    }
+
+    /**
+     * Run the preparation tasks on a worker pool and write the resulting entries in
+     * the order the tasks were given. At most {@link #window} tasks are started ahead
+     * of the entry being written, which bounds the number of open connections and the
+     * amount of finished-but-unwritten content waiting in the cache. Entries whose
+     * transfer failed are added to {@code failed} and left out.
+     */
+    private int writeInOrder( final Map<String, Callable<PreparedEntry>> tasks, final int threads,
+                              final RepoManifest manifest, final List<String> failed,
+                              final ZipOutputStream stream )
+        throws IOException
+    {
+        final ExecutorService executor =
+            Executors.newFixedThreadPool( threads, new NamedThreadFactory( "betterdep-zip" ) );
+
+        final Iterator<Map.Entry<String, Callable<PreparedEntry>>> toSubmit = tasks.entrySet()
+                                                                                  .iterator();
+        final Deque<String> inFlight = new ArrayDeque<String>( window );
+        final Deque<Future<PreparedEntry>> results = new ArrayDeque<Future<PreparedEntry>>( window );
+
+        // generated checksum entries, held back until the writer passes their place in the path order.
+        final TreeMap<String, byte[]> pendingChecksums = new TreeMap<String, byte[]>();
+
+        int written = 0;
+        try
+        {
+            while ( toSubmit.hasNext() || !results.isEmpty() )
+            {
+                while ( toSubmit.hasNext() && results.size() < window )
+                {
+                    final Map.Entry<String, Callable<PreparedEntry>> task = toSubmit.next();
+                    inFlight.add( task.getKey() );
+                    results.add( executor.submit( task.getValue() ) );
+                }
+
+                final PreparedEntry prepared = await( inFlight.poll(), results.poll(), failed );
+                if ( prepared == null )
+                {
+                    continue;
+                }
+
+                if ( prepared.entry == null )
+                {
+                    // content matches the baseline; nothing to write.
+                    carryOver( prepared.transfer.getPath(), manifest );
+                }
+                else
+                {
+                    writeChecksums( pendingChecksums, prepared.entry.getName(), stream );
+                    writeEntry( prepared, manifest, pendingChecksums, stream );
+                    written++;
+                }
+            }
+
+            writeChecksums( pendingChecksums, null, stream );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        return written;
+    }
+
+    private <T> T await( final String path, final Future<T> result, final List<String> failed )
+        throws IOException
+    {
+        try
+        {
+            return result.get();
+        }
+        catch ( final InterruptedException e )
+        {
+            Thread.currentThread()
+                  .interrupt();
+            throw new InterruptedIOException( "Interrupted while retrieving: " + path );
+        }
+        catch ( final ExecutionException e )
+        {
+            final Throwable cause = e.getCause();
+            if ( cause instanceof TransferException )
+            {
+                // leave the entry out, but make sure the archive is reported as incomplete.
+                logger.debug( "Failed to retrieve: {}. Reason: {}", path, cause.getMessage() );
+                failed.add( path + ": " + cause.getMessage() );
+                return null;
+            }
+
+            throw new IOException( "Failed to retrieve: " + path + ". Reason: " + cause.getMessage(), cause );
+        }
+    }
+
+    /**
+     * Decide how the transfer will be stored in the archive. Content that is already
+     * compressed is STORED, which means its size and CRC have to be known up front;
+     * they're computed here (off the writer thread) with a single streaming pass.
+     * The same pass checks the content against the baseline, if there is one; an
+     * entry that didn't change is returned without a {@link ZipEntry}. If the entry
+     * is sampled for verification, its remote SHA-1 is fetched here too.
+     */
+    private PreparedEntry prepare( final Transfer item )
+        throws IOException
+    {
+        if ( item == null || !item.exists() )
+        {
+            return null;
+        }
+
+        final String expectedSha1 =
+            isSampled() ? getRemoteSha1( transfers, new ConcreteResource( item.getLocation(), item.getPath() ),
+                                         logger ) : null;
+
+        final Record previous = baseline == null ? null : baseline.get( item.getPath() );
+        final boolean stored = isCompressed( item.getPath() );
+        if ( !stored && previous == null )
+        {
+            return new PreparedEntry( item, new ZipEntry( item.getPath() ), expectedSha1 );
+        }
+
+        final CRC32 crc = new CRC32();
+        final Checksums sha1 = previous == null ? null : new Checksums( Collections.singletonList( Checksums.SHA1 ) );
+        long size = 0;
+
+        InputStream in = null;
+        try
+        {
+            in = item.openInputStream();
+            final byte[] buf = new byte[BUFFER_SIZE];
+            int read;
+            while ( ( read = in.read( buf ) ) > -1 )
+            {
+                if ( stored )
+                {
+                    crc.update( buf, 0, read );
+                }
+                if ( sha1 != null )
+                {
+                    sha1.update( buf, 0, read );
+                }
+                size += read;
+            }
+        }
+        finally
+        {
+            closeQuietly( in );
+        }
+
+        if ( previous != null && previous.getSize() == size
+            && previous.getSha1()
+                       .equals( sha1.digest()
+                                    .get( Checksums.SHA1 ) ) )
+        {
+            return new PreparedEntry( item, null, null );
+        }
+
+        final ZipEntry ze = new ZipEntry( item.getPath() );
+        if ( stored )
+        {
+            ze.setMethod( ZipEntry.STORED );
+            ze.setSize( size );
+            ze.setCompressedSize( size );
+            ze.setCrc( crc.getValue() );
+        }
+
+        return new PreparedEntry( item, ze, expectedSha1 );
+    }
+
+    private boolean isSampled()
+    {
+        return verifySample > 0 && ThreadLocalRandom.current()
+                                                    .nextDouble() < verifySample;
+    }
+
+    /**
+     * Retrieve the resource, recording a {@link TransferEvent} when flight recording is on.
+     */
+    private Transfer retrieve( final ConcreteResource resource )
+        throws TransferException
+    {
+        final Object event = FlightEvents.beginTransfer();
+
+        Transfer transfer = null;
+        try
+        {
+            transfer = transfers.retrieve( resource );
+            return transfer;
+        }
+        finally
+        {
+            if ( FlightEvents.shouldCommit( event ) )
+            {
+                final boolean found = transfer != null && transfer.exists();
+                FlightEvents.commitTransfer( event, resource.getPath(), resource.getLocation()
+                                                                                .getUri(),
+                                             found ? transfer.length() : 0, found );
+            }
+        }
+    }
+
+    /**
+     * Fetch the remote .sha1 for the resource, or null if there isn't one. A failed
+     * lookup is an error, not a missing checksum, so it can't let a sampled entry
+     * through unverified.
+     */
+    static String getRemoteSha1( final TransferManager transfers, final ConcreteResource item, final Logger logger )
+        throws IOException
+    {
+        final ConcreteResource resource = new ConcreteResource( item.getLocation(), item.getPath() + ".sha1" );
+        try
+        {
+            final Transfer checksum = transfers.retrieve( resource );
+            if ( checksum == null || !checksum.exists() )
+            {
+                logger.debug( "No remote checksum to verify {} against.", item );
+                return null;
+            }
+
+            return Checksums.read( checksum.openInputStream() );
+        }
+        catch ( final TransferException | IOException e )
+        {
+            throw new IOException( "Cannot verify: " + item.getPath() + ". Failed to retrieve its remote checksum: "
+                + e.getMessage(), e );
+        }
+    }
+
+    private boolean isCompressed( final String path )
+    {
+        final int idx = path.lastIndexOf( '.' );
+        return idx > -1 && COMPRESSED_EXTENSIONS.contains( path.substring( idx + 1 )
+                                                               .toLowerCase() );
+    }
+
+    /**
+     * Copy the transfer into the archive, computing its manifest record on the way.
+     * Generated checksum entries are added to the given map, to be written once the
+     * archive reaches their path.
+     */
+    private void writeEntry( final PreparedEntry prepared, final RepoManifest manifest,
+                             final TreeMap<String, byte[]> pendingChecksums, final ZipOutputStream stream )
+        throws IOException
+    {
+        final String path = prepared.entry.getName();
+        stream.putNextEntry( prepared.entry );
+
+        final Checksums checksums =
+            new Checksums( generateChecksums ? Checksums.SUFFIXES : Collections.singletonList( Checksums.SHA1 ) );
+        long size = 0;
+
+        InputStream itemStream = null;
+        try
+        {
+            itemStream = prepared.transfer.openInputStream();
+            final byte[] buf = new byte[BUFFER_SIZE];
+            int read;
+            while ( ( read = itemStream.read( buf ) ) > -1 )
+            {
+                stream.write( buf, 0, read );
+                checksums.update( buf, 0, read );
+                size += read;
+            }
+        }
+        finally
+        {
+            closeQuietly( itemStream );
+        }
+
+        stream.closeEntry();
+
+        final Map<String, String> digests = checksums.digest();
+        final String sha1 = digests.get( Checksums.SHA1 );
+        if ( prepared.expectedSha1 != null && !prepared.expectedSha1.equals( sha1 ) )
+        {
+            throw new IOException( "Checksum mismatch for: " + path + ". Remote SHA-1: " + prepared.expectedSha1
+                + ", content SHA-1: " + sha1 );
+        }
+
+        manifest.add( new Record( path, size, sha1 ) );
+
+        if ( generateChecksums )
+        {
+            for ( final Map.Entry<String, String> digest : digests.entrySet() )
+            {
+                final byte[] content = digest.getValue()
+                                             .getBytes( StandardCharsets.UTF_8 );
+                final String checksumPath = path + "." + digest.getKey();
+                pendingChecksums.put( checksumPath, content );
+
+                final Checksums checksumSha1 = new Checksums( Collections.singletonList( Checksums.SHA1 ) );
+                checksumSha1.update( content, 0, content.length );
+                manifest.add( new Record( checksumPath, content.length, checksumSha1.digest()
+                                                                                    .get( Checksums.SHA1 ) ) );
+            }
+        }
+    }
+
+    /**
+     * Write the held-back checksum entries whose paths sort before the given path (or
+     * all of them, if it's null), so the archive stays in strict path order even when
+     * other entries, like foo.pom.asc, fall between foo.pom and foo.pom.md5.
+     */
+    private void writeChecksums( final TreeMap<String, byte[]> pendingChecksums, final String before,
+                                 final ZipOutputStream stream )
+        throws IOException
+    {
+        if ( before != null )
+        {
+            // a real entry at the same path wins over the generated one.
+            pendingChecksums.remove( before );
+        }
+
+        while ( !pendingChecksums.isEmpty()
+            && ( before == null || pendingChecksums.firstKey()
+                                                   .compareTo( before ) < 0 ) )
+        {
+            final Map.Entry<String, byte[]> checksum = pendingChecksums.pollFirstEntry();
+            stream.putNextEntry( new ZipEntry( checksum.getKey() ) );
+            stream.write( checksum.getValue() );
+            stream.closeEntry();
+        }
+    }
+
+    /**
+     * Collect the resources to include in the archive, skipping any that would
+     * produce an entry path that has already been claimed by another artifact.
+     */
+    static Set<ConcreteResource> getEntries( final Map<ProjectVersionRef, Map<ArtifactRef, ConcreteResource>> contents,
+                                             final Logger logger )
+    {
+        final Set<ConcreteResource> entries = new HashSet<ConcreteResource>();
+        final Set<String> seenPaths = new HashSet<String>();
+
+        logger.info( "Iterating contents with {} GAVs.", contents.size() );
+        for ( final Map<ArtifactRef, ConcreteResource> artifactResources : contents.values() )
+        {
+            for ( final Entry<ArtifactRef, ConcreteResource> entry : artifactResources.entrySet() )
+            {
+                final ArtifactRef ref = entry.getKey();
+                final ConcreteResource resource = entry.getValue();
+
+                final String path = resource.getPath();
+                if ( seenPaths.contains( path ) )
+                {
+                    logger.info( "Conflicting path: {}. Skipping {}", path, ref );
+                    continue;
+                }
+
+                seenPaths.add( path );
+                entries.add( resource );
+            }
+        }
+
+        return entries;
+    }
+
+    /**
+     * Create the cache directories the entries will be retrieved into, before any
+     * worker thread starts. Galley fails a transfer when another thread creates the
+     * same directory at the same moment, which is likely in a fresh cache, where
+     * many artifacts share a directory that doesn't exist yet.
+     */
+    static void createCacheDirectories( final TransferManager transfers, final Collection<ConcreteResource> entries )
+        throws IOException
+    {
+        final Set<String> created = new HashSet<String>();
+        for ( final ConcreteResource resource : entries )
+        {
+            final String path = resource.getPath();
+            final int idx = path.lastIndexOf( '/' );
+            if ( idx < 1 || !created.add( resource.getLocation()
+                                                  .getUri() + "\t" + path.substring( 0, idx ) ) )
+            {
+                continue;
+            }
+
+            final Transfer cached = transfers.getCacheReference( resource );
+            final Transfer parent = cached == null ? null : cached.getParent();
+            if ( parent != null )
+            {
+                parent.mkdirs();
+            }
+        }
+    }
+
+    private static final class PreparedEntry
+    {
+        private final Transfer transfer;
+
+        // null if the content is unchanged from the baseline
+        private final ZipEntry entry;
+
+        // null unless the entry was sampled for verification
+        private final String expectedSha1;
+
+        PreparedEntry( final Transfer transfer, final ZipEntry entry, final String expectedSha1 )
+        {
+            this.transfer = transfer;
+            this.entry = entry;
+            this.expectedSha1 = expectedSha1;
+        }
+    }
+
+}
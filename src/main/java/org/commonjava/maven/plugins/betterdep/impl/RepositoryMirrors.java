@@ -0,0 +1,256 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.repository.ArtifactRepositoryPolicy;
+import org.apache.maven.artifact.repository.MavenArtifactRepository;
+import org.apache.maven.settings.Mirror;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies the mirrors from settings.xml to a list of remote repositories, and
+ * collapses repositories that end up at the same URL into one, so each lookup
+ * makes a single request per server instead of one per repository id. Mirrors are
+ * matched the way Maven does it: an exact mirrorOf id wins, otherwise the first
+ * mirror whose pattern ('*', 'external:*', 'a,b' or '!a') matches is used.
+ */
+public class RepositoryMirrors
+{
+
+    private static final String WILDCARD = "*";
+
+    private static final String EXTERNAL_WILDCARD = "external:*";
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final List<Mirror> mirrors;
+
+    public RepositoryMirrors( final List<Mirror> mirrors )
+    {
+        this.mirrors = mirrors == null ? Collections.<Mirror> emptyList() : mirrors;
+    }
+
+    /**
+     * The repositories to actually use, in their original order: each one replaced
+     * by its mirror (if any), with repositories sharing a URL merged into the first
+     * of them. A merged repository allows releases or snapshots if any of its
+     * sources does.
+     */
+    public List<ArtifactRepository> apply( final List<ArtifactRepository> repositories )
+    {
+        if ( repositories == null )
+        {
+            return null;
+        }
+
+        final Map<String, MavenArtifactRepository> effective = new LinkedHashMap<String, MavenArtifactRepository>();
+        final Map<String, List<ArtifactRepository>> sources = new LinkedHashMap<String, List<ArtifactRepository>>();
+        for ( final ArtifactRepository repo : repositories )
+        {
+            final Mirror mirror = getMirror( repo );
+            final String id = mirror == null ? repo.getId() : mirror.getId();
+            final String url = mirror == null ? repo.getUrl() : mirror.getUrl();
+
+            final String key = normalize( url );
+            final MavenArtifactRepository existing = effective.get( key );
+            if ( existing == null )
+            {
+                effective.put( key, new MavenArtifactRepository( id, url, repo.getLayout(),
+                                                                 copy( repo.getSnapshots(), false ),
+                                                                 copy( repo.getReleases(), true ) ) );
+                sources.put( key, new ArrayList<ArtifactRepository>() );
+            }
+            else
+            {
+                merge( existing.getSnapshots(), repo.getSnapshots() );
+                merge( existing.getReleases(), repo.getReleases() );
+            }
+
+            sources.get( key )
+                   .add( repo );
+        }
+
+        for ( final Map.Entry<String, MavenArtifactRepository> entry : effective.entrySet() )
+        {
+            final MavenArtifactRepository repo = entry.getValue();
+            final List<ArtifactRepository> mirrored = sources.get( entry.getKey() );
+            repo.setMirroredRepositories( mirrored );
+
+            if ( mirrored.size() > 1 || !mirrored.get( 0 )
+                                                 .getUrl()
+                                                 .equals( repo.getUrl() ) )
+            {
+                final List<String> ids = new ArrayList<String>();
+                for ( final ArtifactRepository source : mirrored )
+                {
+                    ids.add( source.getId() );
+                }
+
+                logger.info( "Using {} ({}) for repositories: {}", repo.getId(), repo.getUrl(), ids );
+            }
+        }
+
+        return new ArrayList<ArtifactRepository>( effective.values() );
+    }
+
+    /**
+     * The mirror for the given repository, or null if there isn't one.
+     */
+    public Mirror getMirror( final ArtifactRepository repo )
+    {
+        for ( final Mirror mirror : mirrors )
+        {
+            if ( repo.getId()
+                     .equals( mirror.getMirrorOf() ) )
+            {
+                return mirror;
+            }
+        }
+
+        for ( final Mirror mirror : mirrors )
+        {
+            if ( matches( repo, mirror.getMirrorOf() ) )
+            {
+                return mirror;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * A form of the URL that's the same for all the ways of writing it that reach
+     * the same place: lower-case scheme and host, no default port, no trailing slash.
+     */
+    public static String normalize( final String url )
+    {
+        String result = url.trim();
+        while ( result.endsWith( "/" ) )
+        {
+            result = result.substring( 0, result.length() - 1 );
+        }
+
+        try
+        {
+            final URI uri = new URI( result );
+            if ( uri.getScheme() == null || uri.getHost() == null )
+            {
+                return result;
+            }
+
+            final String scheme = uri.getScheme()
+                                     .toLowerCase( Locale.ENGLISH );
+            int port = uri.getPort();
+            if ( ( "http".equals( scheme ) && port == 80 ) || ( "https".equals( scheme ) && port == 443 ) )
+            {
+                port = -1;
+            }
+
+            return new URI( scheme, uri.getUserInfo(), uri.getHost()
+                                                          .toLowerCase( Locale.ENGLISH ), port, uri.getPath(),
+                            uri.getQuery(), null ).toString();
+        }
+        catch ( final URISyntaxException e )
+        {
+            return result;
+        }
+    }
+
+    private static boolean matches( final ArtifactRepository repo, final String pattern )
+    {
+        if ( pattern == null )
+        {
+            return false;
+        }
+
+        if ( WILDCARD.equals( pattern ) || pattern.equals( repo.getId() ) )
+        {
+            return true;
+        }
+
+        boolean result = false;
+        for ( final String part : pattern.split( "," ) )
+        {
+            final String p = part.trim();
+            if ( p.startsWith( "!" ) && p.substring( 1 )
+                                         .equals( repo.getId() ) )
+            {
+                // an explicit exclusion beats any other match.
+                return false;
+            }
+            else if ( p.equals( repo.getId() ) || WILDCARD.equals( p )
+                || ( EXTERNAL_WILDCARD.equals( p ) && isExternal( repo ) ) )
+            {
+                result = true;
+            }
+        }
+
+        return result;
+    }
+
+    private static boolean isExternal( final ArtifactRepository repo )
+    {
+        final String url = repo.getUrl();
+        if ( url.startsWith( "file:" ) )
+        {
+            return false;
+        }
+
+        try
+        {
+            final String host = new URI( url ).getHost();
+            return host != null && !"localhost".equalsIgnoreCase( host ) && !"127.0.0.1".equals( host );
+        }
+        catch ( final URISyntaxException e )
+        {
+            return true;
+        }
+    }
+
+    /**
+     * Copy the policy, since merging modifies it. A missing policy is treated the
+     * same way as in {@link MavenLocationExpander}.
+     */
+    private static ArtifactRepositoryPolicy copy( final ArtifactRepositoryPolicy policy, final boolean enabled )
+    {
+        if ( policy != null )
+        {
+            return new ArtifactRepositoryPolicy( policy );
+        }
+
+        final ArtifactRepositoryPolicy result = new ArtifactRepositoryPolicy();
+        result.setEnabled( enabled );
+
+        return result;
+    }
+
+    private static void merge( final ArtifactRepositoryPolicy target, final ArtifactRepositoryPolicy source )
+    {
+        if ( source != null && source.isEnabled() && !target.isEnabled() )
+        {
+            target.setEnabled( true );
+            target.setUpdatePolicy( source.getUpdatePolicy() );
+            target.setChecksumPolicy( source.getChecksumPolicy() );
+        }
+    }
+
+}
@@ -0,0 +1,248 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import static org.apache.commons.io.IOUtils.closeQuietly;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.commonjava.maven.galley.model.Location;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Learns which remote repositories actually serve each groupId prefix, and moves
+ * those repositories to the front when a path under that prefix is expanded, so
+ * the first repository tried usually has the file. Local (file:) locations stay
+ * first, and every other repository is still tried after the learned ones, so a
+ * stale or missing route only costs the probes it would have cost anyway.
+ *
+ * Routes are appended to a file as 'prefix TAB location' lines and reloaded by
+ * later runs. The {@link #getEpoch() epoch} changes whenever a route is learned.
+ */
+public class RepositoryRoutingIndex
+{
+
+    public static final String FILE_NAME = ".betterdep-routes";
+
+    /**
+     * Number of leading groupId path segments routes are learned for, e.g.
+     * 'org/commonjava/maven'.
+     */
+    private static final int PREFIX_SEGMENTS = 3;
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final ConcurrentHashMap<String, Set<String>> routes = new ConcurrentHashMap<String, Set<String>>();
+
+    private final File file;
+
+    private Writer writer;
+
+    private final AtomicLong epoch = new AtomicLong();
+
+    public RepositoryRoutingIndex( final File file )
+        throws IOException
+    {
+        this.file = file;
+        if ( file.exists() )
+        {
+            load();
+        }
+
+        file.getAbsoluteFile()
+            .getParentFile()
+            .mkdirs();
+        writer = new OutputStreamWriter( new FileOutputStream( file, true ), StandardCharsets.UTF_8 );
+    }
+
+    /**
+     * Record that the given remote location served the given path.
+     */
+    public void record( final String path, final String locationUri )
+    {
+        final String prefix = getPrefix( path );
+        if ( prefix == null || locationUri == null || locationUri.startsWith( "file:" ) )
+        {
+            return;
+        }
+
+        if ( getRoutes( prefix ).add( locationUri ) )
+        {
+            epoch.incrementAndGet();
+            append( prefix, locationUri );
+        }
+    }
+
+    /**
+     * A counter that changes whenever the result of {@link #route(String, List)} might.
+     */
+    public long getEpoch()
+    {
+        return epoch.get();
+    }
+
+    /**
+     * Reorder the locations for the given path: local locations first, then the
+     * remote ones known to serve its groupId prefix, then all the others. Each
+     * group keeps its original order.
+     */
+    public List<Location> route( final String path, final List<Location> locations )
+    {
+        final String prefix = getPrefix( path );
+        final Set<String> served = prefix == null ? null : routes.get( prefix );
+        if ( served == null || served.isEmpty() )
+        {
+            return locations;
+        }
+
+        final List<Location> local = new ArrayList<Location>();
+        final List<Location> routed = new ArrayList<Location>();
+        final List<Location> rest = new ArrayList<Location>();
+        for ( final Location location : locations )
+        {
+            final String uri = location.getUri();
+            if ( uri.startsWith( "file:" ) )
+            {
+                local.add( location );
+            }
+            else if ( served.contains( uri ) )
+            {
+                routed.add( location );
+            }
+            else
+            {
+                rest.add( location );
+            }
+        }
+
+        final List<Location> result = new ArrayList<Location>( locations.size() );
+        result.addAll( local );
+        result.addAll( routed );
+        result.addAll( rest );
+
+        return result;
+    }
+
+    /**
+     * The first few groupId segments of a Maven repository path, or null if the
+     * path is too short to have a groupId. The last three segments (artifactId,
+     * version, file name) are never part of the prefix; for artifact-level metadata
+     * this drops one groupId segment too, which is harmless for a prefix.
+     */
+    static String getPrefix( final String path )
+    {
+        final int start = path.startsWith( "/" ) ? 1 : 0;
+
+        // find the end of the prefix and the start of the last three segments without splitting the path.
+        int segments = 0;
+        int prefixEnd = -1;
+        for ( int i = path.indexOf( '/', start ); i > -1; i = path.indexOf( '/', i + 1 ) )
+        {
+            segments++;
+            if ( segments == PREFIX_SEGMENTS )
+            {
+                prefixEnd = i;
+            }
+        }
+
+        // segments counts the slashes, so there are segments + 1 parts, and segments - 2 of them are groupId.
+        final int groupSegments = segments - 2;
+        if ( groupSegments < 1 )
+        {
+            return null;
+        }
+
+        if ( groupSegments < PREFIX_SEGMENTS )
+        {
+            int end = start - 1;
+            for ( int i = 0; i < groupSegments; i++ )
+            {
+                end = path.indexOf( '/', end + 1 );
+            }
+            prefixEnd = end;
+        }
+
+        return path.substring( start, prefixEnd );
+    }
+
+    private Set<String> getRoutes( final String prefix )
+    {
+        Set<String> served = routes.get( prefix );
+        if ( served == null )
+        {
+            served = new CopyOnWriteArraySet<String>();
+
+            final Set<String> existing = routes.putIfAbsent( prefix, served );
+            if ( existing != null )
+            {
+                served = existing;
+            }
+        }
+
+        return served;
+    }
+
+    private void load()
+        throws IOException
+    {
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader( new InputStreamReader( new FileInputStream( file ), StandardCharsets.UTF_8 ) );
+
+            String line;
+            while ( ( line = reader.readLine() ) != null )
+            {
+                final String[] parts = line.split( "\t" );
+                if ( parts.length == 2 )
+                {
+                    getRoutes( parts[0] ).add( parts[1] );
+                }
+            }
+        }
+        finally
+        {
+            closeQuietly( reader );
+        }
+
+        logger.info( "Loaded repository routes for {} groupId prefixes from: {}", routes.size(), file );
+    }
+
+    private synchronized void append( final String prefix, final String locationUri )
+    {
+        try
+        {
+            writer.write( prefix + "\t" + locationUri + "\n" );
+            writer.flush();
+        }
+        catch ( final IOException e )
+        {
+            logger.warn( "Failed to record repository route for: {} in: {}. Reason: {}", prefix, file,
+                         e.getMessage() );
+        }
+    }
+
+}
@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import org.commonjava.maven.galley.event.FileAccessEvent;
+import org.commonjava.maven.galley.event.FileDeletionEvent;
+import org.commonjava.maven.galley.event.FileErrorEvent;
+import org.commonjava.maven.galley.event.FileNotFoundEvent;
+import org.commonjava.maven.galley.event.FileStorageEvent;
+import org.commonjava.maven.galley.model.Transfer;
+import org.commonjava.maven.galley.model.TransferOperation;
+import org.commonjava.maven.galley.spi.event.FileEventManager;
+
+/**
+ * Feeds every download into a {@link RepositoryRoutingIndex} before passing the
+ * event on, so the index learns which repositories serve which groupIds.
+ */
+public class RoutingFileEventManager
+    implements FileEventManager
+{
+
+    private final RepositoryRoutingIndex index;
+
+    private final FileEventManager delegate;
+
+    public RoutingFileEventManager( final RepositoryRoutingIndex index, final FileEventManager delegate )
+    {
+        this.index = index;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void fire( final FileNotFoundEvent event )
+    {
+        delegate.fire( event );
+    }
+
+    @Override
+    public void fire( final FileStorageEvent event )
+    {
+        if ( event.getType() == TransferOperation.DOWNLOAD )
+        {
+            final Transfer transfer = event.getTransfer();
+            index.record( transfer.getPath(), transfer.getLocation()
+                                                      .getUri() );
+        }
+
+        delegate.fire( event );
+    }
+
+    @Override
+    public void fire( final FileAccessEvent event )
+    {
+        delegate.fire( event );
+    }
+
+    @Override
+    public void fire( final FileDeletionEvent event )
+    {
+        delegate.fire( event );
+    }
+
+    @Override
+    public void fire( final FileErrorEvent event )
+    {
+        delegate.fire( event );
+    }
+
+}
@@ -0,0 +1,259 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import static org.apache.commons.io.IOUtils.closeQuietly;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Collects lines and writes them out sorted and de-duplicated, using a bounded
+ * amount of memory. Lines are held in a sorted set until it reaches the chunk
+ * size, at which point the chunk is spilled to a temporary file. The chunks are
+ * then merged when the output is written, dropping duplicates across chunks.
+ */
+public class SortedLineWriter
+    implements Closeable
+{
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private final int chunkSize;
+
+    private final List<File> spills = new ArrayList<File>();
+
+    private TreeSet<String> chunk = new TreeSet<String>();
+
+    public SortedLineWriter( final int chunkSize )
+    {
+        this.chunkSize = Math.max( 1, chunkSize );
+    }
+
+    public void add( final String line )
+        throws IOException
+    {
+        chunk.add( line );
+        if ( chunk.size() >= chunkSize )
+        {
+            spill();
+        }
+    }
+
+    /**
+     * Write the sorted, de-duplicated lines, separated by newlines.
+     *
+     * @return the number of lines written
+     */
+    public int writeTo( final Writer out )
+        throws IOException
+    {
+        if ( spills.isEmpty() )
+        {
+            // everything fit in memory.
+            int count = 0;
+            for ( final String line : chunk )
+            {
+                writeLine( line, count++, out );
+            }
+
+            return count;
+        }
+
+        if ( !chunk.isEmpty() )
+        {
+            spill();
+        }
+
+        return merge( out );
+    }
+
+    /**
+     * Write the sorted, de-duplicated lines to the given file, creating its directory
+     * and gzipping it if asked.
+     *
+     * @return the number of lines written
+     */
+    public int writeTo( final File out, final boolean gzip )
+        throws IOException
+    {
+        out.getAbsoluteFile()
+           .getParentFile()
+           .mkdirs();
+
+        OutputStream stream = null;
+        try
+        {
+            stream = new FileOutputStream( out );
+            if ( gzip )
+            {
+                stream = new GZIPOutputStream( stream, BUFFER_SIZE );
+            }
+
+            final Writer writer =
+                new BufferedWriter( new OutputStreamWriter( stream, StandardCharsets.UTF_8 ), BUFFER_SIZE );
+            final int count = writeTo( writer );
+            writer.close();
+
+            return count;
+        }
+        finally
+        {
+            closeQuietly( stream );
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        for ( final File spill : spills )
+        {
+            spill.delete();
+        }
+
+        spills.clear();
+        chunk.clear();
+    }
+
+    private void spill()
+        throws IOException
+    {
+        final File file = File.createTempFile( "betterdep-sort-", ".txt" );
+        file.deleteOnExit();
+        spills.add( file );
+
+        Writer writer = null;
+        try
+        {
+            writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file ), StandardCharsets.UTF_8 ) );
+            for ( final String line : chunk )
+            {
+                writer.write( line );
+                writer.write( '\n' );
+            }
+        }
+        finally
+        {
+            closeQuietly( writer );
+        }
+
+        chunk = new TreeSet<String>();
+    }
+
+    private int merge( final Writer out )
+        throws IOException
+    {
+        final PriorityQueue<ChunkReader> queue = new PriorityQueue<ChunkReader>( spills.size() );
+        try
+        {
+            for ( final File spill : spills )
+            {
+                final ChunkReader reader = new ChunkReader( spill );
+                if ( reader.advance() )
+                {
+                    queue.add( reader );
+                }
+                else
+                {
+                    reader.close();
+                }
+            }
+
+            int count = 0;
+            String last = null;
+            while ( !queue.isEmpty() )
+            {
+                final ChunkReader reader = queue.poll();
+                if ( !reader.current.equals( last ) )
+                {
+                    last = reader.current;
+                    writeLine( last, count++, out );
+                }
+
+                if ( reader.advance() )
+                {
+                    queue.add( reader );
+                }
+                else
+                {
+                    reader.close();
+                }
+            }
+
+            return count;
+        }
+        finally
+        {
+            for ( final ChunkReader reader : queue )
+            {
+                reader.close();
+            }
+        }
+    }
+
+    private void writeLine( final String line, final int index, final Writer out )
+        throws IOException
+    {
+        if ( index > 0 )
+        {
+            out.write( '\n' );
+        }
+        out.write( line );
+    }
+
+    private static final class ChunkReader
+        implements Comparable<ChunkReader>
+    {
+        private final BufferedReader reader;
+
+        private String current;
+
+        ChunkReader( final File file )
+            throws IOException
+        {
+            reader = new BufferedReader( new InputStreamReader( new FileInputStream( file ), StandardCharsets.UTF_8 ) );
+        }
+
+        boolean advance()
+            throws IOException
+        {
+            current = reader.readLine();
+            return current != null;
+        }
+
+        void close()
+        {
+            closeQuietly( reader );
+        }
+
+        @Override
+        public int compareTo( final ChunkReader other )
+        {
+            return current.compareTo( other.current );
+        }
+    }
+
+}
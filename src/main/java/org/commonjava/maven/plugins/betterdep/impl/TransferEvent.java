@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for retrieving one artifact while writing a repository.
+ */
+@Name( "org.commonjava.betterdep.Transfer" )
+@Label( "Artifact Transfer" )
+@Category( { "Maven", "Betterdep" } )
+public class TransferEvent
+    extends Event
+{
+
+    @Label( "Path" )
+    public String path;
+
+    @Label( "Location" )
+    public String location;
+
+    @Label( "Bytes" )
+    @DataAmount
+    public long bytes;
+
+    @Label( "Found" )
+    public boolean found;
+
+}
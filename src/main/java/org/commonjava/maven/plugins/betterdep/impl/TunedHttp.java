@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import java.io.IOException;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.commonjava.maven.galley.spi.auth.PasswordManager;
+import org.commonjava.maven.galley.transport.htcli.Http;
+import org.commonjava.maven.galley.transport.htcli.HttpImpl;
+import org.commonjava.maven.galley.transport.htcli.model.HttpLocation;
+
+/**
+ * {@link Http} with a configurable connection pool and timeouts. Galley's default
+ * only caps the total number of connections, which leaves HttpClient's limit of two
+ * connections per host in place, so most transfer threads end up waiting on a
+ * single repository manager. Connections are kept alive and reused across
+ * requests; the connect and read timeouts are set on every request's context,
+ * which takes precedence over the single timeout galley configures per location.
+ */
+public class TunedHttp
+    implements Http
+{
+
+    /**
+     * Milliseconds a pooled connection can sit idle before it's checked for
+     * staleness on reuse.
+     */
+    private static final int VALIDATE_AFTER_MILLIS = 2000;
+
+    private final HttpImpl delegate;
+
+    private final RequestConfig requestConfig;
+
+    public TunedHttp( final PasswordManager passwords, final int maxConnections, final int perHost,
+                      final int connectTimeoutMillis, final int readTimeoutMillis )
+    {
+        final PoolingHttpClientConnectionManager connections = new PoolingHttpClientConnectionManager();
+        connections.setMaxTotal( Math.max( 1, maxConnections ) );
+        connections.setDefaultMaxPerRoute( Math.max( 1, Math.min( perHost, maxConnections ) ) );
+        connections.setValidateAfterInactivity( VALIDATE_AFTER_MILLIS );
+        connections.setDefaultSocketConfig( SocketConfig.custom()
+                                                        .setSoKeepAlive( true )
+                                                        .setTcpNoDelay( true )
+                                                        .setSoTimeout( readTimeoutMillis )
+                                                        .build() );
+
+        this.delegate = new HttpImpl( passwords, connections );
+
+        // waiting for a free pooled connection counts against the read timeout.
+        this.requestConfig = RequestConfig.custom()
+                                          .setConnectTimeout( connectTimeoutMillis )
+                                          .setSocketTimeout( readTimeoutMillis )
+                                          .setConnectionRequestTimeout( readTimeoutMillis )
+                                          .build();
+    }
+
+    @Override
+    public CloseableHttpClient createClient( final HttpLocation location )
+        throws IOException
+    {
+        return delegate.createClient( location );
+    }
+
+    @Override
+    public CloseableHttpClient createClient()
+        throws IOException
+    {
+        return delegate.createClient();
+    }
+
+    @Override
+    public HttpClientContext createContext( final HttpLocation location )
+    {
+        final HttpClientContext context = delegate.createContext( location );
+        context.setRequestConfig( requestConfig );
+
+        return context;
+    }
+
+    @Override
+    public HttpClientContext createContext()
+    {
+        final HttpClientContext context = delegate.createContext();
+        context.setRequestConfig( requestConfig );
+
+        return context;
+    }
+
+    @Override
+    public void cleanup( final CloseableHttpClient client, final HttpUriRequest request,
+                         final CloseableHttpResponse response )
+    {
+        delegate.cleanup( client, request, response );
+    }
+
+    @Override
+    public void close()
+        throws IOException
+    {
+        delegate.close();
+    }
+
+}
@@ -0,0 +1,243 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep;
+
+import static org.apache.commons.lang.StringUtils.join;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.execution.MavenSession;
+import org.commonjava.maven.plugins.betterdep.impl.DaemonClient;
+import org.commonjava.maven.plugins.betterdep.impl.SyntheticRepository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Starts the daemon goal on a free port, and checks that what it renders for each
+ * client goal is byte-for-byte what that goal writes when it runs in-process with the
+ * same options.
+ */
+public class DaemonGoalTest
+{
+
+    private static final int NODES = 30;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private MojoFixture fixture;
+
+    private File localRepo;
+
+    private File repo;
+
+    private List<String> roots;
+
+    private String port;
+
+    private Thread daemonThread;
+
+    private final Throwable[] daemonError = new Throwable[1];
+
+    @Before
+    public void startDaemon()
+        throws Exception
+    {
+        fixture = new MojoFixture( new File( System.getProperty( "basedir", "." ) ).getAbsoluteFile() );
+
+        repo = temp.newFolder( "repo" );
+        final SyntheticRepository generator = new SyntheticRepository( 1 );
+        generator.setNodes( NODES );
+        roots = generator.write( repo );
+
+        localRepo = temp.newFolder( "local-repo" );
+
+        final Map<String, String> properties = properties();
+        properties.put( "betterdep.daemonPort", "0" );
+        final DaemonGoal daemon = fixture.newGoal( "daemon", session(), properties );
+
+        daemonThread = new Thread( () -> {
+            try
+            {
+                daemon.execute();
+            }
+            catch ( final Throwable e )
+            {
+                daemonError[0] = e;
+            }
+        }, "betterdep-test-daemon" );
+        daemonThread.start();
+
+        final int bound = daemon.awaitPort( TimeUnit.MINUTES.toMillis( 1 ) );
+        if ( bound < 0 )
+        {
+            fail( "Daemon didn't start: " + daemonError[0] );
+        }
+
+        port = Integer.toString( bound );
+    }
+
+    @After
+    public void stopDaemon()
+        throws Exception
+    {
+        if ( port != null )
+        {
+            final HttpURLConnection conn =
+                (HttpURLConnection) new URL( "http://127.0.0.1:" + port + DaemonClient.SHUTDOWN_PATH ).openConnection();
+            conn.getResponseCode();
+            conn.disconnect();
+        }
+
+        daemonThread.join( TimeUnit.SECONDS.toMillis( 30 ) );
+    }
+
+    @Test
+    public void daemonRendersWhatTheGoalsRenderInProcess()
+        throws Exception
+    {
+        final Map<String, String> tree = properties();
+        tree.put( "collapseTransitives", "false" );
+        assertSameOutput( "tree", "tree.txt", tree );
+
+        final Map<String, String> list = properties();
+        list.put( "scope", "test" );
+        assertSameOutput( "list", "list.txt", list );
+
+        final Map<String, String> paths = properties();
+        paths.put( "to", SyntheticRepository.DEFAULT_GROUP_ID + ":node-" + ( NODES - 1 ) );
+        assertSameOutput( "paths", "paths.txt", paths );
+
+        final Map<String, String> downlog = properties();
+        downlog.put( "usePrefix", "true" );
+        downlog.put( "metas", "sha1" );
+        downlog.put( "extras", "sources:jar" );
+        final byte[] gzipped = assertSameOutput( "downlog", "downlog.gz", downlog );
+
+        // the name asks for gzip, so the daemon has to compress it too; the content was compared above.
+        assertTrue( "Download log from the daemon isn't gzipped", gzipped.length > 2 && ( gzipped[0] & 0xff ) == 0x1f
+            && ( gzipped[1] & 0xff ) == 0x8b );
+    }
+
+    @Test
+    public void daemonDeclinesOtherRepositories()
+        throws Exception
+    {
+        final Map<String, String> properties = properties();
+        final File other = temp.newFolder( "other-repo" );
+        properties.put( "in", other.toURI()
+                                   .toString() );
+
+        final AbstractDepgraphGoal goal = fixture.newGoal( "list", session(), properties );
+        try
+        {
+            DaemonClient.render( port, goal.daemonParams( "list", null ), new ByteArrayOutputStream() );
+            fail( "Daemon rendered a request for repositories it doesn't use" );
+        }
+        catch ( final DaemonClient.DeclinedException e )
+        {
+            assertTrue( e.getMessage(), e.getMessage()
+                                         .contains( other.toURI()
+                                                         .toString() ) );
+        }
+    }
+
+    /**
+     * Run the goal in-process, then ask the daemon for the same thing, and compare.
+     *
+     * @return what the daemon sent
+     */
+    private byte[] assertSameOutput( final String goalName, final String fileName,
+                                     final Map<String, String> properties )
+        throws Exception
+    {
+        final File out = new File( temp.getRoot(), "out/" + fileName );
+        properties.put( "output", out.getPath() );
+
+        final AbstractDepgraphGoal goal = fixture.newGoal( goalName, session(), properties );
+        final Map<String, String> params = goal.daemonParams( goalName, out );
+        goal.execute();
+
+        final ByteArrayOutputStream rendered = new ByteArrayOutputStream();
+        DaemonClient.render( port, params, rendered );
+
+        final byte[] local = FileUtils.readFileToByteArray( out );
+        final byte[] remote = rendered.toByteArray();
+        if ( fileName.endsWith( ".gz" ) )
+        {
+            assertArrayEquals( goalName + " output differs", gunzip( new FileInputStream( out ) ),
+                               gunzip( new ByteArrayInputStream( remote ) ) );
+        }
+        else
+        {
+            assertThat( goalName + " output differs", new String( remote, "UTF-8" ),
+                        equalTo( new String( local, "UTF-8" ) ) );
+        }
+
+        return remote;
+    }
+
+    private Map<String, String> properties()
+    {
+        final Map<String, String> properties = new HashMap<String, String>();
+        properties.put( "in", repo.toURI()
+                                  .toString() );
+        properties.put( "from", join( roots.subList( 0, 2 ), "," ) );
+        properties.put( "betterdep.resolverDir", new File( temp.getRoot(), "resolved" ).getPath() );
+        properties.put( "betterdep.dbDir", new File( temp.getRoot(), "db" ).getPath() );
+
+        return properties;
+    }
+
+    private MavenSession session()
+        throws Exception
+    {
+        return fixture.newSession( localRepo, false );
+    }
+
+    private static byte[] gunzip( final InputStream in )
+        throws Exception
+    {
+        InputStream stream = null;
+        try
+        {
+            stream = new GZIPInputStream( in );
+            return IOUtils.toByteArray( stream );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( stream );
+            IOUtils.closeQuietly( in );
+        }
+    }
+
+}
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep;
+
+import static org.apache.commons.lang.StringUtils.join;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.Mojo;
+import org.commonjava.maven.plugins.betterdep.impl.SyntheticRepository;
+import org.junit.Test;
+
+/**
+ * Runs the tree, list, paths, diff, downlog and repozip goals against a generated
+ * repository, and fails if any of them takes longer, allocates more or needs a bigger
+ * heap than its budget in perf-budgets.properties. Only runs with -Dbetterdep.perf=true
+ * (the 'perf' profile sets it); -Dbetterdep.perf.nodes changes the graph size.
+ *
+ * The goals run in that order in one JVM and share the cartographer instance, as they
+ * would in one build, so the later ones start with a warm graph database. Each gets
+ * its own session, so none of them reuses another's resolved graph directly.
+ * Measurements are written to target/perf/results.properties for updating the budgets.
+ */
+public class GoalPerformanceTest
+{
+
+    private static final String[] GOALS = { "tree", "list", "paths", "diff", "downlog", "repozip" };
+
+    private static final String[] MEASURES = { "millis", "allocatedMb", "peakHeapMb" };
+
+    @Test
+    public void goalsStayWithinBudget()
+        throws Exception
+    {
+        assumeTrue( Boolean.getBoolean( "betterdep.perf" ) );
+
+        final File basedir = new File( System.getProperty( "basedir", "." ) ).getAbsoluteFile();
+        final File work = new File( basedir, "target/perf" );
+        for ( final String dir : new String[] { "resolved", "db", "local-repo", "out" } )
+        {
+            FileUtils.deleteDirectory( new File( work, dir ) );
+        }
+
+        final int nodes = Integer.getInteger( "betterdep.perf.nodes", 2000 );
+        final SyntheticRepository generator = new SyntheticRepository( 1 );
+        generator.setNodes( nodes );
+
+        final File repo = new File( work, "repo" );
+        final List<String> roots = generator.write( repo );
+
+        final File localRepo = new File( work, "local-repo" );
+        localRepo.mkdirs();
+
+        final Properties budgets = loadBudgets();
+        final Properties results = new Properties();
+        final List<String> regressions = new ArrayList<String>();
+
+        final MojoFixture fixture = new MojoFixture( basedir );
+        for ( final String goal : GOALS )
+        {
+            final Map<String, String> properties = new HashMap<String, String>();
+            properties.put( "in", repo.toURI()
+                                      .toString() );
+            properties.put( "from", join( roots.subList( 0, 3 ), "," ) );
+            properties.put( "output", new File( work, "out/" + goal + ( "repozip".equals( goal ) ? ".zip" : ".txt" ) )
+                .getPath() );
+            properties.put( "betterdep.resolverDir", new File( work, "resolved" ).getPath() );
+            properties.put( "betterdep.dbDir", new File( work, "db" ).getPath() );
+            properties.put( "betterdep.reuseGraph", "false" );
+
+            if ( "paths".equals( goal ) )
+            {
+                properties.put( "to", SyntheticRepository.DEFAULT_GROUP_ID + ":node-" + ( nodes - 1 ) + ","
+                    + SyntheticRepository.DEFAULT_GROUP_ID + ":node-" + ( nodes - 2 ) );
+            }
+            else if ( "diff".equals( goal ) )
+            {
+                properties.put( "to", join( roots.subList( 3, 6 ), "," ) );
+            }
+
+            final Mojo mojo = fixture.newGoal( goal, fixture.newSession( localRepo, false ), properties );
+
+            final HeapMeter meter = new HeapMeter();
+            meter.start();
+            try
+            {
+                mojo.execute();
+            }
+            finally
+            {
+                meter.stop();
+            }
+
+            final long[] measured = { meter.getMillis(), meter.getAllocatedMb(), meter.getPeakHeapMb() };
+            for ( int i = 0; i < MEASURES.length; i++ )
+            {
+                final String key = goal + "." + MEASURES[i];
+                results.setProperty( key, Long.toString( measured[i] ) );
+
+                final String budget = budgets.getProperty( key );
+                if ( budget != null && measured[i] > Long.parseLong( budget.trim() ) )
+                {
+                    regressions.add( key + ": " + measured[i] + " (budget: " + budget.trim() + ")" );
+                }
+            }
+        }
+
+        OutputStream out = null;
+        try
+        {
+            out = new FileOutputStream( new File( work, "results.properties" ) );
+            results.store( out, "betterdep goal measurements, " + nodes + " synthetic projects" );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( out );
+        }
+
+        assertTrue( "Performance budgets exceeded (all measurements are in " + work
+            + "/results.properties):\n\n  " + join( regressions, "\n  " ) + "\n", regressions.isEmpty() );
+    }
+
+    private Properties loadBudgets()
+        throws Exception
+    {
+        final Properties budgets = new Properties();
+        final InputStream in = getClass().getClassLoader()
+                                         .getResourceAsStream( "perf-budgets.properties" );
+        try
+        {
+            budgets.load( in );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( in );
+        }
+
+        return budgets;
+    }
+
+}
@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.Map;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * Measures the wall time, heap allocation and peak heap of a block of work, across
+ * all the threads it uses. Allocation is what the garbage collections during the
+ * measurement freed plus how much the heap grew, so it's exact to within objects
+ * that were already garbage when the measurement started. Peak heap is the highest
+ * heap occupancy seen before a collection, or at the end.
+ */
+public final class HeapMeter
+    implements NotificationListener
+{
+
+    private static final long MB = 1024 * 1024;
+
+    private long startNanos;
+
+    private long startUsed;
+
+    private long collected;
+
+    private long peak;
+
+    private long millis;
+
+    private long allocated;
+
+    public synchronized void start()
+    {
+        collected = 0;
+        peak = 0;
+        for ( final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans() )
+        {
+            ( (NotificationEmitter) gc ).addNotificationListener( this, null, null );
+        }
+
+        startUsed = heapUsed();
+        startNanos = System.nanoTime();
+    }
+
+    public synchronized void stop()
+    {
+        millis = ( System.nanoTime() - startNanos ) / 1000000;
+        for ( final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans() )
+        {
+            try
+            {
+                ( (NotificationEmitter) gc ).removeNotificationListener( this );
+            }
+            catch ( final Exception e )
+            {
+                // not registered; nothing to remove.
+            }
+        }
+
+        final long used = heapUsed();
+        allocated = collected + used - startUsed;
+        peak = Math.max( peak, used );
+    }
+
+    @Override
+    public synchronized void handleNotification( final Notification notification, final Object handback )
+    {
+        if ( !GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals( notification.getType() ) )
+        {
+            return;
+        }
+
+        final GarbageCollectionNotificationInfo info =
+            GarbageCollectionNotificationInfo.from( (CompositeData) notification.getUserData() );
+
+        final Map<String, MemoryUsage> before = info.getGcInfo()
+                                                    .getMemoryUsageBeforeGc();
+        final Map<String, MemoryUsage> after = info.getGcInfo()
+                                                   .getMemoryUsageAfterGc();
+
+        long usedBefore = 0;
+        long usedAfter = 0;
+        for ( final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() )
+        {
+            if ( pool.getType() == MemoryType.HEAP && before.containsKey( pool.getName() ) )
+            {
+                usedBefore += before.get( pool.getName() )
+                                    .getUsed();
+                usedAfter += after.get( pool.getName() )
+                                  .getUsed();
+            }
+        }
+
+        collected += Math.max( 0, usedBefore - usedAfter );
+        peak = Math.max( peak, usedBefore );
+    }
+
+    public long getMillis()
+    {
+        return millis;
+    }
+
+    public long getAllocatedMb()
+    {
+        return allocated / MB;
+    }
+
+    public long getPeakHeapMb()
+    {
+        return peak / MB;
+    }
+
+    private static long heapUsed()
+    {
+        return ManagementFactory.getMemoryMXBean()
+                                .getHeapMemoryUsage()
+                                .getUsed();
+    }
+
+}
@@ -0,0 +1,237 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.net.MalformedURLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.repository.ArtifactRepositoryPolicy;
+import org.apache.maven.artifact.repository.MavenArtifactRepository;
+import org.apache.maven.artifact.repository.layout.DefaultRepositoryLayout;
+import org.apache.maven.execution.DefaultMavenExecutionRequest;
+import org.apache.maven.execution.DefaultMavenExecutionResult;
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.Mojo;
+import org.apache.maven.project.MavenProject;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Creates goals configured the way Maven would configure them, so tests can run them
+ * in-process: parameters get the default values from the generated plugin descriptor,
+ * overridden by the given -D style properties, and ${session} is a session with no
+ * reactor projects, no remote repositories and the given local repository.
+ */
+public final class MojoFixture
+{
+
+    private static final String DESCRIPTOR = "target/classes/META-INF/maven/plugin.xml";
+
+    private final File basedir;
+
+    private final File descriptor;
+
+    private final Map<String, Element> mojos = new HashMap<String, Element>();
+
+    public MojoFixture( final File basedir )
+        throws Exception
+    {
+        this.basedir = basedir;
+        this.descriptor = new File( basedir, DESCRIPTOR );
+
+        final Document doc = DocumentBuilderFactory.newInstance()
+                                                   .newDocumentBuilder()
+                                                   .parse( descriptor );
+        final NodeList list = doc.getElementsByTagName( "mojo" );
+        for ( int i = 0; i < list.getLength(); i++ )
+        {
+            final Element mojo = (Element) list.item( i );
+            mojos.put( text( mojo, "goal" ), mojo );
+        }
+    }
+
+    /**
+     * A session like the one for a build outside any project, with the given local repository.
+     */
+    public MavenSession newSession( final File localRepo, final boolean updateSnapshots )
+        throws MalformedURLException
+    {
+        final MavenExecutionRequest request = new DefaultMavenExecutionRequest();
+        request.setLocalRepository( newRepository( "local", localRepo ) );
+        request.setRemoteRepositories( Collections.<ArtifactRepository> emptyList() );
+        request.setUpdateSnapshots( updateSnapshots );
+        request.setBaseDirectory( basedir );
+
+        return new MavenSession( null, request, new DefaultMavenExecutionResult(),
+                                 Collections.<MavenProject> emptyList() );
+    }
+
+    /**
+     * The goal with the given name, configured from its defaults and the given
+     * properties (keyed by the property name a user would pass with -D).
+     */
+    @SuppressWarnings( "unchecked" )
+    public <T extends Mojo> T newGoal( final String goal, final MavenSession session,
+                                       final Map<String, String> properties )
+        throws Exception
+    {
+        final Element mojo = mojos.get( goal );
+        if ( mojo == null )
+        {
+            throw new IllegalArgumentException( "No such goal in " + descriptor + ": " + goal );
+        }
+
+        final T instance = (T) Class.forName( text( mojo, "implementation" ) )
+                                    .getConstructor()
+                                    .newInstance();
+
+        final NodeList config = ( (Element) mojo.getElementsByTagName( "configuration" )
+                                                .item( 0 ) ).getChildNodes();
+        for ( int i = 0; i < config.getLength(); i++ )
+        {
+            final Node node = config.item( i );
+            if ( node.getNodeType() != Node.ELEMENT_NODE )
+            {
+                continue;
+            }
+
+            final Element param = (Element) node;
+            final String expression = param.getTextContent()
+                                           .trim();
+            final String defaultValue = param.getAttribute( "default-value" );
+
+            Object value = null;
+            if ( "${session}".equals( defaultValue ) )
+            {
+                value = session;
+            }
+            else if ( "${reactorProjects}".equals( defaultValue ) )
+            {
+                value = session.getProjects();
+            }
+            else
+            {
+                String raw = null;
+                if ( expression.startsWith( "${" ) && expression.endsWith( "}" ) )
+                {
+                    raw = properties.get( expression.substring( 2, expression.length() - 1 ) );
+                }
+
+                if ( raw == null && defaultValue.length() > 0 && !defaultValue.startsWith( "${" ) )
+                {
+                    raw = defaultValue;
+                }
+
+                if ( raw != null )
+                {
+                    value = convert( findField( instance.getClass(), param.getTagName() ).getType(), raw );
+                }
+            }
+
+            if ( value != null )
+            {
+                final Field field = findField( instance.getClass(), param.getTagName() );
+                field.setAccessible( true );
+                field.set( instance, value );
+            }
+        }
+
+        return instance;
+    }
+
+    private Object convert( final Class<?> type, final String raw )
+    {
+        if ( type == String.class )
+        {
+            return raw;
+        }
+        else if ( type == File.class )
+        {
+            final File file = new File( raw );
+            return file.isAbsolute() ? file : new File( basedir, raw );
+        }
+        else if ( type == boolean.class || type == Boolean.class )
+        {
+            return Boolean.valueOf( raw );
+        }
+        else if ( type == int.class || type == Integer.class )
+        {
+            return Integer.valueOf( raw );
+        }
+        else if ( type == long.class || type == Long.class )
+        {
+            return Long.valueOf( raw );
+        }
+        else if ( type == double.class || type == Double.class )
+        {
+            return Double.valueOf( raw );
+        }
+        else if ( type.isEnum() )
+        {
+            return enumValue( type, raw );
+        }
+
+        throw new IllegalArgumentException( "Unsupported parameter type: " + type.getName() );
+    }
+
+    @SuppressWarnings( { "unchecked", "rawtypes" } )
+    private static Object enumValue( final Class<?> type, final String raw )
+    {
+        return Enum.valueOf( (Class<? extends Enum>) type, raw );
+    }
+
+    private static ArtifactRepository newRepository( final String id, final File dir )
+        throws MalformedURLException
+    {
+        return new MavenArtifactRepository( id, dir.toURI()
+                                                   .toURL()
+                                                   .toExternalForm(), new DefaultRepositoryLayout(),
+                                            new ArtifactRepositoryPolicy(), new ArtifactRepositoryPolicy() );
+    }
+
+    private static Field findField( final Class<?> type, final String name )
+        throws NoSuchFieldException
+    {
+        Class<?> current = type;
+        while ( current != null )
+        {
+            try
+            {
+                return current.getDeclaredField( name );
+            }
+            catch ( final NoSuchFieldException e )
+            {
+                current = current.getSuperclass();
+            }
+        }
+
+        throw new NoSuchFieldException( type.getName() + "." + name );
+    }
+
+    private static String text( final Element parent, final String child )
+    {
+        return parent.getElementsByTagName( child )
+                     .item( 0 )
+                     .getTextContent()
+                     .trim();
+    }
+
+}
@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class DaemonClientTest
+{
+
+    private HttpServer server;
+
+    @After
+    public void stop()
+    {
+        if ( server != null )
+        {
+            server.stop( 0 );
+        }
+    }
+
+    @Test
+    public void queryRoundTripsAwkwardValues()
+        throws Exception
+    {
+        final Map<String, String> params = new LinkedHashMap<String, String>();
+        params.put( "goal", "tree" );
+        params.put( "from", "org.foo:bar:1.0, org.foo:baz:[1.0,2.0)" );
+        params.put( "in", "http://repo.example.com/a?b=c&d=e%20f,file:///tmp/my repo" );
+        params.put( "extras", "*:*" );
+        params.put( "preset", "na\u00efve+plus" );
+        params.put( "empty", "" );
+
+        assertThat( DaemonClient.parseQuery( DaemonClient.toQuery( params ) ), equalTo( params ) );
+    }
+
+    @Test
+    public void nullValuesAreNotSent()
+        throws Exception
+    {
+        final Map<String, String> params = new LinkedHashMap<String, String>();
+        params.put( "goal", "list" );
+        params.put( "metas", null );
+        params.put( "in", null );
+
+        assertThat( DaemonClient.toQuery( params ), equalTo( "goal=list" ) );
+        assertThat( DaemonClient.parseQuery( DaemonClient.toQuery( params ) ),
+                    equalTo( Collections.singletonMap( "goal", "list" ) ) );
+    }
+
+    @Test
+    public void parsesKeysWithoutValues()
+        throws Exception
+    {
+        final Map<String, String> params = DaemonClient.parseQuery( "gzip&to=a%3Ab" );
+
+        assertThat( params.get( "gzip" ), equalTo( "" ) );
+        assertThat( params.get( "to" ), equalTo( "a:b" ) );
+        assertTrue( DaemonClient.parseQuery( null )
+                                .isEmpty() );
+        assertTrue( DaemonClient.parseQuery( "" )
+                                .isEmpty() );
+    }
+
+    @Test
+    public void rendersWhatTheDaemonSends()
+        throws Exception
+    {
+        final AtomicReference<String> query = new AtomicReference<String>();
+        final String port = serve( 200, "rendered\n", query );
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DaemonClient.render( port, Collections.singletonMap( "goal", "tree" ), out );
+
+        assertThat( new String( out.toByteArray(), StandardCharsets.UTF_8 ), equalTo( "rendered\n" ) );
+        assertThat( query.get(), equalTo( "goal=tree" ) );
+    }
+
+    @Test
+    public void declinedRequestsAreToldApartFromFailures()
+        throws Exception
+    {
+        final String declined = serve( DaemonClient.DECLINED, "wrong repositories", null );
+        try
+        {
+            DaemonClient.render( declined, Collections.singletonMap( "goal", "tree" ), new ByteArrayOutputStream() );
+            fail( "Declined request wasn't reported" );
+        }
+        catch ( final DaemonClient.DeclinedException e )
+        {
+            assertTrue( e.getMessage(), e.getMessage()
+                                         .contains( "wrong repositories" ) );
+        }
+
+        server.stop( 0 );
+
+        final String failing = serve( 500, "boom", null );
+        try
+        {
+            DaemonClient.render( failing, Collections.singletonMap( "goal", "tree" ), new ByteArrayOutputStream() );
+            fail( "Failed request wasn't reported" );
+        }
+        catch ( final IOException e )
+        {
+            assertFalse( e instanceof DaemonClient.DeclinedException );
+            assertTrue( e.getMessage(), e.getMessage()
+                                         .contains( "boom" ) );
+        }
+    }
+
+    private String serve( final int status, final String body, final AtomicReference<String> query )
+        throws IOException
+    {
+        server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), 0 ), 0 );
+        server.createContext( DaemonClient.RENDER_PATH, exchange -> {
+            if ( query != null )
+            {
+                query.set( exchange.getRequestURI()
+                                   .getRawQuery() );
+            }
+
+            final byte[] bytes = body.getBytes( StandardCharsets.UTF_8 );
+            exchange.sendResponseHeaders( status, bytes.length );
+
+            final OutputStream stream = exchange.getResponseBody();
+            stream.write( bytes );
+            stream.close();
+        } );
+        server.start();
+
+        return Integer.toString( server.getAddress()
+                                       .getPort() );
+    }
+
+}
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.SimpleLocation;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FlightEventsTest
+{
+
+    private static final String EXPANSION = "org.commonjava.betterdep.LocationExpansion";
+
+    private static final String POM = "org/foo/bar/1.0/bar-1.0.pom";
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void nothingIsCreatedWithoutARecording()
+        throws Exception
+    {
+        final Object event = FlightEvents.beginLocationExpansion();
+        assertNull( event );
+        assertFalse( FlightEvents.shouldCommit( event ) );
+
+        // a null handle is ignored.
+        FlightEvents.commitLocationExpansion( event, "location", POM, 1 );
+    }
+
+    @Test
+    public void expansionsAreRecordedWhenEnabled()
+        throws Exception
+    {
+        assumeTrue( isJfrAvailable() );
+
+        final MavenLocationExpander expander =
+            new MavenLocationExpander( null, Collections.<ArtifactRepository> emptyList(), null );
+
+        final File dump = new File( temp.getRoot(), "events.jfr" );
+        final Recording recording = new Recording();
+        try
+        {
+            recording.enable( EXPANSION )
+                     .withoutThreshold();
+            recording.start();
+
+            expander.expand( new ConcreteResource( new SimpleLocation( MavenLocationExpander.EXPANSION_TARGET ),
+                                                   POM ) );
+
+            recording.stop();
+            recording.dump( dump.toPath() );
+        }
+        finally
+        {
+            recording.close();
+        }
+
+        final List<String> paths = new ArrayList<String>();
+        for ( final RecordedEvent event : RecordingFile.readAllEvents( dump.toPath() ) )
+        {
+            if ( EXPANSION.equals( event.getEventType()
+                                        .getName() ) )
+            {
+                paths.add( event.getString( "path" ) );
+            }
+        }
+
+        assertThat( paths, equalTo( Collections.singletonList( POM ) ) );
+
+        // and it's back to nothing once the recording is over.
+        assertNull( FlightEvents.beginLocationExpansion() );
+    }
+
+    private static boolean isJfrAvailable()
+    {
+        try
+        {
+            Class.forName( "jdk.jfr.Recording" );
+            return true;
+        }
+        catch ( final ClassNotFoundException e )
+        {
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,326 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.commonjava.maven.galley.TransferException;
+import org.commonjava.maven.galley.model.Location;
+import org.commonjava.maven.galley.model.SimpleLocation;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LocationHealthTest
+{
+
+    private static final String FIRST = "http://first.example.com/repo/";
+
+    private static final String SECOND = "http://second.example.com/repo/";
+
+    private static final String THIRD = "http://third.example.com/repo/";
+
+    private static final String LOCAL = "file:///home/me/.m2/repository/";
+
+    private LocationHealth health;
+
+    private List<Location> locations;
+
+    @Before
+    public void setup()
+    {
+        health = new LocationHealth();
+        health.setBreakerFailures( 3 );
+        health.setBreakerMillis( TimeUnit.MINUTES.toMillis( 1 ) );
+
+        locations = locations( FIRST, SECOND, THIRD );
+    }
+
+    @Test
+    public void unknownLocationsKeepTheirOrder()
+    {
+        assertFalse( health.isOpen( FIRST ) );
+        assertThat( health.order( locations ), sameInstance( locations ) );
+
+        succeed( FIRST, 10, 10 );
+        succeed( SECOND, 10, 10 );
+        assertThat( health.order( locations ), sameInstance( locations ) );
+    }
+
+    @Test
+    public void circuitOpensAfterConsecutiveFailures()
+    {
+        fail( FIRST, 2 );
+        assertFalse( health.isOpen( FIRST ) );
+
+        // a success in between starts the count again.
+        succeed( FIRST, 1, 10 );
+        fail( FIRST, 2 );
+        assertFalse( health.isOpen( FIRST ) );
+
+        fail( FIRST, 1 );
+        assertTrue( health.isOpen( FIRST ) );
+        assertTrue( health.isOpen( FIRST ) );
+        assertFalse( health.isOpen( SECOND ) );
+
+        assertThat( uris( health.order( locations ) ), equalTo( Arrays.asList( SECOND, THIRD, FIRST ) ) );
+
+        final Metrics metrics = new Metrics();
+        health.report( metrics );
+        assertThat( metrics.get( "location_circuit_opens{location=\"" + FIRST + "\"}" ), equalTo( 1L ) );
+        assertThat( metrics.get( "location_rejected{location=\"" + FIRST + "\"}" ), equalTo( 2L ) );
+        assertThat( metrics.get( "location_errors{location=\"" + FIRST + "\"}" ), equalTo( 5L ) );
+    }
+
+    @Test
+    public void brokenComesAfterDegraded()
+    {
+        fail( FIRST, 3 );
+        fail( SECOND, 2 );
+
+        assertTrue( health.isOpen( FIRST ) );
+        assertFalse( health.isOpen( SECOND ) );
+        assertThat( uris( health.order( locations ) ), equalTo( Arrays.asList( THIRD, SECOND, FIRST ) ) );
+    }
+
+    @Test
+    public void zeroFailuresNeverOpens()
+    {
+        health.setBreakerFailures( 0 );
+        fail( FIRST, 20 );
+
+        assertFalse( health.isOpen( FIRST ) );
+        // but it's still moved back as failing.
+        assertThat( uris( health.order( locations ) ), equalTo( Arrays.asList( SECOND, THIRD, FIRST ) ) );
+    }
+
+    @Test
+    public void probeIsLetThroughAfterTheCoolDown()
+        throws Exception
+    {
+        health.setBreakerMillis( 50 );
+        fail( FIRST, 3 );
+        assertTrue( health.isOpen( FIRST ) );
+
+        Thread.sleep( 100 );
+
+        // half-open: the next request goes through...
+        assertFalse( health.isOpen( FIRST ) );
+
+        // ...and a failed probe opens the circuit again straight away.
+        fail( FIRST, 1 );
+        assertTrue( health.isOpen( FIRST ) );
+
+        Thread.sleep( 100 );
+
+        // a successful probe closes it.
+        assertFalse( health.isOpen( FIRST ) );
+        succeed( FIRST, 1, 10 );
+        fail( FIRST, 1 );
+        assertFalse( health.isOpen( FIRST ) );
+    }
+
+    @Test
+    public void halfOpenCircuitLetsOneProbeThroughAtATime()
+        throws Exception
+    {
+        health.setBreakerMillis( 50 );
+        fail( FIRST, 3 );
+
+        Thread.sleep( 100 );
+
+        assertFalse( health.isOpen( FIRST ) );
+
+        // the rest wait for the probe rather than all hitting a location that may still be down.
+        assertTrue( health.isOpen( FIRST ) );
+        assertTrue( health.isOpen( FIRST ) );
+
+        // a probe that never reports back only holds the others off for one more cool-down.
+        Thread.sleep( 100 );
+        assertFalse( health.isOpen( FIRST ) );
+        assertTrue( health.isOpen( FIRST ) );
+
+        succeed( FIRST, 1, 10 );
+        assertFalse( health.isOpen( FIRST ) );
+        assertFalse( health.isOpen( FIRST ) );
+
+        final Metrics metrics = new Metrics();
+        health.report( metrics );
+        assertThat( metrics.get( "location_rejected{location=\"" + FIRST + "\"}" ), equalTo( 3L ) );
+    }
+
+    @Test
+    public void concurrentRecordsAllCount()
+        throws Exception
+    {
+        final int threads = 8;
+        final int samples = 2000;
+        final ExecutorService executor = Executors.newFixedThreadPool( threads );
+        try
+        {
+            final List<Future<?>> done = new ArrayList<Future<?>>();
+            for ( int t = 0; t < threads; t++ )
+            {
+                final String uri = t % 2 == 0 ? FIRST : SECOND;
+                final long millis = t % 2 == 0 ? 1000 : 10;
+                done.add( executor.submit( () -> succeed( uri, samples, millis ) ) );
+            }
+
+            for ( final Future<?> future : done )
+            {
+                future.get();
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        final Metrics metrics = new Metrics();
+        health.report( metrics );
+        assertThat( metrics.get( "location_requests{location=\"" + FIRST + "\"}" ), equalTo( 4L * samples ) );
+
+        // the last refresh saw every sample, whichever thread ran it.
+        assertThat( uris( health.order( locations ) ), equalTo( Arrays.asList( SECOND, THIRD, FIRST ) ) );
+    }
+
+    @Test
+    public void closingCircuitMovesTheEpoch()
+        throws Exception
+    {
+        health.setBreakerMillis( 50 );
+        fail( FIRST, 3 );
+
+        final long open = health.getEpoch();
+        assertThat( health.getEpoch(), equalTo( open ) );
+
+        Thread.sleep( 100 );
+
+        // no new samples, but the state changed from broken to failing.
+        assertThat( health.getEpoch(), not( equalTo( open ) ) );
+        assertThat( uris( health.order( locations ) ), equalTo( Arrays.asList( SECOND, THIRD, FIRST ) ) );
+    }
+
+    @Test
+    public void slowLocationIsMovedBack()
+    {
+        succeed( FIRST, 5, 1000 );
+        succeed( SECOND, 5, 10 );
+
+        assertThat( uris( health.order( locations ) ), equalTo( Arrays.asList( SECOND, THIRD, FIRST ) ) );
+    }
+
+    @Test
+    public void slownessNeedsBothTheFactorAndTheMillis()
+    {
+        // 20 times slower, but under SLOW_MILLIS.
+        succeed( FIRST, 5, 200 );
+        succeed( SECOND, 5, 10 );
+        assertThat( health.order( locations ), sameInstance( locations ) );
+
+        // over SLOW_MILLIS, but under SLOW_FACTOR times the fastest.
+        final LocationHealth close = new LocationHealth();
+        succeed( close, FIRST, 5, 1000 );
+        succeed( close, SECOND, 5, 300 );
+        assertThat( close.order( locations ), sameInstance( locations ) );
+    }
+
+    @Test
+    public void latencyNeedsEnoughSamples()
+    {
+        succeed( FIRST, 4, 1000 );
+        succeed( SECOND, 5, 10 );
+        assertThat( health.order( locations ), sameInstance( locations ) );
+
+        succeed( FIRST, 1, 1000 );
+        assertThat( uris( health.order( locations ) ), equalTo( Arrays.asList( SECOND, THIRD, FIRST ) ) );
+    }
+
+    @Test
+    public void notFoundCountsAsSuccess()
+    {
+        // MonitoredTransport reports a not-found as a request without an error.
+        for ( int i = 0; i < 10; i++ )
+        {
+            health.record( FIRST, TimeUnit.MILLISECONDS.toNanos( 10 ), null );
+        }
+
+        assertFalse( health.isOpen( FIRST ) );
+        assertThat( health.order( locations ), sameInstance( locations ) );
+    }
+
+    @Test
+    public void localLocationsAreNotTracked()
+    {
+        fail( LOCAL, 10 );
+
+        assertFalse( health.isOpen( LOCAL ) );
+
+        final List<Location> local = locations( LOCAL, FIRST );
+        assertThat( health.order( local ), sameInstance( local ) );
+    }
+
+    private void succeed( final String uri, final int count, final long millis )
+    {
+        succeed( health, uri, count, millis );
+    }
+
+    private static void succeed( final LocationHealth health, final String uri, final int count, final long millis )
+    {
+        for ( int i = 0; i < count; i++ )
+        {
+            health.record( uri, TimeUnit.MILLISECONDS.toNanos( millis ), null );
+        }
+    }
+
+    private void fail( final String uri, final int count )
+    {
+        for ( int i = 0; i < count; i++ )
+        {
+            health.record( uri, TimeUnit.MILLISECONDS.toNanos( 10 ), new TransferException( "boom" ) );
+        }
+    }
+
+    private static List<Location> locations( final String... uris )
+    {
+        final List<Location> locations = new ArrayList<Location>();
+        for ( final String uri : uris )
+        {
+            locations.add( new SimpleLocation( uri ) );
+        }
+
+        return locations;
+    }
+
+    private static List<String> uris( final List<Location> locations )
+    {
+        final List<String> uris = new ArrayList<String>();
+        for ( final Location location : locations )
+        {
+            uris.add( location.getUri() );
+        }
+
+        return uris;
+    }
+
+}
@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class LruMapTest
+{
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvicted()
+    {
+        final List<String> evicted = new ArrayList<String>();
+        final LruMap<String, Integer> map = map( 2, evicted );
+        map.put( "a", 1 );
+        map.put( "b", 2 );
+
+        // using "a" leaves "b" as the least recently used.
+        map.get( "a" );
+        map.put( "c", 3 );
+
+        assertThat( new ArrayList<String>( map.keySet() ), equalTo( Arrays.asList( "a", "c" ) ) );
+        assertThat( evicted, equalTo( Arrays.asList( "b=2" ) ) );
+    }
+
+    @Test
+    public void loweringTheLimitEvictsTheExtraEntries()
+    {
+        final List<String> evicted = new ArrayList<String>();
+        final LruMap<String, Integer> map = map( 10, evicted );
+        for ( final String key : Arrays.asList( "a", "b", "c", "d" ) )
+        {
+            map.put( key, key.charAt( 0 ) - 'a' );
+        }
+
+        map.setMaxSize( 1 );
+
+        assertThat( new ArrayList<String>( map.keySet() ), equalTo( Arrays.asList( "d" ) ) );
+        assertThat( evicted, equalTo( Arrays.asList( "a=0", "b=1", "c=2" ) ) );
+
+        map.put( "e", 4 );
+        assertThat( new ArrayList<String>( map.keySet() ), equalTo( Arrays.asList( "e" ) ) );
+    }
+
+    private static LruMap<String, Integer> map( final int maxSize, final List<String> evicted )
+    {
+        return new LruMap<String, Integer>( maxSize )
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void evicted( final String key, final Integer value )
+            {
+                evicted.add( key + "=" + value );
+            }
+        };
+    }
+
+}
@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.repository.ArtifactRepositoryPolicy;
+import org.apache.maven.artifact.repository.MavenArtifactRepository;
+import org.apache.maven.artifact.repository.layout.DefaultRepositoryLayout;
+import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.SimpleLocation;
+import org.commonjava.maven.galley.model.VirtualResource;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MavenLocationExpanderTest
+{
+
+    private static final String FIRST = "http://first.example.com/repo/";
+
+    private static final String SECOND = "http://second.example.com/repo/";
+
+    private static final String FOO_POM = "org/foo/core/foo/1.0/foo-1.0.pom";
+
+    private static final String BAR_POM = "org/bar/core/bar/1.0/bar-1.0.pom";
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private MavenLocationExpander expander;
+
+    @Before
+    public void setup()
+        throws Exception
+    {
+        final List<ArtifactRepository> repos = new ArrayList<ArtifactRepository>();
+        for ( final String url : Arrays.asList( FIRST, SECOND ) )
+        {
+            repos.add( new MavenArtifactRepository( "repo" + repos.size(), url, new DefaultRepositoryLayout(),
+                                                    new ArtifactRepositoryPolicy(), new ArtifactRepositoryPolicy() ) );
+        }
+
+        expander = new MavenLocationExpander( null, repos, null );
+    }
+
+    @Test
+    public void unchangedPathsReuseTheirExpansion()
+        throws Exception
+    {
+        expander.setRoutingIndex( new RepositoryRoutingIndex( temp.newFile() ) );
+        expander.setLocationHealth( new LocationHealth() );
+
+        final VirtualResource first = expand( FOO_POM );
+        assertThat( expand( FOO_POM ), sameInstance( first ) );
+        assertThat( uris( first ), equalTo( Arrays.asList( FIRST, SECOND ) ) );
+    }
+
+    @Test
+    public void learnedRouteOnlyRebuildsItsOwnPrefix()
+        throws Exception
+    {
+        final RepositoryRoutingIndex routing = new RepositoryRoutingIndex( temp.newFile() );
+        expander.setRoutingIndex( routing );
+
+        final VirtualResource foo = expand( FOO_POM );
+        final VirtualResource bar = expand( BAR_POM );
+
+        routing.record( FOO_POM, SECOND );
+
+        final VirtualResource routed = expand( FOO_POM );
+        assertThat( routed, not( sameInstance( foo ) ) );
+        assertThat( uris( routed ), equalTo( Arrays.asList( SECOND, FIRST ) ) );
+
+        // the epoch moved, but nothing changed for this prefix.
+        assertThat( expand( BAR_POM ), sameInstance( bar ) );
+        assertThat( expand( FOO_POM ), sameInstance( routed ) );
+    }
+
+    @Test
+    public void healthChangeReordersExpansions()
+        throws Exception
+    {
+        final LocationHealth health = new LocationHealth();
+        health.setBreakerFailures( 2 );
+        health.setBreakerMillis( TimeUnit.MINUTES.toMillis( 1 ) );
+        expander.setLocationHealth( health );
+
+        final VirtualResource before = expand( FOO_POM );
+        final long epoch = health.getEpoch();
+
+        // a success doesn't change anything.
+        health.record( FIRST, TimeUnit.MILLISECONDS.toNanos( 10 ), null );
+        assertThat( health.getEpoch(), equalTo( epoch ) );
+        assertThat( expand( FOO_POM ), sameInstance( before ) );
+
+        for ( int i = 0; i < 2; i++ )
+        {
+            health.record( FIRST, TimeUnit.MILLISECONDS.toNanos( 10 ), new Exception( "boom" ) );
+        }
+
+        final VirtualResource after = expand( FOO_POM );
+        assertThat( uris( after ), equalTo( Arrays.asList( SECOND, FIRST ) ) );
+        assertThat( expand( FOO_POM ), sameInstance( after ) );
+    }
+
+    private VirtualResource expand( final String path )
+        throws Exception
+    {
+        return expander.expand( new ConcreteResource( new SimpleLocation( MavenLocationExpander.EXPANSION_TARGET ),
+                                                      path ) );
+    }
+
+    private static List<String> uris( final VirtualResource resource )
+    {
+        final List<String> uris = new ArrayList<String>();
+        for ( final ConcreteResource cr : resource.toConcreteResources() )
+        {
+            uris.add( cr.getLocation()
+                        .getUri() );
+        }
+
+        return uris;
+    }
+
+}
@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MetricsTest
+{
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void resetDropsEarlierRuns()
+        throws Exception
+    {
+        final Metrics metrics = new Metrics();
+        metrics.reset( "tree" );
+        metrics.increment( "poms_fetched", 5 );
+        metrics.start( "render_tree" )
+               .stop();
+
+        metrics.reset( "list" );
+        metrics.increment( "poms_fetched", 2 );
+
+        assertThat( metrics.get( "poms_fetched" ), equalTo( 2L ) );
+        assertThat( metrics.getGoal(), equalTo( "list" ) );
+
+        final StringWriter json = new StringWriter();
+        metrics.writeJson( json );
+        assertThat( json.toString(), equalTo( "{\n  \"goal\": \"list\",\n  \"timers\": {\n  },\n  \"counters\": {\n"
+            + "    \"poms_fetched\": 2\n  }\n}\n" ) );
+    }
+
+    @Test
+    public void prometheusReportIsLabeledWithTheGoal()
+        throws Exception
+    {
+        final Metrics metrics = new Metrics();
+        metrics.reset( "daemon:tree" );
+        metrics.set( "graph_nodes", 3 );
+
+        final File out = new File( temp.getRoot(), "metrics.prom" );
+        metrics.write( out );
+
+        assertThat( FileUtils.readFileToString( out, StandardCharsets.UTF_8 ),
+                    equalTo( "# TYPE betterdep_run_info gauge\nbetterdep_run_info{goal=\"daemon:tree\"} 1\n"
+                        + "# TYPE betterdep_graph_nodes gauge\nbetterdep_graph_nodes 3\n" ) );
+    }
+
+    @Test
+    public void unlabeledReportHasNoGoal()
+        throws Exception
+    {
+        final Metrics metrics = new Metrics();
+        metrics.set( "graph_nodes", 3 );
+
+        final StringWriter json = new StringWriter();
+        metrics.writeJson( json );
+        assertThat( json.toString(), equalTo( "{\n  \"timers\": {\n  },\n  \"counters\": {\n"
+            + "    \"graph_nodes\": 3\n  }\n}\n" ) );
+
+        final StringWriter prom = new StringWriter();
+        metrics.writePrometheus( prom );
+        assertThat( prom.toString(), equalTo( "# TYPE betterdep_graph_nodes gauge\nbetterdep_graph_nodes 3\n" ) );
+    }
+
+}
@@ -0,0 +1,277 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+
+import org.commonjava.maven.galley.TransferException;
+import org.commonjava.maven.galley.event.EventMetadata;
+import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.Location;
+import org.commonjava.maven.galley.model.SimpleLocation;
+import org.commonjava.maven.galley.model.Transfer;
+import org.commonjava.maven.galley.spi.transport.DownloadJob;
+import org.commonjava.maven.galley.spi.transport.ExistenceJob;
+import org.commonjava.maven.galley.spi.transport.ListingJob;
+import org.commonjava.maven.galley.spi.transport.PublishJob;
+import org.commonjava.maven.galley.spi.transport.Transport;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MonitoredTransportTest
+{
+
+    private static final String REMOTE = "http://repo.example.com/maven2/";
+
+    private static final String POM = "org/foo/bar/1.0/bar-1.0.pom";
+
+    private static final int BREAKER_FAILURES = 2;
+
+    private enum Outcome
+    {
+        NOT_FOUND, ERROR, THROW
+    }
+
+    private LocationHealth health;
+
+    private FakeTransport delegate;
+
+    private MonitoredTransport transport;
+
+    @Before
+    public void setup()
+    {
+        health = new LocationHealth();
+        health.setBreakerFailures( BREAKER_FAILURES );
+
+        delegate = new FakeTransport();
+        transport = new MonitoredTransport( health, delegate );
+    }
+
+    @Test
+    public void notFoundDownloadsDontOpenTheCircuit()
+        throws Exception
+    {
+        delegate.outcome = Outcome.NOT_FOUND;
+        for ( int i = 0; i < 10; i++ )
+        {
+            final DownloadJob job = download();
+            job.call();
+            assertThat( job.getError(), nullValue() );
+            assertThat( job.getTransfer(), nullValue() );
+        }
+
+        final Metrics metrics = report();
+        assertThat( metrics.get( "location_requests{location=\"" + REMOTE + "\"}" ), equalTo( 10L ) );
+        assertThat( metrics.get( "location_errors{location=\"" + REMOTE + "\"}" ), equalTo( 0L ) );
+        assertFalse( health.isOpen( REMOTE ) );
+    }
+
+    @Test
+    public void notFoundExistenceChecksDontOpenTheCircuit()
+        throws Exception
+    {
+        delegate.outcome = Outcome.NOT_FOUND;
+        for ( int i = 0; i < 10; i++ )
+        {
+            assertFalse( transport.createExistenceJob( resource(), null, 1 )
+                                  .call() );
+        }
+
+        assertFalse( health.isOpen( REMOTE ) );
+    }
+
+    @Test
+    public void jobErrorsOpenTheCircuit()
+        throws Exception
+    {
+        delegate.outcome = Outcome.ERROR;
+        for ( int i = 0; i < BREAKER_FAILURES; i++ )
+        {
+            download().call();
+        }
+
+        assertTrue( health.isOpen( REMOTE ) );
+        assertThat( report().get( "location_errors{location=\"" + REMOTE + "\"}" ), equalTo( 2L ) );
+    }
+
+    @Test
+    public void thrownTimeoutsAreRecordedAndRethrown()
+        throws Exception
+    {
+        delegate.outcome = Outcome.THROW;
+        for ( int i = 0; i < BREAKER_FAILURES; i++ )
+        {
+            try
+            {
+                download().call();
+                fail( "the delegate's exception should be rethrown" );
+            }
+            catch ( final SocketTimeoutException e )
+            {
+                // expected.
+            }
+        }
+
+        final Metrics metrics = report();
+        assertThat( metrics.get( "location_timeouts{location=\"" + REMOTE + "\"}" ), equalTo( 2L ) );
+        assertTrue( health.isOpen( REMOTE ) );
+    }
+
+    @Test
+    public void openCircuitRejectsWithoutCallingTheDelegate()
+        throws Exception
+    {
+        delegate.outcome = Outcome.ERROR;
+        for ( int i = 0; i < BREAKER_FAILURES; i++ )
+        {
+            download().call();
+        }
+
+        final int calls = delegate.calls;
+
+        final DownloadJob job = download();
+        job.call();
+        assertThat( job.getError(), notNullValue() );
+        assertFalse( transport.createExistenceJob( resource(), null, 1 )
+                              .call() );
+        assertThat( transport.createListingJob( resource(), null, 1 )
+                             .call(), nullValue() );
+
+        assertThat( delegate.calls, equalTo( calls ) );
+        assertThat( report().get( "location_rejected{location=\"" + REMOTE + "\"}" ), equalTo( 3L ) );
+    }
+
+    private DownloadJob download()
+        throws TransferException
+    {
+        return transport.createDownloadJob( resource(), null, 1, new EventMetadata() );
+    }
+
+    private Metrics report()
+    {
+        final Metrics metrics = new Metrics();
+        health.report( metrics );
+        return metrics;
+    }
+
+    private static ConcreteResource resource()
+    {
+        return new ConcreteResource( new SimpleLocation( REMOTE ), POM );
+    }
+
+    private static final class FakeTransport
+        implements Transport
+    {
+        private Outcome outcome;
+
+        private int calls;
+
+        @Override
+        public ListingJob createListingJob( final ConcreteResource resource, final Transfer target,
+                                            final int timeoutSeconds )
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public DownloadJob createDownloadJob( final ConcreteResource resource, final Transfer target,
+                                              final int timeoutSeconds, final EventMetadata eventMetadata )
+        {
+            calls++;
+            final TransferException error = error( resource );
+            return new DownloadJob()
+            {
+                @Override
+                public DownloadJob call()
+                    throws Exception
+                {
+                    if ( outcome == Outcome.THROW )
+                    {
+                        throw new SocketTimeoutException( "Read timed out" );
+                    }
+
+                    return this;
+                }
+
+                @Override
+                public TransferException getError()
+                {
+                    return error;
+                }
+
+                @Override
+                public Transfer getTransfer()
+                {
+                    // a missing file has no transfer.
+                    return null;
+                }
+            };
+        }
+
+        @Override
+        public ExistenceJob createExistenceJob( final ConcreteResource resource, final Transfer target,
+                                                final int timeoutSeconds )
+        {
+            calls++;
+            final TransferException error = error( resource );
+            return new ExistenceJob()
+            {
+                @Override
+                public Boolean call()
+                {
+                    return false;
+                }
+
+                @Override
+                public TransferException getError()
+                {
+                    return error;
+                }
+            };
+        }
+
+        @Override
+        public PublishJob createPublishJob( final ConcreteResource resource, final InputStream stream,
+                                            final long length, final int timeoutSeconds )
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public PublishJob createPublishJob( final ConcreteResource resource, final InputStream stream,
+                                            final long length, final String contentType, final int timeoutSeconds )
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean handles( final Location location )
+        {
+            return true;
+        }
+
+        private TransferException error( final ConcreteResource resource )
+        {
+            return outcome == Outcome.ERROR ? new TransferException( "Failed to retrieve %s", resource ) : null;
+        }
+    }
+
+}
@@ -0,0 +1,277 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.SimpleLocation;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PersistentNotFoundCacheTest
+{
+
+    private static final String REMOTE = "http://repo.example.com/maven2/";
+
+    private static final String OTHER = "http://other.example.com/maven2/";
+
+    private static final String FOO = "org/foo/foo/1.0/foo-1.0.pom";
+
+    private static final String BAR = "org/foo/bar/1.0/bar-1.0.pom";
+
+    private static final long TTL = TimeUnit.HOURS.toMillis( 1 );
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setup()
+    {
+        file = new File( temp.getRoot(), "resolved/" + PersistentNotFoundCache.FILE_NAME );
+    }
+
+    @Test
+    public void missesAreRememberedByLaterRuns()
+        throws Exception
+    {
+        final PersistentNotFoundCache first = open( false );
+        miss( first, REMOTE, FOO );
+
+        final PersistentNotFoundCache second = open( false );
+        assertTrue( second.isMissing( resource( REMOTE, FOO ) ) );
+        assertFalse( second.isMissing( resource( REMOTE, BAR ) ) );
+        assertFalse( second.isMissing( resource( OTHER, FOO ) ) );
+    }
+
+    @Test
+    public void localLocationsAreNeverCached()
+        throws Exception
+    {
+        final String local = temp.getRoot()
+                                 .toURI()
+                                 .toString();
+
+        final PersistentNotFoundCache cache = open( false );
+        miss( cache, local, FOO );
+
+        assertFalse( cache.isMissing( resource( local, FOO ) ) );
+        assertFalse( open( false ).isMissing( resource( local, FOO ) ) );
+    }
+
+    @Test
+    public void expiredEntriesAreDroppedOnLoad()
+        throws Exception
+    {
+        final long now = System.currentTimeMillis();
+        write( line( now - 2 * TTL, REMOTE, FOO ), line( now, REMOTE, BAR ) );
+
+        final PersistentNotFoundCache cache = open( false );
+        assertFalse( cache.isMissing( resource( REMOTE, FOO ) ) );
+        assertTrue( cache.isMissing( resource( REMOTE, BAR ) ) );
+
+        // and the file is compacted down to the live entry.
+        assertThat( FileUtils.readLines( file ), equalTo( Collections.singletonList( line( now, REMOTE, BAR ) ) ) );
+    }
+
+    @Test
+    public void entriesExpireDuringARun()
+        throws Exception
+    {
+        final PersistentNotFoundCache cache = new PersistentNotFoundCache( file, 50, false );
+        miss( cache, REMOTE, FOO );
+        assertTrue( cache.isMissing( resource( REMOTE, FOO ) ) );
+
+        Thread.sleep( 100 );
+
+        assertFalse( cache.isMissing( resource( REMOTE, FOO ) ) );
+    }
+
+    @Test
+    public void clearedEntryIsTombstonedForLaterRuns()
+        throws Exception
+    {
+        final PersistentNotFoundCache cache = open( false );
+        miss( cache, REMOTE, FOO );
+        miss( cache, REMOTE, BAR );
+
+        cache.clearMissing( resource( REMOTE, FOO ) );
+        assertFalse( cache.isMissing( resource( REMOTE, FOO ) ) );
+
+        final PersistentNotFoundCache later = open( false );
+        assertFalse( later.isMissing( resource( REMOTE, FOO ) ) );
+        assertTrue( later.isMissing( resource( REMOTE, BAR ) ) );
+    }
+
+    @Test
+    public void clearedLocationIsTombstonedForLaterRuns()
+        throws Exception
+    {
+        final PersistentNotFoundCache cache = open( false );
+        miss( cache, REMOTE, FOO );
+        miss( cache, REMOTE, BAR );
+        miss( cache, OTHER, FOO );
+
+        cache.clearMissing( new SimpleLocation( REMOTE ) );
+
+        final PersistentNotFoundCache later = open( false );
+        assertFalse( later.isMissing( resource( REMOTE, FOO ) ) );
+        assertFalse( later.isMissing( resource( REMOTE, BAR ) ) );
+        assertTrue( later.isMissing( resource( OTHER, FOO ) ) );
+
+        later.clearAllMissing();
+        assertFalse( open( false ).isMissing( resource( OTHER, FOO ) ) );
+    }
+
+    @Test
+    public void updateSnapshotsForgetsEverything()
+        throws Exception
+    {
+        miss( open( false ), REMOTE, FOO );
+
+        final PersistentNotFoundCache forgetting = open( true );
+        assertFalse( forgetting.isMissing( resource( REMOTE, FOO ) ) );
+
+        // new misses are still recorded, and the old ones stay forgotten.
+        miss( forgetting, REMOTE, BAR );
+
+        final PersistentNotFoundCache later = open( false );
+        assertFalse( later.isMissing( resource( REMOTE, FOO ) ) );
+        assertTrue( later.isMissing( resource( REMOTE, BAR ) ) );
+    }
+
+    @Test
+    public void compactionKeepsAnotherBuildsLaterAppends()
+        throws Exception
+    {
+        final long now = System.currentTimeMillis();
+        write( line( now - 2 * TTL, REMOTE, "old/expired/1.0/expired-1.0.pom" ) );
+
+        // one build has the file open when a second one starts and compacts it.
+        final PersistentNotFoundCache running = open( false );
+        open( false );
+
+        miss( running, REMOTE, FOO );
+
+        assertTrue( open( false ).isMissing( resource( REMOTE, FOO ) ) );
+    }
+
+    @Test
+    public void unconfirmedMissesAreOnlyRememberedForTheRun()
+        throws Exception
+    {
+        // a failed request: galley calls addMissing without the transport confirming it.
+        final PersistentNotFoundCache cache = open( false );
+        cache.addMissing( resource( REMOTE, FOO ) );
+        miss( cache, REMOTE, BAR );
+
+        assertTrue( cache.isMissing( resource( REMOTE, FOO ) ) );
+        assertThat( cache.getMissing( new SimpleLocation( REMOTE ) ),
+                    equalTo( (Set<String>) new HashSet<String>( Arrays.asList( FOO, BAR ) ) ) );
+
+        final PersistentNotFoundCache later = open( false );
+        assertFalse( later.isMissing( resource( REMOTE, FOO ) ) );
+        assertTrue( later.isMissing( resource( REMOTE, BAR ) ) );
+        assertThat( FileUtils.readLines( file ).size(), equalTo( 1 ) );
+    }
+
+    @Test
+    public void forgetFailuresKeepsConfirmedMisses()
+        throws Exception
+    {
+        final PersistentNotFoundCache cache = open( false );
+        cache.addMissing( resource( REMOTE, FOO ) );
+        miss( cache, REMOTE, BAR );
+
+        cache.forgetFailures();
+
+        assertFalse( cache.isMissing( resource( REMOTE, FOO ) ) );
+        assertTrue( cache.isMissing( resource( REMOTE, BAR ) ) );
+    }
+
+    @Test
+    public void confirmationOnlyCoversTheNextMiss()
+        throws Exception
+    {
+        final PersistentNotFoundCache cache = open( false );
+        miss( cache, REMOTE, FOO );
+        cache.clearMissing( resource( REMOTE, FOO ) );
+
+        // later fails instead of answering 404.
+        cache.addMissing( resource( REMOTE, FOO ) );
+
+        assertTrue( cache.isMissing( resource( REMOTE, FOO ) ) );
+        assertFalse( open( false ).isMissing( resource( REMOTE, FOO ) ) );
+    }
+
+    @Test
+    public void ignoredMissesAreNotRememberedAtAll()
+        throws Exception
+    {
+        final PersistentNotFoundCache cache = open( false );
+        cache.ignoreNextMiss( resource( REMOTE, FOO ) );
+        cache.addMissing( resource( REMOTE, FOO ) );
+
+        assertFalse( cache.isMissing( resource( REMOTE, FOO ) ) );
+        assertFalse( open( false ).isMissing( resource( REMOTE, FOO ) ) );
+
+        // only the next one.
+        cache.addMissing( resource( REMOTE, FOO ) );
+        assertTrue( cache.isMissing( resource( REMOTE, FOO ) ) );
+    }
+
+    /**
+     * A genuine not-found, as reported by {@link NotFoundConfirmingTransport} and then galley.
+     */
+    private static void miss( final PersistentNotFoundCache cache, final String uri, final String path )
+    {
+        cache.confirmNotFound( resource( uri, path ) );
+        cache.addMissing( resource( uri, path ) );
+    }
+
+    private PersistentNotFoundCache open( final boolean clear )
+        throws Exception
+    {
+        return new PersistentNotFoundCache( file, TTL, clear );
+    }
+
+    private void write( final String... lines )
+        throws Exception
+    {
+        FileUtils.writeLines( file, Arrays.asList( lines ) );
+    }
+
+    private static String line( final long added, final String uri, final String path )
+    {
+        return added + "\t" + uri + "\t" + path;
+    }
+
+    private static ConcreteResource resource( final String uri, final String path )
+    {
+        return new ConcreteResource( new SimpleLocation( uri ), path );
+    }
+
+}
@@ -0,0 +1,282 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.commonjava.maven.atlas.ident.ref.ArtifactRef;
+import org.commonjava.maven.atlas.ident.ref.ProjectVersionRef;
+import org.commonjava.maven.atlas.ident.ref.SimpleArtifactRef;
+import org.commonjava.maven.atlas.ident.ref.SimpleProjectVersionRef;
+import org.commonjava.maven.galley.GalleyCoreBuilder;
+import org.commonjava.maven.galley.TransferManager;
+import org.commonjava.maven.galley.auth.MemoryPasswordManager;
+import org.commonjava.maven.galley.filearc.FileTransport;
+import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.SimpleLocation;
+import org.commonjava.maven.galley.model.Transfer;
+import org.commonjava.maven.galley.transport.htcli.HttpClientTransport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RepoDirectoryWriterTest
+{
+
+    private static final String POM = "org/foo/foo/1.0/foo-1.0.pom";
+
+    private static final String JAR = "org/foo/foo/1.0/foo-1.0.jar";
+
+    private static final String POM_CONTENT = "<project>foo 1.0</project>";
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private File remote;
+
+    private String remoteUrl;
+
+    private RepositoryStandInServer server;
+
+    private TransferManager transfers;
+
+    private RepoDirectoryWriter writer;
+
+    @Before
+    public void setup()
+        throws Exception
+    {
+        remote = temp.newFolder( "remote" );
+        remoteUrl = remote.toURI()
+                          .toString();
+        publish( POM, POM_CONTENT );
+        publish( JAR, "not really a jar" );
+
+        final HttpClientTransport http =
+            new HttpClientTransport( new TunedHttp( new MemoryPasswordManager(), 4, 4, 2000, 5000 ) );
+        transfers = new GalleyCoreBuilder( temp.newFolder() ).withEnabledTransports( new FileTransport(), http )
+                                                              .build()
+                                                              .getTransferManager();
+        writer = new RepoDirectoryWriter( transfers );
+        writer.setTransferThreads( 2 );
+    }
+
+    @After
+    public void teardown()
+    {
+        if ( server != null )
+        {
+            server.close();
+        }
+    }
+
+    @Test
+    public void filesAreWrittenInMavenLayout()
+        throws Exception
+    {
+        final File dir = new File( temp.getRoot(), "repo" );
+        write( dir );
+
+        assertThat( FileUtils.readFileToString( new File( dir, POM ), "UTF-8" ), equalTo( POM_CONTENT ) );
+        assertTrue( new File( dir, JAR ).isFile() );
+        assertFalse( new File( dir, POM + ".sha1" ).exists() );
+    }
+
+    @Test
+    public void localFilesAreCopiedByDefault()
+        throws Exception
+    {
+        final File dir = new File( temp.getRoot(), "repo" );
+        write( dir );
+
+        assertFalse( Files.isSameFile( new File( remote, POM ).toPath(), new File( dir, POM ).toPath() ) );
+
+        // so changing the output leaves the source repository alone.
+        FileUtils.write( new File( dir, POM ), "changed", "UTF-8" );
+        assertThat( FileUtils.readFileToString( new File( remote, POM ), "UTF-8" ), equalTo( POM_CONTENT ) );
+    }
+
+    @Test
+    public void localFilesAreHardLinkedOnRequest()
+        throws Exception
+    {
+        writer.setHardLinks( true );
+
+        final File dir = new File( temp.getRoot(), "repo" );
+        write( dir );
+
+        // both are in the same temporary directory, so linking can't fall back to copying here.
+        assertTrue( Files.isSameFile( new File( remote, POM ).toPath(), new File( dir, POM ).toPath() ) );
+    }
+
+    @Test
+    public void cachedDownloadsAreNeverHardLinked()
+        throws Exception
+    {
+        server = new RepositoryStandInServer( remote );
+        remoteUrl = server.start( 0 );
+
+        writer.setHardLinks( true );
+
+        final File dir = new File( temp.getRoot(), "repo" );
+        write( dir );
+
+        assertThat( FileUtils.readFileToString( new File( dir, POM ), "UTF-8" ), equalTo( POM_CONTENT ) );
+
+        final Transfer cached = transfers.retrieve( new ConcreteResource( new SimpleLocation( remoteUrl ), POM ) );
+        assertTrue( cached.getDetachedFile()
+                          .isFile() );
+        assertFalse( Files.isSameFile( cached.getDetachedFile()
+                                             .toPath(), new File( dir, POM ).toPath() ) );
+    }
+
+    @Test
+    public void generatedChecksumsAreWrittenNextToEachFile()
+        throws Exception
+    {
+        writer.setGenerateChecksums( true );
+
+        final File dir = new File( temp.getRoot(), "repo" );
+        write( dir );
+
+        for ( final String path : new String[] { POM, JAR } )
+        {
+            for ( final String suffix : Checksums.SUFFIXES )
+            {
+                assertTrue( path + "." + suffix, new File( dir, path + "." + suffix ).isFile() );
+            }
+        }
+
+        assertThat( FileUtils.readFileToString( new File( dir, POM + ".sha1" ), "UTF-8" ),
+                    equalTo( sha1( POM_CONTENT ) ) );
+    }
+
+    @Test
+    public void sampledChecksumMatches()
+        throws Exception
+    {
+        publish( POM + ".sha1", sha1( POM_CONTENT ) );
+
+        writer.setGenerateChecksums( true );
+        writer.setVerifySample( 1 );
+        write( new File( temp.getRoot(), "repo" ) );
+    }
+
+    @Test
+    public void failedRetrievalsAreReported()
+        throws Exception
+    {
+        server = new RepositoryStandInServer( remote );
+        server.setErrorRate( 1 );
+        remoteUrl = server.start( 0 );
+
+        final File dir = new File( temp.getRoot(), "repo" );
+        assertFalse( writer.write( contents(), dir ) );
+        assertFalse( new File( dir, POM ).exists() );
+        assertFalse( new File( dir, JAR ).exists() );
+    }
+
+    @Test
+    public void sampledChecksumMismatchFailsTheRepository()
+        throws Exception
+    {
+        publish( POM + ".sha1", "0123456789012345678901234567890123456789" );
+
+        writer.setGenerateChecksums( true );
+        writer.setVerifySample( 1 );
+        try
+        {
+            write( new File( temp.getRoot(), "repo" ) );
+            fail( "the checksum mismatch should fail the repository" );
+        }
+        catch ( final IOException e )
+        {
+            assertTrue( e.getMessage(), e.getMessage()
+                                         .contains( POM ) );
+        }
+    }
+
+    @Test
+    public void sampledChecksumLookupFailureFailsTheRepository()
+        throws Exception
+    {
+        server = new RepositoryStandInServer( remote );
+        server.setFailingSuffix( ".sha1" );
+        remoteUrl = server.start( 0 );
+
+        writer.setGenerateChecksums( true );
+        writer.setVerifySample( 1 );
+        try
+        {
+            write( new File( temp.getRoot(), "repo" ) );
+            fail( "an unverifiable sample should fail the repository" );
+        }
+        catch ( final IOException e )
+        {
+            assertTrue( e.getMessage(), e.getMessage()
+                                         .contains( "remote checksum" ) );
+        }
+    }
+
+    private void write( final File dir )
+        throws Exception
+    {
+        assertTrue( "some files could not be retrieved", writer.write( contents(), dir ) );
+    }
+
+    private Map<ProjectVersionRef, Map<ArtifactRef, ConcreteResource>> contents()
+    {
+        final SimpleLocation location = new SimpleLocation( remoteUrl );
+        final ProjectVersionRef project = new SimpleProjectVersionRef( "org.foo", "foo", "1.0" );
+
+        final Map<ArtifactRef, ConcreteResource> artifacts = new LinkedHashMap<ArtifactRef, ConcreteResource>();
+        artifacts.put( new SimpleArtifactRef( project, "pom", null, false ), new ConcreteResource( location, POM ) );
+        artifacts.put( new SimpleArtifactRef( project, "jar", null, false ), new ConcreteResource( location, JAR ) );
+
+        final Map<ProjectVersionRef, Map<ArtifactRef, ConcreteResource>> contents =
+            new HashMap<ProjectVersionRef, Map<ArtifactRef, ConcreteResource>>();
+        contents.put( project, artifacts );
+
+        return contents;
+    }
+
+    private void publish( final String path, final String content )
+        throws Exception
+    {
+        FileUtils.write( new File( remote, path ), content, "UTF-8" );
+    }
+
+    private static String sha1( final String content )
+        throws Exception
+    {
+        final byte[] bytes = content.getBytes( "UTF-8" );
+        final Checksums sha1 = new Checksums( Checksums.SUFFIXES );
+        sha1.update( bytes, 0, bytes.length );
+
+        return sha1.digest()
+                   .get( Checksums.SHA1 );
+    }
+
+}
@@ -0,0 +1,495 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.commonjava.maven.atlas.ident.ref.ArtifactRef;
+import org.commonjava.maven.atlas.ident.ref.ProjectVersionRef;
+import org.commonjava.maven.atlas.ident.ref.SimpleArtifactRef;
+import org.commonjava.maven.atlas.ident.ref.SimpleProjectVersionRef;
+import org.commonjava.maven.galley.GalleyCoreBuilder;
+import org.commonjava.maven.galley.TransferManager;
+import org.commonjava.maven.galley.auth.MemoryPasswordManager;
+import org.commonjava.maven.galley.filearc.FileTransport;
+import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.SimpleLocation;
+import org.commonjava.maven.galley.transport.htcli.HttpClientTransport;
+import org.commonjava.maven.plugins.betterdep.impl.RepoManifest.Record;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RepoZipWriterTest
+{
+
+    private static final String RELEASE_POM = "org/foo/foo/1.0/foo-1.0.pom";
+
+    private static final String RELEASE_JAR = "org/foo/foo/1.0/foo-1.0.jar";
+
+    private static final String SNAPSHOT_POM = "org/foo/bar/1.1-SNAPSHOT/bar-1.1-SNAPSHOT.pom";
+
+    private static final String STABLE_SNAPSHOT_POM = "org/foo/baz/2.0-SNAPSHOT/baz-2.0-SNAPSHOT.pom";
+
+    private static final String REMOVED_POM = "org/foo/old/0.9/old-0.9.pom";
+
+    private static final String ADDED_POM = "org/foo/added/1.0/added-1.0.pom";
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private File remote;
+
+    private RepositoryStandInServer server;
+
+    @Before
+    public void setup()
+        throws Exception
+    {
+        newRemote( "remote" );
+    }
+
+    @After
+    public void teardown()
+    {
+        if ( server != null )
+        {
+            server.close();
+        }
+    }
+
+    /**
+     * Start a new remote repository with the first build's content.
+     */
+    private void newRemote( final String name )
+        throws Exception
+    {
+        remote = temp.newFolder( name );
+        publish( RELEASE_POM, "<project>foo 1.0</project>" );
+        publish( RELEASE_JAR, "not really a jar" );
+        publish( SNAPSHOT_POM, "<project>bar 1.1-SNAPSHOT, first build</project>" );
+        publish( STABLE_SNAPSHOT_POM, "<project>baz 2.0-SNAPSHOT</project>" );
+        publish( REMOVED_POM, "<project>old 0.9</project>" );
+    }
+
+    @Test
+    public void fullArchiveHasEverything()
+        throws Exception
+    {
+        final File zip = new File( temp.getRoot(), "full/repo.zip" );
+        write( writer(), zip, RELEASE_POM, RELEASE_JAR, SNAPSHOT_POM, STABLE_SNAPSHOT_POM, REMOVED_POM );
+
+        final List<String> all = Arrays.asList( RELEASE_JAR, RELEASE_POM, SNAPSHOT_POM, STABLE_SNAPSHOT_POM,
+                                                REMOVED_POM );
+        assertThat( entries( zip ), equalTo( sorted( all ) ) );
+        assertThat( new ArrayList<String>( manifest( zip ).getPaths() ), equalTo( sorted( all ) ) );
+        assertFalse( removedFile( zip ).exists() );
+    }
+
+    @Test
+    public void generatedChecksumsKeepStrictPathOrder()
+        throws Exception
+    {
+        // the signature sorts between the pom and the pom's generated checksums.
+        final String signature = RELEASE_POM + ".asc";
+        publish( signature, "-----BEGIN PGP SIGNATURE-----" );
+
+        for ( final boolean streaming : new boolean[] { false, true } )
+        {
+            final File zip = new File( temp.getRoot(), ( streaming ? "streaming" : "batch" ) + "/repo.zip" );
+
+            final RepoZipWriter writer = writer();
+            writer.setStreaming( streaming );
+            writer.setGenerateChecksums( true );
+            write( writer, zip, RELEASE_POM, signature, RELEASE_JAR );
+
+            final List<String> names = names( zip );
+            assertThat( names, equalTo( withChecksums( true, RELEASE_JAR, RELEASE_POM, signature ) ) );
+            assertThat( new ArrayList<String>( manifest( zip ).getPaths() ), equalTo( names ) );
+        }
+    }
+
+    @Test
+    public void failedRetrievalsAreReported()
+        throws Exception
+    {
+        // every request to this one fails with a 503.
+        server = new RepositoryStandInServer( remote );
+        server.setErrorRate( 1 );
+        final SimpleLocation failing = new SimpleLocation( server.start( 0 ) );
+        final SimpleLocation location = new SimpleLocation( remote.toURI()
+                                                                  .toString() );
+
+        for ( final boolean streaming : new boolean[] { false, true } )
+        {
+            final String mode = streaming ? "streaming" : "batch";
+            final File zip = new File( temp.getRoot(), mode + "/repo.zip" );
+
+            final RepoZipWriter writer = writer();
+            writer.setStreaming( streaming );
+            assertFalse( mode, write( writer, zip, Arrays.asList( new ConcreteResource( location, RELEASE_POM ),
+                                                                  new ConcreteResource( failing, RELEASE_JAR ) ) ) );
+
+            // what could be retrieved is still there, and nothing else claims to be.
+            assertThat( mode, entries( zip ), equalTo( Arrays.asList( RELEASE_POM ) ) );
+            assertThat( mode, new ArrayList<String>( manifest( zip ).getPaths() ),
+                        equalTo( Arrays.asList( RELEASE_POM ) ) );
+        }
+    }
+
+    @Test
+    public void cacheDirectoriesAreCreatedBeforeRetrieval()
+        throws Exception
+    {
+        final TransferManager transfers = new GalleyCoreBuilder( temp.newFolder() ).withEnabledTransports(
+            new FileTransport() )
+                                                                                  .build()
+                                                                                  .getTransferManager();
+        final SimpleLocation location = new SimpleLocation( remote.toURI()
+                                                                  .toString() );
+        final List<ConcreteResource> resources = new ArrayList<ConcreteResource>();
+        for ( final String path : Arrays.asList( RELEASE_POM, RELEASE_JAR, SNAPSHOT_POM ) )
+        {
+            resources.add( new ConcreteResource( location, path ) );
+        }
+
+        RepoZipWriter.createCacheDirectories( transfers, resources );
+
+        // so concurrent transfers into the same new directory can't race to create it.
+        for ( final ConcreteResource resource : resources )
+        {
+            assertTrue( resource.getPath(), transfers.getCacheReference( resource )
+                                                     .getParent()
+                                                     .getDetachedFile()
+                                                     .isDirectory() );
+        }
+    }
+
+    @Test
+    public void sampledChecksumMismatchFailsTheArchive()
+        throws Exception
+    {
+        publish( RELEASE_POM + ".sha1", "0123456789012345678901234567890123456789" );
+
+        final RepoZipWriter writer = writer();
+        writer.setGenerateChecksums( true );
+        writer.setVerifySample( 1 );
+        try
+        {
+            write( writer, new File( temp.getRoot(), "bad/repo.zip" ), RELEASE_POM, RELEASE_JAR );
+            fail( "the checksum mismatch should fail the archive" );
+        }
+        catch ( final IOException e )
+        {
+            assertTrue( e.getMessage(), e.getMessage()
+                                         .contains( RELEASE_POM ) );
+        }
+    }
+
+    @Test
+    public void sampledEntryWithoutRemoteChecksumIsWritten()
+        throws Exception
+    {
+        final RepoZipWriter writer = writer();
+        writer.setGenerateChecksums( true );
+        writer.setVerifySample( 1 );
+
+        final File zip = new File( temp.getRoot(), "unverified/repo.zip" );
+        write( writer, zip, RELEASE_POM );
+
+        assertThat( entries( zip ), equalTo( withChecksums( true, RELEASE_POM ) ) );
+    }
+
+    @Test
+    public void sampledChecksumLookupFailureFailsTheArchive()
+        throws Exception
+    {
+        server = new RepositoryStandInServer( remote );
+        server.setFailingSuffix( ".sha1" );
+        final SimpleLocation location = new SimpleLocation( server.start( 0 ) );
+
+        for ( final boolean streaming : new boolean[] { false, true } )
+        {
+            final String mode = streaming ? "streaming" : "batch";
+
+            final RepoZipWriter writer = writer();
+            writer.setStreaming( streaming );
+            writer.setGenerateChecksums( true );
+            writer.setVerifySample( 1 );
+            try
+            {
+                write( writer, new File( temp.getRoot(), mode + "/repo.zip" ),
+                       Arrays.asList( new ConcreteResource( location, RELEASE_POM ) ) );
+                fail( mode + ": an unverifiable sample should fail the archive" );
+            }
+            catch ( final IOException e )
+            {
+                assertTrue( mode + ": " + e.getMessage(), e.getMessage()
+                                                            .contains( RELEASE_POM ) );
+            }
+        }
+    }
+
+    @Test
+    public void deltaHoldsOnlyAddedAndChangedEntries()
+        throws Exception
+    {
+        for ( final boolean streaming : new boolean[] { false, true } )
+        {
+            assertDelta( streaming, false );
+        }
+    }
+
+    @Test
+    public void deltaCarriesGeneratedChecksums()
+        throws Exception
+    {
+        for ( final boolean streaming : new boolean[] { false, true } )
+        {
+            assertDelta( streaming, true );
+        }
+    }
+
+    private void assertDelta( final boolean streaming, final boolean checksums )
+        throws Exception
+    {
+        final String mode = ( streaming ? "streaming" : "batch" ) + ( checksums ? "-checksums" : "" );
+        newRemote( mode + "-remote" );
+
+        final File first = new File( temp.getRoot(), mode + "/first/repo.zip" );
+
+        final RepoZipWriter full = writer();
+        full.setStreaming( streaming );
+        full.setGenerateChecksums( checksums );
+        write( full, first, RELEASE_POM, RELEASE_JAR, SNAPSHOT_POM, STABLE_SNAPSHOT_POM, REMOVED_POM );
+        final RepoManifest baseline = manifest( first );
+
+        // a changed snapshot, an added release, and a removed one. Released content that's
+        // already in the baseline is trusted, so even a (bogus) change to it isn't picked up.
+        publish( SNAPSHOT_POM, "<project>bar 1.1-SNAPSHOT, second build</project>" );
+        publish( ADDED_POM, "<project>added 1.0</project>" );
+        publish( RELEASE_POM, "<project>foo 1.0, republished</project>" );
+
+        final File second = new File( temp.getRoot(), mode + "/second/repo.zip" );
+        final RepoZipWriter delta = writer();
+        delta.setStreaming( streaming );
+        delta.setGenerateChecksums( checksums );
+        delta.setBaseline( RepoManifest.read( new File( first.getPath() + RepoManifest.MANIFEST_SUFFIX ) ) );
+        write( delta, second, RELEASE_POM, RELEASE_JAR, SNAPSHOT_POM, STABLE_SNAPSHOT_POM, ADDED_POM );
+
+        assertThat( mode, entries( second ), equalTo( withChecksums( checksums, ADDED_POM, SNAPSHOT_POM ) ) );
+        assertThat( mode, FileUtils.readLines( removedFile( second ), "UTF-8" ),
+                    equalTo( withChecksums( checksums, REMOVED_POM ) ) );
+
+        // the new manifest describes the whole repository, not just the delta.
+        final RepoManifest manifest = manifest( second );
+        assertThat( mode, new ArrayList<String>( manifest.getPaths() ),
+                    equalTo( withChecksums( checksums, ADDED_POM, RELEASE_JAR, RELEASE_POM, SNAPSHOT_POM,
+                                            STABLE_SNAPSHOT_POM ) ) );
+
+        for ( final String unchanged : withChecksums( checksums, RELEASE_JAR, RELEASE_POM, STABLE_SNAPSHOT_POM ) )
+        {
+            assertThat( mode + ": " + unchanged, describe( manifest.get( unchanged ) ),
+                        equalTo( describe( baseline.get( unchanged ) ) ) );
+        }
+
+        assertThat( mode, manifest.get( SNAPSHOT_POM )
+                                  .getSha1(), not( equalTo( baseline.get( SNAPSHOT_POM )
+                                                                    .getSha1() ) ) );
+        assertThat( mode, manifest.get( SNAPSHOT_POM )
+                                  .getSha1(), equalTo( entrySha1( second, SNAPSHOT_POM ) ) );
+        if ( checksums )
+        {
+            assertThat( mode, entryContent( second, SNAPSHOT_POM + ".sha1" ), equalTo( manifest.get( SNAPSHOT_POM )
+                                                                                               .getSha1() ) );
+        }
+    }
+
+    private RepoZipWriter writer()
+        throws Exception
+    {
+        // a fresh cache for every run, so changed content on the remote side is seen.
+        final HttpClientTransport http =
+            new HttpClientTransport( new TunedHttp( new MemoryPasswordManager(), 4, 4, 2000, 5000 ) );
+        final TransferManager transfers =
+            new GalleyCoreBuilder( temp.newFolder() ).withEnabledTransports( new FileTransport(), http )
+                                                      .build()
+                                                      .getTransferManager();
+        final RepoZipWriter writer = new RepoZipWriter( transfers );
+        writer.setTransferThreads( 2 );
+        writer.setZipThreads( 2 );
+        writer.setWindow( 2 );
+
+        return writer;
+    }
+
+    /**
+     * Write the paths from the remote repository, which are all expected to be retrieved.
+     */
+    private void write( final RepoZipWriter writer, final File zip, final String... paths )
+        throws Exception
+    {
+        final SimpleLocation location = new SimpleLocation( remote.toURI()
+                                                                  .toString() );
+        final List<ConcreteResource> resources = new ArrayList<ConcreteResource>();
+        for ( final String path : paths )
+        {
+            resources.add( new ConcreteResource( location, path ) );
+        }
+
+        assertTrue( "some entries could not be retrieved", write( writer, zip, resources ) );
+    }
+
+    private boolean write( final RepoZipWriter writer, final File zip, final List<ConcreteResource> resources )
+        throws Exception
+    {
+        final ProjectVersionRef project = new SimpleProjectVersionRef( "org.foo", "aggregate", "1.0" );
+
+        final Map<ArtifactRef, ConcreteResource> artifacts = new LinkedHashMap<ArtifactRef, ConcreteResource>();
+        for ( final ConcreteResource resource : resources )
+        {
+            artifacts.put( new SimpleArtifactRef( project, "pom", "c" + artifacts.size(), false ), resource );
+        }
+
+        final Map<ProjectVersionRef, Map<ArtifactRef, ConcreteResource>> contents =
+            new HashMap<ProjectVersionRef, Map<ArtifactRef, ConcreteResource>>();
+        contents.put( project, artifacts );
+
+        return writer.write( contents, zip );
+    }
+
+    private void publish( final String path, final String content )
+        throws Exception
+    {
+        FileUtils.write( new File( remote, path ), content, "UTF-8" );
+    }
+
+    private static RepoManifest manifest( final File zip )
+        throws Exception
+    {
+        return RepoManifest.read( new File( zip.getPath() + RepoManifest.MANIFEST_SUFFIX ) );
+    }
+
+    private static File removedFile( final File zip )
+    {
+        return new File( zip.getPath() + RepoManifest.REMOVED_SUFFIX );
+    }
+
+    private static List<String> entries( final File zip )
+        throws Exception
+    {
+        final List<String> names = names( zip );
+        Collections.sort( names );
+
+        return names;
+    }
+
+    /**
+     * Entry names in the order they were written.
+     */
+    private static List<String> names( final File zip )
+        throws Exception
+    {
+        final List<String> names = new ArrayList<String>();
+        final ZipFile zf = new ZipFile( zip );
+        try
+        {
+            for ( final Enumeration<? extends ZipEntry> e = zf.entries(); e.hasMoreElements(); )
+            {
+                names.add( e.nextElement()
+                            .getName() );
+            }
+        }
+        finally
+        {
+            zf.close();
+        }
+
+        return names;
+    }
+
+    private static String entryContent( final File zip, final String path )
+        throws Exception
+    {
+        final ZipFile zf = new ZipFile( zip );
+        try
+        {
+            return IOUtils.toString( zf.getInputStream( zf.getEntry( path ) ), "UTF-8" );
+        }
+        finally
+        {
+            zf.close();
+        }
+    }
+
+    private static String entrySha1( final File zip, final String path )
+        throws Exception
+    {
+        final byte[] content = entryContent( zip, path ).getBytes( "UTF-8" );
+        final Checksums sha1 = new Checksums( Collections.singletonList( Checksums.SHA1 ) );
+        sha1.update( content, 0, content.length );
+
+        return sha1.digest()
+                   .get( Checksums.SHA1 );
+    }
+
+    private static List<String> withChecksums( final boolean checksums, final String... paths )
+    {
+        final TreeSet<String> result = new TreeSet<String>();
+        for ( final String path : paths )
+        {
+            result.add( path );
+            if ( checksums )
+            {
+                for ( final String suffix : Checksums.SUFFIXES )
+                {
+                    result.add( path + "." + suffix );
+                }
+            }
+        }
+
+        return new ArrayList<String>( result );
+    }
+
+    private static List<String> sorted( final List<String> paths )
+    {
+        return new ArrayList<String>( new TreeSet<String>( paths ) );
+    }
+
+    private static String describe( final Record record )
+    {
+        return record == null ? null : record.getPath() + " " + record.getSize() + " " + record.getSha1();
+    }
+
+}
@@ -0,0 +1,244 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.repository.ArtifactRepositoryPolicy;
+import org.apache.maven.artifact.repository.MavenArtifactRepository;
+import org.apache.maven.artifact.repository.layout.DefaultRepositoryLayout;
+import org.apache.maven.settings.Mirror;
+import org.junit.Test;
+
+public class RepositoryMirrorsTest
+{
+
+    private static final ArtifactRepository CENTRAL = repo( "central", "http://repo.example.com/maven2/" );
+
+    private static final ArtifactRepository SNAPSHOTS = repo( "snapshots", "http://snapshots.example.com/maven2/" );
+
+    private static final ArtifactRepository LOCALHOST = repo( "nexus", "http://localhost:8081/nexus/content/" );
+
+    private static final ArtifactRepository LOOPBACK = repo( "loopback", "http://127.0.0.1:8081/nexus/content/" );
+
+    private static final ArtifactRepository FILE = repo( "file", "file:///tmp/repo/" );
+
+    @Test
+    public void noMirrors()
+    {
+        final RepositoryMirrors mirrors = new RepositoryMirrors( null );
+        assertThat( mirrors.getMirror( CENTRAL ), nullValue() );
+        assertThat( mirrors.apply( null ), nullValue() );
+        assertThat( ids( mirrors.apply( Arrays.asList( CENTRAL, SNAPSHOTS ) ) ),
+                    equalTo( Arrays.asList( "central", "snapshots" ) ) );
+    }
+
+    @Test
+    public void exactIdWinsOverAnEarlierPattern()
+    {
+        final Mirror all = mirror( "all", "*" );
+        final Mirror central = mirror( "central-mirror", "central" );
+        final RepositoryMirrors mirrors = new RepositoryMirrors( Arrays.asList( all, central ) );
+
+        assertThat( mirrors.getMirror( CENTRAL ), equalTo( central ) );
+        assertThat( mirrors.getMirror( SNAPSHOTS ), equalTo( all ) );
+    }
+
+    @Test
+    public void firstMatchingPatternWins()
+    {
+        final Mirror listed = mirror( "listed", "snapshots,central" );
+        final Mirror all = mirror( "all", "*" );
+        final RepositoryMirrors mirrors = new RepositoryMirrors( Arrays.asList( listed, all ) );
+
+        assertThat( mirrors.getMirror( CENTRAL ), equalTo( listed ) );
+        assertThat( mirrors.getMirror( LOCALHOST ), equalTo( all ) );
+    }
+
+    @Test
+    public void wildcardMatchesEverything()
+    {
+        final Mirror all = mirror( "all", "*" );
+        final RepositoryMirrors mirrors = new RepositoryMirrors( Arrays.asList( all ) );
+
+        for ( final ArtifactRepository repo : Arrays.asList( CENTRAL, LOCALHOST, LOOPBACK, FILE ) )
+        {
+            assertThat( repo.getId(), mirrors.getMirror( repo ), equalTo( all ) );
+        }
+    }
+
+    @Test
+    public void externalWildcardSkipsLocalRepositories()
+    {
+        final Mirror external = mirror( "external", "external:*" );
+        final RepositoryMirrors mirrors = new RepositoryMirrors( Arrays.asList( external ) );
+
+        assertThat( mirrors.getMirror( CENTRAL ), equalTo( external ) );
+        assertThat( mirrors.getMirror( SNAPSHOTS ), equalTo( external ) );
+        assertThat( mirrors.getMirror( LOCALHOST ), nullValue() );
+        assertThat( mirrors.getMirror( LOOPBACK ), nullValue() );
+        assertThat( mirrors.getMirror( FILE ), nullValue() );
+    }
+
+    @Test
+    public void listMatchesOnlyItsIds()
+    {
+        final Mirror listed = mirror( "listed", "central, nexus" );
+        final RepositoryMirrors mirrors = new RepositoryMirrors( Arrays.asList( listed ) );
+
+        assertThat( mirrors.getMirror( CENTRAL ), equalTo( listed ) );
+        assertThat( mirrors.getMirror( LOCALHOST ), equalTo( listed ) );
+        assertThat( mirrors.getMirror( SNAPSHOTS ), nullValue() );
+    }
+
+    @Test
+    public void exclusionBeatsAnyOtherMatch()
+    {
+        final Mirror mostly = mirror( "mostly", "*,!snapshots" );
+        final Mirror external = mirror( "external", "external:*,!central" );
+        final RepositoryMirrors mirrors = new RepositoryMirrors( Arrays.asList( mostly ) );
+
+        assertThat( mirrors.getMirror( CENTRAL ), equalTo( mostly ) );
+        assertThat( mirrors.getMirror( SNAPSHOTS ), nullValue() );
+
+        final RepositoryMirrors externals = new RepositoryMirrors( Arrays.asList( external ) );
+        assertThat( externals.getMirror( SNAPSHOTS ), equalTo( external ) );
+        assertThat( externals.getMirror( CENTRAL ), nullValue() );
+    }
+
+    @Test
+    public void normalizeIgnoresCaseDefaultPortsAndTrailingSlashes()
+    {
+        final String expected = "http://repo.example.com/maven2";
+        assertThat( RepositoryMirrors.normalize( "http://repo.example.com/maven2" ), equalTo( expected ) );
+        assertThat( RepositoryMirrors.normalize( "http://repo.example.com/maven2//" ), equalTo( expected ) );
+        assertThat( RepositoryMirrors.normalize( " HTTP://Repo.Example.COM:80/maven2/ " ), equalTo( expected ) );
+        assertThat( RepositoryMirrors.normalize( "https://repo.example.com:443/maven2/" ),
+                    equalTo( "https://repo.example.com/maven2" ) );
+
+        // the path is case-sensitive, and other ports are kept.
+        assertThat( RepositoryMirrors.normalize( "http://repo.example.com/Maven2/" ),
+                    equalTo( "http://repo.example.com/Maven2" ) );
+        assertThat( RepositoryMirrors.normalize( "http://repo.example.com:8080/maven2/" ),
+                    equalTo( "http://repo.example.com:8080/maven2" ) );
+        assertThat( RepositoryMirrors.normalize( "https://repo.example.com:80/maven2/" ),
+                    equalTo( "https://repo.example.com:80/maven2" ) );
+
+        assertThat( RepositoryMirrors.normalize( "file:///tmp/repo/" ), equalTo( "file:///tmp/repo" ) );
+    }
+
+    @Test
+    public void mirroredRepositoriesAreMergedInOrder()
+    {
+        final Mirror external = mirror( "external", "external:*" );
+        final RepositoryMirrors mirrors = new RepositoryMirrors( Arrays.asList( external ) );
+
+        final List<ArtifactRepository> result = mirrors.apply( Arrays.asList( LOCALHOST, CENTRAL, FILE, SNAPSHOTS ) );
+
+        assertThat( ids( result ), equalTo( Arrays.asList( "nexus", "external", "file" ) ) );
+        assertThat( result.get( 1 )
+                          .getUrl(), equalTo( external.getUrl() ) );
+        assertThat( ( (MavenArtifactRepository) result.get( 1 ) ).getMirroredRepositories(),
+                    equalTo( Arrays.asList( CENTRAL, SNAPSHOTS ) ) );
+    }
+
+    @Test
+    public void sameUrlWrittenDifferentlyIsMerged()
+    {
+        final ArtifactRepository other = repo( "other", "HTTP://REPO.example.com:80/maven2" );
+        final RepositoryMirrors mirrors = new RepositoryMirrors( null );
+
+        final List<ArtifactRepository> result = mirrors.apply( Arrays.asList( CENTRAL, other ) );
+        assertThat( ids( result ), equalTo( Arrays.asList( "central" ) ) );
+        assertThat( result.get( 0 )
+                          .getUrl(), equalTo( CENTRAL.getUrl() ) );
+    }
+
+    @Test
+    public void mergedPoliciesAllowWhatAnySourceAllows()
+    {
+        final ArtifactRepositoryPolicy daily =
+            new ArtifactRepositoryPolicy( true, ArtifactRepositoryPolicy.UPDATE_POLICY_DAILY,
+                                          ArtifactRepositoryPolicy.CHECKSUM_POLICY_WARN );
+        final ArtifactRepositoryPolicy always =
+            new ArtifactRepositoryPolicy( true, ArtifactRepositoryPolicy.UPDATE_POLICY_ALWAYS,
+                                          ArtifactRepositoryPolicy.CHECKSUM_POLICY_FAIL );
+        final ArtifactRepositoryPolicy disabled = new ArtifactRepositoryPolicy();
+        disabled.setEnabled( false );
+
+        final ArtifactRepository releases =
+            new MavenArtifactRepository( "releases", "http://repo.example.com/maven2/", new DefaultRepositoryLayout(),
+                                         new ArtifactRepositoryPolicy( disabled ), daily );
+        final ArtifactRepository snapshots =
+            new MavenArtifactRepository( "snapshots", "http://repo.example.com/maven2", new DefaultRepositoryLayout(),
+                                         always, new ArtifactRepositoryPolicy( disabled ) );
+
+        final List<ArtifactRepository> result =
+            new RepositoryMirrors( null ).apply( Arrays.asList( releases, snapshots ) );
+        assertThat( result.size(), equalTo( 1 ) );
+
+        final ArtifactRepository merged = result.get( 0 );
+        assertThat( merged.getId(), equalTo( "releases" ) );
+        assertTrue( merged.getReleases()
+                          .isEnabled() );
+        assertThat( merged.getReleases()
+                          .getUpdatePolicy(), equalTo( ArtifactRepositoryPolicy.UPDATE_POLICY_DAILY ) );
+        assertTrue( merged.getSnapshots()
+                          .isEnabled() );
+        assertThat( merged.getSnapshots()
+                          .getUpdatePolicy(), equalTo( ArtifactRepositoryPolicy.UPDATE_POLICY_ALWAYS ) );
+        assertThat( merged.getSnapshots()
+                          .getChecksumPolicy(), equalTo( ArtifactRepositoryPolicy.CHECKSUM_POLICY_FAIL ) );
+
+        // the sources' own policies aren't touched.
+        assertFalse( releases.getSnapshots()
+                             .isEnabled() );
+        assertFalse( snapshots.getReleases()
+                              .isEnabled() );
+    }
+
+    private static ArtifactRepository repo( final String id, final String url )
+    {
+        return new MavenArtifactRepository( id, url, new DefaultRepositoryLayout(), new ArtifactRepositoryPolicy(),
+                                            new ArtifactRepositoryPolicy() );
+    }
+
+    private static Mirror mirror( final String id, final String mirrorOf )
+    {
+        final Mirror mirror = new Mirror();
+        mirror.setId( id );
+        mirror.setMirrorOf( mirrorOf );
+        mirror.setUrl( "http://mirror.example.com/" + id + "/" );
+
+        return mirror;
+    }
+
+    private static List<String> ids( final List<ArtifactRepository> repos )
+    {
+        final List<String> ids = new ArrayList<String>();
+        for ( final ArtifactRepository repo : repos )
+        {
+            ids.add( repo.getId() );
+        }
+
+        return ids;
+    }
+
+}
@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.commonjava.maven.galley.model.Location;
+import org.commonjava.maven.galley.model.SimpleLocation;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RepositoryRoutingIndexTest
+{
+
+    private static final String LOCAL_A = "file:///home/me/.m2/repository/";
+
+    private static final String LOCAL_B = "file:///tmp/extra-repo/";
+
+    private static final String CENTRAL = "http://central.example.com/maven2/";
+
+    private static final String MIRROR = "http://mirror.example.com/maven2/";
+
+    private static final String SNAPSHOTS = "http://snapshots.example.com/maven2/";
+
+    private static final String INTERNAL = "http://internal.example.com/maven2/";
+
+    private static final String POM = "org/commonjava/maven/atlas/atlas-api/0.9/atlas-api-0.9.pom";
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setup()
+    {
+        file = new File( temp.getRoot(), "resolved/" + RepositoryRoutingIndex.FILE_NAME );
+    }
+
+    @Test
+    public void prefixIsTheFirstThreeGroupIdSegments()
+    {
+        assertThat( RepositoryRoutingIndex.getPrefix( POM ), equalTo( "org/commonjava/maven" ) );
+        assertThat( RepositoryRoutingIndex.getPrefix( "/" + POM ), equalTo( "org/commonjava/maven" ) );
+
+        // shorter groupIds use all they have.
+        assertThat( RepositoryRoutingIndex.getPrefix( "junit/junit/4.10/junit-4.10.pom" ), equalTo( "junit" ) );
+        assertThat( RepositoryRoutingIndex.getPrefix( "org/foo/bar/1.0/bar-1.0.jar" ), equalTo( "org/foo" ) );
+        assertThat( RepositoryRoutingIndex.getPrefix( "/org/foo/bar/1.0/bar-1.0.jar" ), equalTo( "org/foo" ) );
+    }
+
+    @Test
+    public void shortPathsHaveNoPrefix()
+    {
+        assertThat( RepositoryRoutingIndex.getPrefix( "" ), nullValue() );
+        assertThat( RepositoryRoutingIndex.getPrefix( "/" ), nullValue() );
+        assertThat( RepositoryRoutingIndex.getPrefix( "archetype-catalog.xml" ), nullValue() );
+        assertThat( RepositoryRoutingIndex.getPrefix( "bar/1.0/bar-1.0.pom" ), nullValue() );
+        assertThat( RepositoryRoutingIndex.getPrefix( "/bar/1.0/bar-1.0.pom" ), nullValue() );
+    }
+
+    @Test
+    public void artifactMetadataDropsOneGroupIdSegment()
+    {
+        // groupId/artifactId/maven-metadata.xml has no version directory to skip.
+        assertThat( RepositoryRoutingIndex.getPrefix( "org/commonjava/maven/atlas/atlas-api/maven-metadata.xml" ),
+                    equalTo( "org/commonjava/maven" ) );
+        assertThat( RepositoryRoutingIndex.getPrefix( "org/foo/bar/maven-metadata.xml" ), equalTo( "org" ) );
+        assertThat( RepositoryRoutingIndex.getPrefix( "/org/foo/bar/maven-metadata.xml" ), equalTo( "org" ) );
+        assertThat( RepositoryRoutingIndex.getPrefix( "foo/bar/maven-metadata.xml" ), nullValue() );
+    }
+
+    @Test
+    public void unknownPrefixKeepsTheConfiguredOrder()
+        throws Exception
+    {
+        final RepositoryRoutingIndex index = new RepositoryRoutingIndex( file );
+        final List<Location> locations = locations( CENTRAL, LOCAL_A, MIRROR );
+
+        assertThat( index.route( POM, locations ), sameInstance( locations ) );
+        assertThat( index.route( "archetype-catalog.xml", locations ), sameInstance( locations ) );
+    }
+
+    @Test
+    public void localFirstThenRoutedThenTheRestEachInOrder()
+        throws Exception
+    {
+        final RepositoryRoutingIndex index = new RepositoryRoutingIndex( file );
+        index.record( POM, INTERNAL );
+        index.record( POM, MIRROR );
+
+        final List<Location> locations = locations( CENTRAL, LOCAL_A, MIRROR, SNAPSHOTS, INTERNAL, LOCAL_B );
+
+        assertThat( uris( index.route( POM, locations ) ),
+                    equalTo( Arrays.asList( LOCAL_A, LOCAL_B, MIRROR, INTERNAL, CENTRAL, SNAPSHOTS ) ) );
+
+        // the input isn't touched.
+        assertThat( uris( locations ), equalTo( Arrays.asList( CENTRAL, LOCAL_A, MIRROR, SNAPSHOTS, INTERNAL,
+                                                                LOCAL_B ) ) );
+    }
+
+    @Test
+    public void routesApplyToTheWholePrefix()
+        throws Exception
+    {
+        final RepositoryRoutingIndex index = new RepositoryRoutingIndex( file );
+        index.record( POM, MIRROR );
+
+        final List<Location> locations = locations( CENTRAL, MIRROR );
+        assertThat( uris( index.route( "org/commonjava/maven/galley/galley-api/0.10/galley-api-0.10.jar",
+                                       locations ) ), equalTo( Arrays.asList( MIRROR, CENTRAL ) ) );
+        assertThat( uris( index.route( "org/commonjava/cdi/weft/1.0/weft-1.0.pom", locations ) ),
+                    equalTo( Arrays.asList( CENTRAL, MIRROR ) ) );
+    }
+
+    @Test
+    public void localLocationsAreNotRecorded()
+        throws Exception
+    {
+        final RepositoryRoutingIndex index = new RepositoryRoutingIndex( file );
+        final long epoch = index.getEpoch();
+
+        index.record( POM, LOCAL_A );
+        index.record( "archetype-catalog.xml", CENTRAL );
+
+        assertThat( index.getEpoch(), equalTo( epoch ) );
+
+        final List<Location> locations = locations( CENTRAL, MIRROR );
+        assertThat( index.route( POM, locations ), sameInstance( locations ) );
+    }
+
+    @Test
+    public void epochOnlyMovesForNewRoutes()
+        throws Exception
+    {
+        final RepositoryRoutingIndex index = new RepositoryRoutingIndex( file );
+        final long start = index.getEpoch();
+
+        index.record( POM, MIRROR );
+        final long learned = index.getEpoch();
+        assertThat( learned, not( equalTo( start ) ) );
+
+        index.record( POM, MIRROR );
+        assertThat( index.getEpoch(), equalTo( learned ) );
+    }
+
+    @Test
+    public void routesAreReloadedFromTheFile()
+        throws Exception
+    {
+        final RepositoryRoutingIndex first = new RepositoryRoutingIndex( file );
+        first.record( POM, INTERNAL );
+        first.record( "junit/junit/4.10/junit-4.10.pom", MIRROR );
+        // a duplicate isn't written twice.
+        first.record( POM, INTERNAL );
+        assertThat( FileUtils.readLines( file )
+                             .size(), equalTo( 2 ) );
+
+        final RepositoryRoutingIndex second = new RepositoryRoutingIndex( file );
+
+        final List<Location> locations = locations( CENTRAL, MIRROR, INTERNAL );
+        assertThat( uris( second.route( POM, locations ) ), equalTo( Arrays.asList( INTERNAL, CENTRAL, MIRROR ) ) );
+        assertThat( uris( second.route( "junit/junit/4.11/junit-4.11.pom", locations ) ),
+                    equalTo( Arrays.asList( MIRROR, CENTRAL, INTERNAL ) ) );
+
+        // routes learned by the second run are appended for the next one.
+        second.record( POM, CENTRAL );
+        final RepositoryRoutingIndex third = new RepositoryRoutingIndex( file );
+        assertThat( uris( third.route( POM, locations ) ), equalTo( Arrays.asList( CENTRAL, INTERNAL, MIRROR ) ) );
+    }
+
+    private static List<Location> locations( final String... uris )
+    {
+        final List<Location> locations = new ArrayList<Location>();
+        for ( final String uri : uris )
+        {
+            locations.add( new SimpleLocation( uri ) );
+        }
+
+        return locations;
+    }
+
+    private static List<String> uris( final List<Location> locations )
+    {
+        final List<String> uris = new ArrayList<String>();
+        for ( final Location location : locations )
+        {
+            uris.add( location.getUri() );
+        }
+
+        return uris;
+    }
+
+}
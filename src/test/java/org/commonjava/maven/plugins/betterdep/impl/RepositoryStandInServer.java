@@ -0,0 +1,346 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import static org.apache.commons.io.IOUtils.closeQuietly;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves a Maven repository directory over HTTP on localhost, standing in for a
+ * remote repository in tests. Per-request latency, a bandwidth cap, and randomly
+ * injected 404 and 503 responses model the network conditions of a real deployment,
+ * so discovery concurrency, retries and caching can be tested on an offline machine.
+ * The settings can be changed while it's serving.
+ */
+public class RepositoryStandInServer
+    implements Closeable
+{
+
+    private static final int BUFFER_SIZE = 8192;
+
+    static
+    {
+        // the JDK server writes headers and body separately, so delayed ACKs would add ~40ms to every response.
+        if ( System.getProperty( "sun.net.httpserver.nodelay" ) == null )
+        {
+            System.setProperty( "sun.net.httpserver.nodelay", "true" );
+        }
+    }
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final File root;
+
+    private int threads = 16;
+
+    private volatile long latencyMillis;
+
+    private volatile long jitterMillis;
+
+    private volatile long bytesPerSecond;
+
+    private volatile double notFoundRate;
+
+    private volatile double errorRate;
+
+    private volatile String failingSuffix;
+
+    private final AtomicLong requests = new AtomicLong();
+
+    private final AtomicLong injectedNotFound = new AtomicLong();
+
+    private final AtomicLong injectedErrors = new AtomicLong();
+
+    private final AtomicLong bytesServed = new AtomicLong();
+
+    private HttpServer server;
+
+    private String url;
+
+    private ExecutorService executor;
+
+    public RepositoryStandInServer( final File root )
+    {
+        this.root = root;
+    }
+
+    /**
+     * Number of requests handled concurrently.
+     */
+    public void setThreads( final int threads )
+    {
+        this.threads = Math.max( 1, threads );
+    }
+
+    /**
+     * Delay before every response, plus a random amount up to the jitter.
+     */
+    public void setLatency( final long latencyMillis, final long jitterMillis )
+    {
+        this.latencyMillis = Math.max( 0, latencyMillis );
+        this.jitterMillis = Math.max( 0, jitterMillis );
+    }
+
+    /**
+     * Cap on the transfer rate of each response body, or 0 for no cap.
+     */
+    public void setBytesPerSecond( final long bytesPerSecond )
+    {
+        this.bytesPerSecond = Math.max( 0, bytesPerSecond );
+    }
+
+    /**
+     * Fraction of requests for existing files that get a 404 anyway.
+     */
+    public void setNotFoundRate( final double notFoundRate )
+    {
+        this.notFoundRate = notFoundRate;
+    }
+
+    /**
+     * Fraction of requests that get a 503.
+     */
+    public void setErrorRate( final double errorRate )
+    {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Requests for paths ending with the suffix always get a 503, or null for none.
+     */
+    public void setFailingSuffix( final String failingSuffix )
+    {
+        this.failingSuffix = failingSuffix;
+    }
+
+    /**
+     * Start serving on the given port (0 picks a free one).
+     *
+     * @return the base URL of the repository
+     */
+    public String start( final int port )
+        throws IOException
+    {
+        server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), port ), 0 );
+        server.createContext( "/", this::handle );
+
+        executor = Executors.newFixedThreadPool( threads, new NamedThreadFactory( "betterdep-standin" ) );
+        server.setExecutor( executor );
+        server.start();
+
+        url = "http://127.0.0.1:" + server.getAddress()
+                                          .getPort() + "/";
+        return url;
+    }
+
+    /**
+     * The base URL of the repository, once started.
+     */
+    public String getUrl()
+    {
+        return url;
+    }
+
+    /**
+     * Requests received so far, including the ones answered with an injected failure.
+     */
+    public long getRequests()
+    {
+        return requests.get();
+    }
+
+    public long getInjectedNotFound()
+    {
+        return injectedNotFound.get();
+    }
+
+    public long getInjectedErrors()
+    {
+        return injectedErrors.get();
+    }
+
+    @Override
+    public void close()
+    {
+        if ( server != null )
+        {
+            server.stop( 0 );
+            executor.shutdownNow();
+            server = null;
+        }
+
+        logger.info( "Stand-in repository served {} requests ({} injected 404s, {} injected errors, {} bytes).",
+                     requests.get(), injectedNotFound.get(), injectedErrors.get(), bytesServed.get() );
+    }
+
+    private void handle( final HttpExchange exchange )
+        throws IOException
+    {
+        requests.incrementAndGet();
+        try
+        {
+            delay();
+
+            final String path = exchange.getRequestURI()
+                                        .getPath();
+            final String suffix = failingSuffix;
+
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            if ( random.nextDouble() < errorRate || ( suffix != null && path.endsWith( suffix ) ) )
+            {
+                injectedErrors.incrementAndGet();
+                respond( exchange, 503 );
+                return;
+            }
+
+            final File file = resolve( path );
+            if ( file == null || !file.isFile() )
+            {
+                respond( exchange, 404 );
+                return;
+            }
+
+            if ( random.nextDouble() < notFoundRate )
+            {
+                injectedNotFound.incrementAndGet();
+                respond( exchange, 404 );
+                return;
+            }
+
+            if ( "HEAD".equals( exchange.getRequestMethod() ) )
+            {
+                respond( exchange, 200 );
+            }
+            else
+            {
+                exchange.sendResponseHeaders( 200, file.length() );
+                send( file, exchange.getResponseBody() );
+            }
+        }
+        catch ( final InterruptedIOException e )
+        {
+            logger.debug( "Interrupted while serving: {}", exchange.getRequestURI() );
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Send a response without a body, keeping the connection open for the next request.
+     */
+    private void respond( final HttpExchange exchange, final int code )
+        throws IOException
+    {
+        // the JDK server drops the connection unless the request was read to the end; a real repository wouldn't.
+        exchange.getRequestBody()
+                .close();
+        exchange.sendResponseHeaders( code, -1 );
+    }
+
+    private File resolve( final String path )
+    {
+        final File file = new File( root, path );
+        try
+        {
+            // don't serve anything outside the repository.
+            final String canonical = file.getCanonicalPath();
+            return canonical.startsWith( root.getCanonicalPath() + File.separator ) ? file : null;
+        }
+        catch ( final IOException e )
+        {
+            return null;
+        }
+    }
+
+    private void send( final File file, final OutputStream out )
+        throws IOException
+    {
+        InputStream in = null;
+        try
+        {
+            in = new FileInputStream( file );
+
+            final long start = System.nanoTime();
+            final byte[] buf = new byte[BUFFER_SIZE];
+            long sent = 0;
+            int read;
+            while ( ( read = in.read( buf ) ) > -1 )
+            {
+                sent += read;
+                if ( bytesPerSecond > 0 )
+                {
+                    // hold the chunk back until sending it keeps us under the cap.
+                    final long due = TimeUnit.SECONDS.toNanos( sent ) / bytesPerSecond;
+                    sleep( TimeUnit.NANOSECONDS.toMillis( due - ( System.nanoTime() - start ) ) );
+                }
+
+                out.write( buf, 0, read );
+                bytesServed.addAndGet( read );
+            }
+        }
+        finally
+        {
+            closeQuietly( in );
+            closeQuietly( out );
+        }
+    }
+
+    private void delay()
+        throws InterruptedIOException
+    {
+        final long jitter = jitterMillis > 0 ? ThreadLocalRandom.current()
+                                                                .nextLong( jitterMillis + 1 ) : 0;
+        sleep( latencyMillis + jitter );
+    }
+
+    private void sleep( final long millis )
+        throws InterruptedIOException
+    {
+        if ( millis <= 0 )
+        {
+            return;
+        }
+
+        try
+        {
+            Thread.sleep( millis );
+        }
+        catch ( final InterruptedException e )
+        {
+            Thread.currentThread()
+                  .interrupt();
+            throw new InterruptedIOException( "Interrupted while delaying response." );
+        }
+    }
+
+}
@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SortedLineWriterTest
+{
+
+    // shuffled, with duplicates both next to each other and a chunk or more apart.
+    private static final List<String> LINES =
+        Arrays.asList( "http://repo.example.com/org/foo/foo/1.0/foo-1.0.pom",
+                       "http://repo.example.com/junit/junit/4.10/junit-4.10.jar",
+                       "http://repo.example.com/org/foo/foo/1.0/foo-1.0.jar",
+                       "http://repo.example.com/org/foo/foo/1.0/foo-1.0.jar",
+                       "http://repo.example.com/org/bar/bar/2.0/bar-2.0.pom",
+                       "http://repo.example.com/junit/junit/4.10/junit-4.10.pom",
+                       "http://repo.example.com/org/foo/foo/1.0/foo-1.0.pom",
+                       "http://repo.example.com/org/bar/bar/2.0/bar-2.0.jar",
+                       "http://repo.example.com/junit/junit/4.10/junit-4.10.jar",
+                       "http://repo.example.com/org/bar/bar/2.0/bar-2.0.pom",
+                       "http://repo.example.com/org/foo/foo/1.0/foo-1.0.pom" );
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void inMemoryOutputMatchesTheOldFormat()
+        throws Exception
+    {
+        assertOldFormat( 1000 );
+    }
+
+    @Test
+    public void spilledOutputIsSortedAndDeduplicated()
+        throws Exception
+    {
+        for ( int chunkSize = 1; chunkSize <= 3; chunkSize++ )
+        {
+            assertOldFormat( chunkSize );
+        }
+    }
+
+    @Test
+    public void chunkSizeIsAtLeastOne()
+        throws Exception
+    {
+        assertOldFormat( 0 );
+    }
+
+    @Test
+    public void nothingAddedWritesNothing()
+        throws Exception
+    {
+        final SortedLineWriter writer = new SortedLineWriter( 2 );
+        final StringWriter out = new StringWriter();
+        assertThat( writer.writeTo( out ), equalTo( 0 ) );
+        assertThat( out.toString(), equalTo( "" ) );
+        writer.close();
+    }
+
+    @Test
+    public void fileOutputIsPlainText()
+        throws Exception
+    {
+        final File out = new File( temp.getRoot(), "nested/dir/downlog.txt" );
+
+        final SortedLineWriter writer = fill( 2 );
+        assertThat( writer.writeTo( out, false ), equalTo( expected().size() ) );
+        writer.close();
+
+        assertThat( FileUtils.readFileToString( out, "UTF-8" ), equalTo( oldFormat() ) );
+    }
+
+    @Test
+    public void gzippedFileOutputHasTheSameContent()
+        throws Exception
+    {
+        for ( final int chunkSize : new int[] { 2, 1000 } )
+        {
+            final File out = temp.newFile( "downlog-" + chunkSize + ".txt.gz" );
+
+            final SortedLineWriter writer = fill( chunkSize );
+            assertThat( writer.writeTo( out, true ), equalTo( expected().size() ) );
+            writer.close();
+
+            InputStream in = null;
+            try
+            {
+                in = new GZIPInputStream( new FileInputStream( out ) );
+                assertThat( IOUtils.toString( in, StandardCharsets.UTF_8.name() ), equalTo( oldFormat() ) );
+            }
+            finally
+            {
+                IOUtils.closeQuietly( in );
+            }
+        }
+    }
+
+    private void assertOldFormat( final int chunkSize )
+        throws Exception
+    {
+        final SortedLineWriter writer = fill( chunkSize );
+        try
+        {
+            final StringWriter out = new StringWriter();
+            assertThat( "chunk size " + chunkSize, writer.writeTo( out ), equalTo( expected().size() ) );
+            assertThat( "chunk size " + chunkSize, out.toString(), equalTo( oldFormat() ) );
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    private static SortedLineWriter fill( final int chunkSize )
+        throws Exception
+    {
+        final SortedLineWriter writer = new SortedLineWriter( chunkSize );
+        for ( final String line : LINES )
+        {
+            writer.add( line );
+        }
+
+        return writer;
+    }
+
+    private static List<String> expected()
+    {
+        return new ArrayList<String>( new TreeSet<String>( LINES ) );
+    }
+
+    /**
+     * What the download log looked like before the external sort: join( sorted, "\n" ), no trailing newline.
+     */
+    private static String oldFormat()
+    {
+        return StringUtils.join( new TreeSet<String>( LINES ), "\n" );
+    }
+
+}
@@ -0,0 +1,394 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.repository.ArtifactRepositoryPolicy;
+import org.apache.maven.artifact.repository.MavenArtifactRepository;
+import org.apache.maven.artifact.repository.layout.DefaultRepositoryLayout;
+import org.commonjava.maven.galley.GalleyCoreBuilder;
+import org.commonjava.maven.galley.TransferException;
+import org.commonjava.maven.galley.TransferManager;
+import org.commonjava.maven.galley.auth.MemoryPasswordManager;
+import org.commonjava.maven.galley.event.NoOpFileEventManager;
+import org.commonjava.maven.galley.model.ConcreteResource;
+import org.commonjava.maven.galley.model.SimpleLocation;
+import org.commonjava.maven.galley.model.Transfer;
+import org.commonjava.maven.galley.model.VirtualResource;
+import org.commonjava.maven.galley.spi.event.FileEventManager;
+import org.commonjava.maven.galley.spi.transport.Transport;
+import org.commonjava.maven.galley.transport.htcli.HttpClientTransport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Runs POM discovery against {@link RepositoryStandInServer}s through the same
+ * transfer stack the goals build: the location expander, routing index, health
+ * tracker, HTTP transport and not-found cache, but without cartographer.
+ */
+public class StandInDiscoveryTest
+{
+
+    private static final int NODES = 30;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private File repo;
+
+    private List<String> poms;
+
+    private final List<RepositoryStandInServer> servers = new ArrayList<RepositoryStandInServer>();
+
+    private final ExecutorService executor =
+        Executors.newCachedThreadPool( new NamedThreadFactory( "betterdep-test-transfer" ) );
+
+    private int readTimeoutMillis = 5000;
+
+    @Before
+    public void writeRepository()
+        throws Exception
+    {
+        repo = temp.newFolder( "repo" );
+
+        final SyntheticRepository generator = new SyntheticRepository( 1 );
+        generator.setNodes( NODES );
+        generator.write( repo );
+
+        poms = new ArrayList<String>();
+        for ( final File pom : FileUtils.listFiles( repo, new String[] { "pom" }, true ) )
+        {
+            poms.add( pom.getAbsolutePath()
+                         .substring( repo.getAbsolutePath()
+                                         .length() + 1 )
+                         .replace( File.separatorChar, '/' ) );
+        }
+        Collections.sort( poms );
+    }
+
+    @After
+    public void stop()
+    {
+        executor.shutdownNow();
+        for ( final RepositoryStandInServer server : servers )
+        {
+            server.close();
+        }
+    }
+
+    @Test
+    public void notFoundCacheSkipsKnownMissesUntilCleared()
+        throws Exception
+    {
+        final RepositoryStandInServer flaky = serve( repo );
+        flaky.setNotFoundRate( 1 );
+        final RepositoryStandInServer good = serve( repo );
+
+        final File nfcFile = new File( temp.getRoot(), PersistentNotFoundCache.FILE_NAME );
+        final long ttl = TimeUnit.HOURS.toMillis( 1 );
+
+        assertThat( discover( new PersistentNotFoundCache( nfcFile, ttl, false ), null, null, flaky, good ),
+                    equalTo( poms ) );
+        assertThat( flaky.getInjectedNotFound(), equalTo( (long) poms.size() ) );
+
+        // a later build remembers the misses and goes straight to the repository that has them.
+        long before = flaky.getRequests();
+        assertThat( discover( new PersistentNotFoundCache( nfcFile, ttl, false ), null, null, flaky, good ),
+                    equalTo( poms ) );
+        assertThat( flaky.getRequests() - before, equalTo( 0L ) );
+
+        // -U forgets them.
+        before = flaky.getRequests();
+        assertThat( discover( new PersistentNotFoundCache( nfcFile, ttl, true ), null, null, flaky, good ),
+                    equalTo( poms ) );
+        assertThat( flaky.getRequests() - before, equalTo( (long) poms.size() ) );
+    }
+
+    @Test
+    public void failedLookupsAreOnlyRememberedForTheRun()
+        throws Exception
+    {
+        final RepositoryStandInServer failing = serve( repo );
+        failing.setErrorRate( 1 );
+
+        final File nfcFile = new File( temp.getRoot(), PersistentNotFoundCache.FILE_NAME );
+        final long ttl = TimeUnit.HOURS.toMillis( 1 );
+
+        final PersistentNotFoundCache nfc = new PersistentNotFoundCache( nfcFile, ttl, false );
+        assertThat( discover( nfc, null, null, failing ), equalTo( Collections.<String> emptyList() ) );
+        assertThat( failing.getRequests(), equalTo( (long) poms.size() ) );
+
+        // the rest of this run skips them...
+        assertTrue( nfc.isMissing( new ConcreteResource( new SimpleLocation( failing.getUrl() ), poms.get( 0 ) ) ) );
+
+        // ...but the next one asks again, and finds them once the repository has recovered.
+        failing.setErrorRate( 0 );
+        assertThat( discover( new PersistentNotFoundCache( nfcFile, ttl, false ), null, null, failing ),
+                    equalTo( poms ) );
+        assertThat( failing.getRequests(), equalTo( 2L * poms.size() ) );
+    }
+
+    @Test
+    public void timedOutLookupsAreNotRememberedByLaterRuns()
+        throws Exception
+    {
+        final RepositoryStandInServer slow = serve( repo );
+        slow.setLatency( 500, 0 );
+        readTimeoutMillis = 100;
+
+        final File nfcFile = new File( temp.getRoot(), PersistentNotFoundCache.FILE_NAME );
+        final long ttl = TimeUnit.HOURS.toMillis( 1 );
+
+        assertThat( discover( new PersistentNotFoundCache( nfcFile, ttl, false ), null, null, slow ),
+                    equalTo( Collections.<String> emptyList() ) );
+
+        slow.setLatency( 0, 0 );
+        readTimeoutMillis = 5000;
+
+        assertThat( discover( new PersistentNotFoundCache( nfcFile, ttl, false ), null, null, slow ),
+                    equalTo( poms ) );
+    }
+
+    @Test
+    public void forgottenFailuresAreTriedAgain()
+        throws Exception
+    {
+        final RepositoryStandInServer failing = serve( repo );
+        failing.setErrorRate( 1 );
+
+        final PersistentNotFoundCache nfc =
+            new PersistentNotFoundCache( new File( temp.getRoot(), PersistentNotFoundCache.FILE_NAME ),
+                                         TimeUnit.HOURS.toMillis( 1 ), false );
+        assertThat( discover( nfc, null, null, failing ), equalTo( Collections.<String> emptyList() ) );
+
+        // as the daemon does before each request.
+        nfc.forgetFailures();
+        failing.setErrorRate( 0 );
+
+        assertThat( discover( nfc, null, null, failing ), equalTo( poms ) );
+    }
+
+    @Test
+    public void routingSendsLookupsToTheRepositoryThatServedThePrefix()
+        throws Exception
+    {
+        final RepositoryStandInServer empty = serve( temp.newFolder( "empty" ) );
+        final RepositoryStandInServer full = serve( repo );
+        empty.setLatency( 5, 5 );
+        full.setLatency( 5, 5 );
+
+        final File routes = new File( temp.getRoot(), RepositoryRoutingIndex.FILE_NAME );
+
+        assertThat( discover( null, new RepositoryRoutingIndex( routes ), null, empty, full ), equalTo( poms ) );
+
+        // every project shares one groupId, so only the first lookup has to miss.
+        assertThat( empty.getRequests(), equalTo( 1L ) );
+        assertThat( full.getRequests(), equalTo( (long) poms.size() ) );
+
+        final long before = empty.getRequests();
+        assertThat( discover( null, new RepositoryRoutingIndex( routes ), null, empty, full ), equalTo( poms ) );
+        assertThat( empty.getRequests() - before, equalTo( 0L ) );
+    }
+
+    @Test
+    public void failingRepositoryMovesBehindAHealthyOne()
+        throws Exception
+    {
+        final RepositoryStandInServer failing = serve( repo );
+        failing.setErrorRate( 1 );
+        final RepositoryStandInServer good = serve( repo );
+        good.setLatency( 5, 5 );
+
+        final LocationHealth health = new LocationHealth();
+        health.setBreakerFailures( 3 );
+
+        assertThat( discover( null, null, health, failing, good ), equalTo( poms ) );
+
+        // its failure rate demotes it before the circuit has to open.
+        assertTrue( "Failing repository was tried " + failing.getRequests() + " times", failing.getRequests() < 3 );
+        assertFalse( health.isOpen( failing.getUrl() ) );
+    }
+
+    @Test
+    public void circuitBreakerStopsRequestsToAFailingRepository()
+        throws Exception
+    {
+        final RepositoryStandInServer empty = serve( temp.newFolder( "empty" ) );
+        final RepositoryStandInServer failing = serve( repo );
+        failing.setErrorRate( 1 );
+
+        final LocationHealth health = new LocationHealth();
+        health.setBreakerFailures( 3 );
+        health.setBreakerMillis( TimeUnit.MINUTES.toMillis( 1 ) );
+
+        assertThat( discover( null, null, health, empty, failing ), equalTo( Collections.<String> emptyList() ) );
+
+        // discovery carries on, but stops sending requests to the failing repository.
+        assertThat( failing.getRequests(), equalTo( 3L ) );
+        assertThat( empty.getRequests(), equalTo( (long) poms.size() ) );
+        assertTrue( health.isOpen( failing.getUrl() ) );
+        assertFalse( health.isOpen( empty.getUrl() ) );
+    }
+
+    @Test
+    public void circuitBreakerRejectionsAreNotCachedAsMissing()
+        throws Exception
+    {
+        final RepositoryStandInServer failing = serve( repo );
+        failing.setErrorRate( 1 );
+
+        final LocationHealth health = new LocationHealth();
+        health.setBreakerFailures( 3 );
+        health.setBreakerMillis( 200 );
+
+        final File nfcFile = new File( temp.getRoot(), PersistentNotFoundCache.FILE_NAME );
+        final long ttl = TimeUnit.HOURS.toMillis( 1 );
+        final PersistentNotFoundCache nfc = new PersistentNotFoundCache( nfcFile, ttl, false );
+
+        assertThat( discover( nfc, null, health, failing ), equalTo( Collections.<String> emptyList() ) );
+        assertThat( failing.getRequests(), equalTo( 3L ) );
+
+        // the three failures are skipped for the rest of the run, but the rejected lookups aren't.
+        final SimpleLocation location = new SimpleLocation( failing.getUrl() );
+        assertTrue( nfc.isMissing( new ConcreteResource( location, poms.get( 0 ) ) ) );
+        assertFalse( nfc.isMissing( new ConcreteResource( location, poms.get( poms.size() - 1 ) ) ) );
+
+        failing.setErrorRate( 0 );
+        Thread.sleep( 300 );
+
+        assertThat( discover( nfc, null, health, failing ), equalTo( poms.subList( 3, poms.size() ) ) );
+        assertThat( discover( new PersistentNotFoundCache( nfcFile, ttl, false ), null, health, failing ),
+                    equalTo( poms ) );
+    }
+
+    @Test
+    public void circuitBreakerProbesAgainAfterTheCoolDown()
+        throws Exception
+    {
+        final RepositoryStandInServer only = serve( repo );
+        only.setErrorRate( 1 );
+
+        final LocationHealth health = new LocationHealth();
+        health.setBreakerFailures( 3 );
+        health.setBreakerMillis( 200 );
+
+        assertThat( discover( null, null, health, only ), equalTo( Collections.<String> emptyList() ) );
+        assertThat( only.getRequests(), equalTo( 3L ) );
+
+        only.setErrorRate( 0 );
+        Thread.sleep( 300 );
+
+        assertThat( discover( null, null, health, only ), equalTo( poms ) );
+        assertFalse( health.isOpen( only.getUrl() ) );
+    }
+
+    private RepositoryStandInServer serve( final File dir )
+        throws Exception
+    {
+        final RepositoryStandInServer server = new RepositoryStandInServer( dir );
+        server.setThreads( 4 );
+        server.start( 0 );
+        servers.add( server );
+
+        return server;
+    }
+
+    /**
+     * Look up every POM in the repository, one at a time, through the given
+     * repositories in order, and return the paths that were found.
+     */
+    private List<String> discover( final PersistentNotFoundCache nfc, final RepositoryRoutingIndex routing,
+                                   final LocationHealth health, final RepositoryStandInServer... remotes )
+        throws Exception
+    {
+        final List<ArtifactRepository> repositories = new ArrayList<ArtifactRepository>();
+        for ( final RepositoryStandInServer remote : remotes )
+        {
+            repositories.add( new MavenArtifactRepository( "repo" + repositories.size(), remote.getUrl(),
+                                                           new DefaultRepositoryLayout(),
+                                                           new ArtifactRepositoryPolicy(),
+                                                           new ArtifactRepositoryPolicy() ) );
+        }
+
+        final MavenLocationExpander expander = new MavenLocationExpander( null, repositories, null );
+        expander.setRoutingIndex( routing );
+        expander.setLocationHealth( health );
+
+        Transport transport =
+            new HttpClientTransport( new TunedHttp( new MemoryPasswordManager(), 8, 4, 2000, readTimeoutMillis ) );
+        if ( health != null )
+        {
+            transport = new MonitoredTransport( health, transport );
+        }
+
+        if ( nfc != null )
+        {
+            transport = new NotFoundConfirmingTransport( nfc, transport );
+        }
+
+        final FileEventManager events =
+            routing == null ? new NoOpFileEventManager() : new RoutingFileEventManager( routing,
+                                                                                        new NoOpFileEventManager() );
+
+        final GalleyCoreBuilder builder = new GalleyCoreBuilder( temp.newFolder() ).withLocationExpander( expander )
+                                                                                   .withFileEvents( events )
+                                                                                   .withEnabledTransports( transport )
+                                                                                   .withHandlerExecutor( executor )
+                                                                                   .withBatchExecutor( executor );
+        if ( nfc != null )
+        {
+            builder.withNfc( nfc );
+        }
+
+        final TransferManager transfers = builder.build()
+                                                 .getTransferManager();
+
+        final SimpleLocation target = new SimpleLocation( MavenLocationExpander.EXPANSION_TARGET );
+        final List<String> found = new ArrayList<String>();
+        for ( final String pom : poms )
+        {
+            try
+            {
+                // galley leaves the expansion to its callers; cartographer's artifact manager does the same.
+                final Transfer transfer =
+                    transfers.retrieveFirst( expander.expand( new VirtualResource( new ConcreteResource( target, pom ) ) ) );
+                if ( transfer != null && transfer.exists() )
+                {
+                    found.add( pom );
+                }
+            }
+            catch ( final TransferException e )
+            {
+                // discovery records the project as unresolved and carries on.
+            }
+        }
+
+        return found;
+    }
+
+}
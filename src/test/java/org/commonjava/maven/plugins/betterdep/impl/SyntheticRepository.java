@@ -0,0 +1,442 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.artifact.repository.metadata.Metadata;
+import org.apache.maven.artifact.repository.metadata.Versioning;
+import org.apache.maven.artifact.repository.metadata.io.xpp3.MetadataXpp3Writer;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.DependencyManagement;
+import org.apache.maven.model.Exclusion;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Parent;
+import org.apache.maven.model.io.xpp3.MavenXpp3Writer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes a synthetic Maven repository to disk, shaped like a large enterprise
+ * dependency graph, so goals can be run and measured against it without network
+ * access. Used by the performance tests. Projects are arranged in layers; each one depends on {@link #fanOut}
+ * projects from the next layer. Every project inherits from a chain of parent POMs,
+ * the top of which imports a set of BOMs managing half the projects. Some
+ * dependencies carry exclusions, use version ranges, or point to artifacts that
+ * don't exist.
+ *
+ * The same seed always produces the same repository.
+ */
+public class SyntheticRepository
+{
+
+    /**
+     * Lists the root GAVs, one per line; its presence marks a directory as written by
+     * this class.
+     */
+    public static final String ROOTS_FILE = "roots.txt";
+
+    public static final String DEFAULT_GROUP_ID = "org.commonjava.betterdep.synth";
+
+    public static final String VERSION = "1.0";
+
+    private static final String RANGE = "[1.0,2.0)";
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final Random random;
+
+    private String groupId = DEFAULT_GROUP_ID;
+
+    private int nodes = 1000;
+
+    private int fanOut = 5;
+
+    private int depth = 6;
+
+    private int boms = 2;
+
+    private int parentDepth = 3;
+
+    private double exclusionRate = 0.05;
+
+    private double rangeRate = 0.05;
+
+    private double missingRate = 0.01;
+
+    private byte[] jar;
+
+    public SyntheticRepository( final long seed )
+    {
+        this.random = new Random( seed );
+    }
+
+    public void setGroupId( final String groupId )
+    {
+        this.groupId = groupId;
+    }
+
+    /**
+     * Total number of projects in the dependency layers.
+     */
+    public void setNodes( final int nodes )
+    {
+        this.nodes = Math.max( 1, nodes );
+    }
+
+    /**
+     * Number of dependencies each project has on the next layer.
+     */
+    public void setFanOut( final int fanOut )
+    {
+        this.fanOut = Math.max( 0, fanOut );
+    }
+
+    /**
+     * Number of dependency layers. The projects in the first layer are the roots.
+     */
+    public void setDepth( final int depth )
+    {
+        this.depth = Math.max( 1, depth );
+    }
+
+    public void setBoms( final int boms )
+    {
+        this.boms = Math.max( 0, boms );
+    }
+
+    /**
+     * Length of the parent POM chain every project inherits from.
+     */
+    public void setParentDepth( final int parentDepth )
+    {
+        this.parentDepth = Math.max( 0, parentDepth );
+    }
+
+    public void setExclusionRate( final double exclusionRate )
+    {
+        this.exclusionRate = exclusionRate;
+    }
+
+    public void setRangeRate( final double rangeRate )
+    {
+        this.rangeRate = rangeRate;
+    }
+
+    public void setMissingRate( final double missingRate )
+    {
+        this.missingRate = missingRate;
+    }
+
+    /**
+     * Write the repository, replacing the one written to the same directory before,
+     * and list the roots in {@link #ROOTS_FILE}. A directory that has content but no
+     * roots file wasn't written by this class, and is never deleted.
+     *
+     * @return the GAVs of the root projects, in the -Dfrom format
+     */
+    public List<String> write( final File dir )
+        throws IOException
+    {
+        clean( dir );
+
+        // every layer needs at least one project in it.
+        depth = Math.min( depth, nodes );
+        jar = newJar();
+
+        for ( int i = 0; i < parentDepth; i++ )
+        {
+            writeParent( dir, i );
+        }
+
+        for ( int i = 0; i < boms; i++ )
+        {
+            writeBom( dir, i );
+        }
+
+        final List<String> roots = new ArrayList<String>();
+        int relationships = 0;
+        int missing = 0;
+        for ( int layer = 0; layer < depth; layer++ )
+        {
+            final int start = layerStart( layer );
+            final int end = layerStart( layer + 1 );
+            for ( int i = start; i < end; i++ )
+            {
+                final Model model = newModel( node( i ), "jar" );
+                if ( parentDepth > 0 )
+                {
+                    model.setParent( newParent( parentDepth - 1 ) );
+                }
+
+                if ( layer + 1 < depth )
+                {
+                    for ( final Dependency dep : newDependencies( layer + 1 ) )
+                    {
+                        model.addDependency( dep );
+                        if ( dep.getArtifactId()
+                                .startsWith( "missing-" ) )
+                        {
+                            missing++;
+                        }
+                        relationships++;
+                    }
+                }
+
+                writeProject( dir, model );
+                if ( layer == 0 )
+                {
+                    roots.add( groupId + ":" + node( i ) + ":" + VERSION );
+                }
+            }
+        }
+
+        FileUtils.writeLines( new File( dir, ROOTS_FILE ), roots );
+
+        logger.info( "Wrote synthetic repository with {} projects, {} dependencies ({} missing), {} parents and {} BOMs"
+            + " to: {}", nodes, relationships, missing, parentDepth, boms, dir );
+
+        return roots;
+    }
+
+    private static void clean( final File dir )
+        throws IOException
+    {
+        final String[] children = dir.list();
+        if ( children == null || children.length == 0 )
+        {
+            return;
+        }
+
+        if ( !new File( dir, ROOTS_FILE ).isFile() )
+        {
+            throw new IOException( "Refusing to delete: " + dir + ". It isn't empty, and has no " + ROOTS_FILE
+                + " so it wasn't written by the synthetic repository generator." );
+        }
+
+        FileUtils.deleteDirectory( dir );
+    }
+
+    private List<Dependency> newDependencies( final int layer )
+    {
+        final int start = layerStart( layer );
+        final int size = layerStart( layer + 1 ) - start;
+
+        final Set<Integer> targets = new LinkedHashSet<Integer>();
+        while ( targets.size() < Math.min( fanOut, size ) )
+        {
+            targets.add( start + random.nextInt( size ) );
+        }
+
+        final List<Dependency> deps = new ArrayList<Dependency>();
+        for ( final int target : targets )
+        {
+            final Dependency dep = new Dependency();
+            dep.setGroupId( groupId );
+
+            if ( random.nextDouble() < missingRate )
+            {
+                dep.setArtifactId( "missing-" + target );
+                dep.setVersion( VERSION );
+                deps.add( dep );
+                continue;
+            }
+
+            dep.setArtifactId( node( target ) );
+            if ( random.nextDouble() < rangeRate )
+            {
+                dep.setVersion( RANGE );
+            }
+            else if ( !isManaged( target ) )
+            {
+                dep.setVersion( VERSION );
+            }
+
+            if ( layer + 1 < depth && random.nextDouble() < exclusionRate )
+            {
+                // exclude one of the target's own possible dependencies.
+                final int excludedStart = layerStart( layer + 1 );
+                final int excludedSize = layerStart( layer + 2 ) - excludedStart;
+
+                final Exclusion exclusion = new Exclusion();
+                exclusion.setGroupId( groupId );
+                exclusion.setArtifactId( node( excludedStart + random.nextInt( excludedSize ) ) );
+                dep.addExclusion( exclusion );
+            }
+
+            deps.add( dep );
+        }
+
+        return deps;
+    }
+
+    private void writeParent( final File dir, final int index )
+        throws IOException
+    {
+        final Model model = newModel( "parent-" + index, "pom" );
+        if ( index > 0 )
+        {
+            model.setParent( newParent( index - 1 ) );
+        }
+        else if ( boms > 0 )
+        {
+            final DependencyManagement dm = new DependencyManagement();
+            for ( int i = 0; i < boms; i++ )
+            {
+                final Dependency dep = new Dependency();
+                dep.setGroupId( groupId );
+                dep.setArtifactId( "bom-" + i );
+                dep.setVersion( VERSION );
+                dep.setType( "pom" );
+                dep.setScope( "import" );
+                dm.addDependency( dep );
+            }
+
+            model.setDependencyManagement( dm );
+        }
+
+        writeProject( dir, model );
+    }
+
+    private void writeBom( final File dir, final int index )
+        throws IOException
+    {
+        final Model model = newModel( "bom-" + index, "pom" );
+        final DependencyManagement dm = new DependencyManagement();
+        for ( int i = index; i < nodes; i += 2 * boms )
+        {
+            final Dependency dep = new Dependency();
+            dep.setGroupId( groupId );
+            dep.setArtifactId( node( i ) );
+            dep.setVersion( VERSION );
+            dm.addDependency( dep );
+        }
+
+        model.setDependencyManagement( dm );
+
+        writeProject( dir, model );
+    }
+
+    private void writeProject( final File dir, final Model model )
+        throws IOException
+    {
+        final String artifactId = model.getArtifactId();
+        final File artifactDir = new File( dir, groupId.replace( '.', '/' ) + "/" + artifactId );
+        final File versionDir = new File( artifactDir, VERSION );
+        versionDir.mkdirs();
+
+        final ByteArrayOutputStream pom = new ByteArrayOutputStream();
+        new MavenXpp3Writer().write( pom, model );
+        writeFile( new File( versionDir, artifactId + "-" + VERSION + ".pom" ), pom.toByteArray() );
+
+        if ( "jar".equals( model.getPackaging() ) )
+        {
+            writeFile( new File( versionDir, artifactId + "-" + VERSION + ".jar" ), jar );
+        }
+
+        final Versioning versioning = new Versioning();
+        versioning.addVersion( VERSION );
+        versioning.setLatest( VERSION );
+        versioning.setRelease( VERSION );
+
+        final Metadata metadata = new Metadata();
+        metadata.setGroupId( groupId );
+        metadata.setArtifactId( artifactId );
+        metadata.setVersioning( versioning );
+
+        final ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        new MetadataXpp3Writer().write( xml, metadata );
+        writeFile( new File( artifactDir, "maven-metadata.xml" ), xml.toByteArray() );
+    }
+
+    private void writeFile( final File file, final byte[] content )
+        throws IOException
+    {
+        Files.write( file.toPath(), content );
+
+        final Checksums checksums = new Checksums( Collections.singletonList( Checksums.SHA1 ) );
+        checksums.update( content, 0, content.length );
+
+        final String sha1 = checksums.digest()
+                                     .get( Checksums.SHA1 );
+        Files.write( new File( file.getPath() + "." + Checksums.SHA1 ).toPath(),
+                     sha1.getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+    private Model newModel( final String artifactId, final String packaging )
+    {
+        final Model model = new Model();
+        model.setModelVersion( "4.0.0" );
+        model.setGroupId( groupId );
+        model.setArtifactId( artifactId );
+        model.setVersion( VERSION );
+        model.setPackaging( packaging );
+
+        return model;
+    }
+
+    private Parent newParent( final int index )
+    {
+        final Parent parent = new Parent();
+        parent.setGroupId( groupId );
+        parent.setArtifactId( "parent-" + index );
+        parent.setVersion( VERSION );
+
+        return parent;
+    }
+
+    private boolean isManaged( final int node )
+    {
+        return boms > 0 && parentDepth > 0 && node % ( 2 * boms ) < boms;
+    }
+
+    private int layerStart( final int layer )
+    {
+        if ( layer >= depth )
+        {
+            return nodes;
+        }
+
+        return (int) ( (long) nodes * layer / depth );
+    }
+
+    private static String node( final int index )
+    {
+        return "node-" + index;
+    }
+
+    private static byte[] newJar()
+        throws IOException
+    {
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes()
+                .putValue( "Manifest-Version", "1.0" );
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new JarOutputStream( out, manifest ).close();
+
+        return out.toByteArray();
+    }
+
+}
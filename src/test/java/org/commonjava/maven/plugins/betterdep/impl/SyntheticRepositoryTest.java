@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Red Hat, Inc..
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.commonjava.maven.plugins.betterdep.impl;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SyntheticRepositoryTest
+{
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void listsRootsAndReplacesItsOwnOutput()
+        throws Exception
+    {
+        final File dir = new File( temp.getRoot(), "repo" );
+
+        final SyntheticRepository big = new SyntheticRepository( 1 );
+        big.setNodes( 60 );
+        final List<String> roots = big.write( dir );
+
+        assertThat( FileUtils.readLines( new File( dir, SyntheticRepository.ROOTS_FILE ) ), equalTo( roots ) );
+        assertTrue( new File( dir, nodePath( 59 ) ).isDirectory() );
+
+        final SyntheticRepository small = new SyntheticRepository( 1 );
+        small.setNodes( 30 );
+        small.write( dir );
+
+        assertTrue( new File( dir, nodePath( 29 ) ).isDirectory() );
+        assertFalse( new File( dir, nodePath( 59 ) ).exists() );
+    }
+
+    @Test
+    public void refusesToDeleteOtherDirectories()
+        throws Exception
+    {
+        final File dir = temp.newFolder( "work" );
+        final File precious = new File( dir, "precious.txt" );
+        FileUtils.write( precious, "keep me" );
+
+        try
+        {
+            new SyntheticRepository( 1 ).write( dir );
+            fail( "Wrote over a directory without " + SyntheticRepository.ROOTS_FILE );
+        }
+        catch ( final IOException e )
+        {
+            assertTrue( e.getMessage(), e.getMessage()
+                                         .contains( SyntheticRepository.ROOTS_FILE ) );
+        }
+
+        assertThat( FileUtils.readFileToString( precious ), equalTo( "keep me" ) );
+    }
+
+    @Test
+    public void writesIntoAnEmptyDirectory()
+        throws Exception
+    {
+        final File dir = temp.newFolder( "empty" );
+
+        final SyntheticRepository repo = new SyntheticRepository( 1 );
+        repo.setNodes( 10 );
+        repo.write( dir );
+
+        assertTrue( new File( dir, SyntheticRepository.ROOTS_FILE ).isFile() );
+    }
+
+    private static String nodePath( final int node )
+    {
+        return SyntheticRepository.DEFAULT_GROUP_ID.replace( '.', '/' ) + "/node-" + node;
+    }
+
+}